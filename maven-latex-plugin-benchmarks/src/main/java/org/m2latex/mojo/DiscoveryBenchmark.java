@@ -0,0 +1,107 @@
+/*
+ * The akquinet maven-latex-plugin project
+ *
+ * Copyright (c) 2011 by akquinet tech@spree GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.m2latex.mojo;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Finding the LaTeX main documents in synthetic tex directories of different sizes, each document consisting of a
+ * main file and three chapters.
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@State( Scope.Benchmark )
+@Fork( 1 )
+@Warmup( iterations = 3 )
+@Measurement( iterations = 5 )
+public class DiscoveryBenchmark
+{
+    @Param( { "10", "100", "1000" } )
+    public int documents;
+
+    private File directory;
+
+    private File texDirectory;
+
+    private MainDocumentDetector sequentialDetector;
+
+    private MainDocumentDetector parallelDetector;
+
+    private MainDocumentDetector cachingDetector;
+
+    @Setup
+    public void setUp()
+        throws IOException, MojoExecutionException
+    {
+        directory = SyntheticTexTree.createTempDirectory( "m2latex-discovery-benchmark" );
+        texDirectory = new File( directory, "tex" );
+        SyntheticTexTree.createDocuments( texDirectory, documents, 16 );
+
+        NullLog log = new NullLog();
+        sequentialDetector = new MainDocumentDetector( log, null, 1 );
+        parallelDetector = new MainDocumentDetector( log, null, Runtime.getRuntime().availableProcessors() );
+        cachingDetector = new MainDocumentDetector( log, new File( directory, "cache.properties" ), 1 );
+        cachingDetector.findMainDocuments( texDirectory );
+    }
+
+    @TearDown
+    public void tearDown()
+        throws IOException
+    {
+        FileUtils.deleteDirectory( directory );
+    }
+
+    @Benchmark
+    public List sequential()
+        throws MojoExecutionException
+    {
+        return sequentialDetector.findMainDocuments( texDirectory );
+    }
+
+    @Benchmark
+    public List parallel()
+        throws MojoExecutionException
+    {
+        return parallelDetector.findMainDocuments( texDirectory );
+    }
+
+    @Benchmark
+    public List cached()
+        throws MojoExecutionException
+    {
+        return cachingDetector.findMainDocuments( texDirectory );
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * The akquinet maven-latex-plugin project
+ *
+ * Copyright (c) 2011 by akquinet tech@spree GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.m2latex.mojo;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Scanning LaTeX log files of different sizes for the patterns the processing depends on.
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@State( Scope.Benchmark )
+@Fork( 1 )
+@Warmup( iterations = 3 )
+@Measurement( iterations = 5 )
+public class LogScanningBenchmark
+{
+    /**
+     * Size of the log file in kB.
+     */
+    @Param( { "16", "4096" } )
+    public int logSize;
+
+    private File directory;
+
+    private File texFile;
+
+    private TexFileUtils fileUtils;
+
+    @Setup
+    public void setUp()
+        throws IOException
+    {
+        directory = SyntheticTexTree.createTempDirectory( "m2latex-log-benchmark" );
+        texFile = new File( directory, "doc.tex" );
+        SyntheticTexTree.createLogFile( new File( directory, "doc.log" ), logSize * 1024, new String[] {
+            "No file doc.bbl.",
+            "LaTeX Warning: There were undefined references." } );
+        fileUtils = new TexFileUtilsImpl( new NullLog() );
+    }
+
+    @TearDown
+    public void tearDown()
+        throws IOException
+    {
+        FileUtils.deleteDirectory( directory );
+    }
+
+    @Benchmark
+    public boolean matchRerunPattern()
+        throws MojoExecutionException
+    {
+        return fileUtils.matchInCorrespondingLogFile( texFile, LogAnalyzer.PATTERN_NEED_ANOTHER_LATEX_RUN );
+    }
+
+    @Benchmark
+    public LogAnalysis analyzeLogFile()
+        throws MojoExecutionException
+    {
+        return fileUtils.analyzeCorrespondingLogFile( texFile );
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * The akquinet maven-latex-plugin project
+ *
+ * Copyright (c) 2011 by akquinet tech@spree GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.m2latex.mojo;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Copying the output of a processed document to the output directory: a PDF file for the latex goal and many HTML
+ * pages with images for the tex4ht goal.
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@State( Scope.Benchmark )
+@Fork( 1 )
+@Warmup( iterations = 3 )
+@Measurement( iterations = 5 )
+public class OutputCopyingBenchmark
+{
+    /**
+     * Number of HTML pages generated by tex4ht, each with an image.
+     */
+    @Param( { "10", "300" } )
+    public int pages;
+
+    private File directory;
+
+    private File tempDirectory;
+
+    private File outputDirectory;
+
+    private File texFile;
+
+    private File tex4htOutputDirectory;
+
+    private TexFileUtils fileUtils;
+
+    @Setup
+    public void setUp()
+        throws IOException, MojoExecutionException
+    {
+        directory = SyntheticTexTree.createTempDirectory( "m2latex-output-benchmark" );
+        tempDirectory = new File( directory, "m2latex" );
+        outputDirectory = new File( directory, "site" );
+        texFile = new File( tempDirectory, "doc/doc.tex" );
+        SyntheticTexTree.createBinaryFile( texFile, 1024 );
+        SyntheticTexTree.createBinaryFile( new File( texFile.getParentFile(), "doc.pdf" ), 4 * 1024 * 1024 );
+
+        fileUtils = new TexFileUtilsImpl( new NullLog() );
+        tex4htOutputDirectory = fileUtils.createTex4htOutputDir( texFile );
+        for ( int i = 0; i < pages; i++ )
+        {
+            SyntheticTexTree.createBinaryFile( new File( tex4htOutputDirectory, "doc" + i + ".html" ), 8 * 1024 );
+            SyntheticTexTree.createBinaryFile( new File( tex4htOutputDirectory, "doc" + i + "x.png" ), 32 * 1024 );
+        }
+    }
+
+    @TearDown
+    public void tearDown()
+        throws IOException
+    {
+        FileUtils.deleteDirectory( directory );
+    }
+
+    @Benchmark
+    public void copyLatexOutput()
+        throws MojoExecutionException, MojoFailureException
+    {
+        fileUtils.copyLatexOutputToOutputFolder( texFile, tempDirectory, outputDirectory );
+    }
+
+    @Benchmark
+    public void copyTex4htOutput()
+        throws MojoExecutionException, MojoFailureException
+    {
+        fileUtils.copyTex4htOutputToOutputFolder( texFile, tempDirectory, tex4htOutputDirectory, outputDirectory );
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * The akquinet maven-latex-plugin project
+ *
+ * Copyright (c) 2011 by akquinet tech@spree GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.m2latex.mojo;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.codehaus.plexus.util.cli.CommandLineException;
+import org.codehaus.plexus.util.cli.StreamConsumer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The pass loop of {@link LatexProcessor#processLatex(File)} against a stub command executor, which writes the log
+ * and aux files a real LaTeX run would write but does not run TeX. Measures the overhead of the plugin per document.
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@State( Scope.Benchmark )
+@Fork( 1 )
+@Warmup( iterations = 3 )
+@Measurement( iterations = 5 )
+public class PassLoopBenchmark
+{
+    @Param( { LatexProcessor.RERUN_DETECTION_LOG, LatexProcessor.RERUN_DETECTION_FIXPOINT } )
+    public String rerunDetection;
+
+    /**
+     * Number of LaTeX runs until the stub reports a stable document.
+     */
+    @Param( { "1", "3" } )
+    public int passes;
+
+    /**
+     * Size of the log file written by each stub run in kB.
+     */
+    @Param( { "64" } )
+    public int logSize;
+
+    private File directory;
+
+    private File texFile;
+
+    private StubCommandExecutor executor;
+
+    private LatexProcessor processor;
+
+    @Setup
+    public void setUp()
+        throws IOException
+    {
+        directory = SyntheticTexTree.createTempDirectory( "m2latex-pass-benchmark" );
+        texFile = new File( directory, "doc.tex" );
+        FileUtils.writeStringToFile( texFile, "\\documentclass{article}\\begin{document}Text\\end{document}" );
+
+        Settings settings = new Settings().setTargetDirectory( directory ).setRerunDetection( rerunDetection );
+        NullLog log = new NullLog();
+        executor = new StubCommandExecutor( settings.getTexCommand() );
+        processor = new LatexProcessor( settings, executor, log, new TexFileUtilsImpl( log ) );
+    }
+
+    @TearDown
+    public void tearDown()
+        throws IOException
+    {
+        FileUtils.deleteDirectory( directory );
+    }
+
+    @Benchmark
+    public void processLatex()
+        throws CommandLineException, MojoExecutionException
+    {
+        executor.runs = 0;
+        processor.processLatex( texFile );
+    }
+
+    /**
+     * Writes the files of a LaTeX run whose aux file changes and whose log asks for a rerun until the configured
+     * number of passes is reached.
+     */
+    private class StubCommandExecutor
+        implements CommandExecutor
+    {
+        private final String texCommand;
+
+        private int runs;
+
+        StubCommandExecutor( String texCommand )
+        {
+            this.texCommand = texCommand;
+        }
+
+        public String execute( File workingDir, File pathToExecutable, String executable, String[] args )
+            throws CommandLineException
+        {
+            return execute( workingDir, pathToExecutable, executable, args, 0 );
+        }
+
+        public String execute( File workingDir, File pathToExecutable, String executable, String[] args,
+                               int timeout )
+            throws CommandLineException
+        {
+            execute( workingDir, pathToExecutable, executable, args, null, timeout );
+            return "";
+        }
+
+        public int executeForExitCode( File workingDir, File pathToExecutable, String executable, String[] args,
+                                       int timeout )
+            throws CommandLineException
+        {
+            return execute( workingDir, pathToExecutable, executable, args, null, timeout );
+        }
+
+        public int execute( File workingDir, File pathToExecutable, String executable, String[] args,
+                            StreamConsumer output, int timeout )
+            throws CommandLineException
+        {
+            if ( !texCommand.equals( executable ) )
+            {
+                return 0;
+            }
+            runs++;
+            boolean stable = runs >= passes;
+            try
+            {
+                FileUtils.writeStringToFile( new File( workingDir, "doc.aux" ), "\\relax\n\\newlabel{run}{"
+                    + Math.min( runs, passes ) + "}\n" );
+                SyntheticTexTree.createLogFile( new File( workingDir, "doc.log" ), logSize * 1024,
+                                                stable ? new String[0] : new String[] { "LaTeX Warning: Label(s) "
+                                                    + "may have changed. Rerun to get cross-references right." } );
+            }
+            catch ( IOException e )
+            {
+                throw new CommandLineException( "Error writing the stub output", e );
+            }
+            return 0;
+        }
+    }
+}
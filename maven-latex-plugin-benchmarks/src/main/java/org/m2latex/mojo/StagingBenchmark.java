@@ -0,0 +1,114 @@
+/*
+ * The akquinet maven-latex-plugin project
+ *
+ * Copyright (c) 2011 by akquinet tech@spree GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.m2latex.mojo;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Bringing a tex directory with images to the temporary directory with the different staging modes.
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@State( Scope.Benchmark )
+@Fork( 1 )
+@Warmup( iterations = 3 )
+@Measurement( iterations = 5 )
+public class StagingBenchmark
+{
+    @Param( { "10", "100" } )
+    public int documents;
+
+    /**
+     * Size of each image in kB.
+     */
+    @Param( { "256" } )
+    public int imageSize;
+
+    private File directory;
+
+    private File texDirectory;
+
+    private File tempDirectory;
+
+    private TexFileUtils fileUtils;
+
+    private SourceStager copyingStager;
+
+    private SourceStager linkingStager;
+
+    @Setup
+    public void setUp()
+        throws IOException, MojoExecutionException
+    {
+        directory = SyntheticTexTree.createTempDirectory( "m2latex-staging-benchmark" );
+        texDirectory = new File( directory, "tex" );
+        tempDirectory = new File( directory, "m2latex" );
+        SyntheticTexTree.createDocuments( texDirectory, documents, imageSize * 1024 );
+
+        NullLog log = new NullLog();
+        fileUtils = new TexFileUtilsImpl( log );
+        copyingStager = new SourceStager( log );
+        linkingStager = new SourceStager( log, SourceStager.LINKING_HARDLINK );
+        copyingStager.sync( texDirectory, tempDirectory, false );
+    }
+
+    @TearDown
+    public void tearDown()
+        throws IOException
+    {
+        FileUtils.deleteDirectory( directory );
+    }
+
+    @Benchmark
+    public void copyDirectory()
+        throws MojoExecutionException
+    {
+        fileUtils.copyLatexSrcToTempDir( texDirectory, new File( directory, "copy" ) );
+    }
+
+    @Benchmark
+    public void copyWithHardlinks()
+        throws MojoExecutionException
+    {
+        linkingStager.copy( texDirectory, new File( directory, "link" ) );
+    }
+
+    @Benchmark
+    public void syncUnchanged()
+        throws MojoExecutionException
+    {
+        copyingStager.sync( texDirectory, tempDirectory, false );
+    }
+}
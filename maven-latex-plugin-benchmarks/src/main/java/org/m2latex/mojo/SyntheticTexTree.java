@@ -0,0 +1,140 @@
+/*
+ * The akquinet maven-latex-plugin project
+ *
+ * Copyright (c) 2011 by akquinet tech@spree GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.m2latex.mojo;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Creates synthetic TeX source trees, log files and output files for the benchmarks.
+ */
+public final class SyntheticTexTree
+{
+    private static final String LOG_LINE = "Overfull \\hbox (12.34pt too wide) in paragraph at lines 1024--1031";
+
+    private SyntheticTexTree()
+    {
+    }
+
+    /**
+     * @return a new empty directory below the temporary directory
+     */
+    public static File createTempDirectory( String prefix )
+        throws IOException
+    {
+        File directory = File.createTempFile( prefix, "" );
+        directory.delete();
+        directory.mkdirs();
+        return directory;
+    }
+
+    /**
+     * Creates the given number of main documents, each in its own folder with three chapters and two images.
+     */
+    public static void createDocuments( File texDirectory, int documents, int imageSize )
+        throws IOException
+    {
+        for ( int i = 0; i < documents; i++ )
+        {
+            File documentDirectory = new File( texDirectory, "doc" + i );
+            StringBuffer main = new StringBuffer();
+            main.append( "% document " ).append( i ).append( '\n' );
+            main.append( "\\documentclass{article}\n\\usepackage{graphicx}\n" );
+            main.append( "\\begin{document}\n" );
+            for ( int j = 0; j < 3; j++ )
+            {
+                main.append( "\\input{chapters/chapter" ).append( j ).append( "}\n" );
+                FileUtils.writeStringToFile( new File( documentDirectory, "chapters/chapter" + j + ".tex" ),
+                                             "\\section{Chapter " + j + "}\n" + createText( 200 ) );
+            }
+            for ( int j = 0; j < 2; j++ )
+            {
+                main.append( "\\includegraphics{images/image" ).append( j ).append( "}\n" );
+                createBinaryFile( new File( documentDirectory, "images/image" + j + ".png" ), imageSize );
+            }
+            main.append( "\\end{document}\n" );
+            FileUtils.writeStringToFile( new File( documentDirectory, "doc" + i + ".tex" ), main.toString() );
+        }
+    }
+
+    /**
+     * Writes a LaTeX log file of about the given size, ending with the given lines.
+     */
+    public static void createLogFile( File logFile, int size, String[] lastLines )
+        throws IOException
+    {
+        Writer writer = new BufferedWriter( new FileWriter( logFile ) );
+        try
+        {
+            writer.write( "This is pdfTeX, Version 3.1415926 (TeX Live)\n" );
+            for ( int written = 0; written < size; written += LOG_LINE.length() + 1 )
+            {
+                writer.write( LOG_LINE );
+                writer.write( '\n' );
+            }
+            for ( int i = 0; i < lastLines.length; i++ )
+            {
+                writer.write( lastLines[i] );
+                writer.write( '\n' );
+            }
+        }
+        finally
+        {
+            IOUtils.closeQuietly( writer );
+        }
+    }
+
+    /**
+     * Writes a file of random bytes.
+     */
+    public static void createBinaryFile( File file, int size )
+        throws IOException
+    {
+        file.getParentFile().mkdirs();
+        byte[] content = new byte[size];
+        new Random( size ).nextBytes( content );
+        OutputStream out = new FileOutputStream( file );
+        try
+        {
+            out.write( content );
+        }
+        finally
+        {
+            IOUtils.closeQuietly( out );
+        }
+    }
+
+    private static String createText( int words )
+    {
+        StringBuffer text = new StringBuffer();
+        for ( int i = 0; i < words; i++ )
+        {
+            text.append( i % 12 == 11 ? "lorem\n" : "lorem " );
+        }
+        return text.toString();
+    }
+}
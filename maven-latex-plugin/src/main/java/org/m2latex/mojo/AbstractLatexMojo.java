@@ -20,14 +20,33 @@ package org.m2latex.mojo;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
 
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.StringUtils;
 import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.util.cli.CommandLineException;
 
 public abstract class AbstractLatexMojo
     extends AbstractMojo
 {
+    /**
+     * The search paths of TeX, BibTeX and makeindex, which point to the sources when compiling in place.
+     */
+    private static final String[] SEARCH_PATH_VARIABLES =
+        new String[] { "TEXINPUTS", "BIBINPUTS", "BSTINPUTS", "INDEXSTYLE" };
 
     /**
      * Location of the maven base dir.
@@ -53,6 +72,22 @@ public abstract class AbstractLatexMojo
      */
     protected File targetSiteDirectory;
 
+    /**
+     * The version of this plugin, part of the fingerprint of each document.
+     * 
+     * @parameter expression="${plugin.version}"
+     * @readonly
+     */
+    protected String pluginVersion;
+
+    /**
+     * The start time of the build, which identifies the build sharing the limit of {@link Settings#getMaxProcesses()}.
+     * 
+     * @parameter expression="${session.startTime}"
+     * @readonly
+     */
+    protected Date buildStartTime;
+
     /**
      * The Settings.
      * 
@@ -66,6 +101,25 @@ public abstract class AbstractLatexMojo
 
     protected Log log;
 
+    protected BuildMetrics metrics;
+
+    private FingerprintStore fingerprintStore;
+
+    private DependencyGraph dependencyGraph;
+
+    private final DependencyScanner dependencyScanner = new DependencyScanner();
+
+    /**
+     * Caches the digests of the source files, which must not change while it is used.
+     */
+    private FileDigests fileDigests = new FileDigests();
+
+    private OutputStore outputStore;
+
+    private String toolchainVersion;
+
+    private ProcessLimiter processLimiter;
+
     protected void cleanUp()
     {
         getLog().debug( "Deleting temporary directory " + settings.getTempDirectory().getPath() );
@@ -90,7 +144,736 @@ public abstract class AbstractLatexMojo
             .setTargetDirectory( targetDirectory );
 
         log = getLog();
-        fileUtils = new TexFileUtilsImpl( log );
-        latexProcessor = new LatexProcessor( settings, new CommandExecutorImpl( log ), log, fileUtils );
+        fileUtils = new TexFileUtilsImpl( log, new MainDocumentDetector( log, settings.getMainDocumentCacheFile(),
+                                                                         settings.getThreads() ),
+                                          new OutputPublisher( log, settings.getThreads() ) );
+        metrics = new BuildMetrics( settings.getTempDirectory() );
+        outputStore = createOutputStore();
+        processLimiter = ProcessLimiter.getSharedInstance( buildStartTime, settings.getMaxProcesses() );
+        if ( processLimiter.getMaxProcesses() != settings.getMaxProcesses() )
+        {
+            log.warn( "Ignoring maxProcesses " + settings.getMaxProcesses() + ", running at most "
+                + processLimiter.getMaxProcesses()
+                + " processes at the same time as configured by the first module of the build" );
+        }
+        latexProcessor = new LatexProcessor( settings, createCommandExecutor( log, null, null ), log, fileUtils,
+                                             metrics );
+        if ( settings.isPrecompilePreamble() )
+        {
+            latexProcessor.setToolchainVersion( getToolchainVersion() );
+        }
+    }
+
+    /**
+     * @return the LaTeX main documents in the tex directory
+     */
+    protected List findLatexMainDocuments()
+        throws MojoExecutionException
+    {
+        BuildMetrics.Timing timing = metrics.start( null, BuildMetrics.STAGE_DISCOVERY );
+        try
+        {
+            return fileUtils.getLatexMainDocuments( settings.getTexDirectory() );
+        }
+        finally
+        {
+            timing.stop();
+        }
+    }
+
+    /**
+     * Logs the time spent in the processing stages and writes them to {@link Settings#getMetricsFile(String)}.
+     */
+    protected void reportMetrics()
+    {
+        metrics.logSummary( log );
+        try
+        {
+            metrics.writeReport( settings.getMetricsFile( getGoal() ) );
+        }
+        catch ( IOException e )
+        {
+            log.warn( "Cannot write the build report '" + settings.getMetricsFile( getGoal() ) + "'", e );
+        }
+    }
+
+    /**
+     * Brings the sources from the tex directory to the temporary directory as configured by
+     * {@link Settings#getStaging()}.
+     */
+    protected void stageSources()
+        throws MojoExecutionException
+    {
+        BuildMetrics.Timing timing = metrics.start( null, BuildMetrics.STAGE_STAGING );
+        try
+        {
+            stageSources( settings.getAssetLinking(), settings.getStaging(), settings.getTempDirectory() );
+        }
+        finally
+        {
+            timing.stop();
+        }
+    }
+
+    private void stageSources( String linking, String staging, File workingDirectory )
+        throws MojoExecutionException
+    {
+        if ( StringUtils.isEmpty( linking ) )
+        {
+            linking = SourceStager.LINKING_NONE;
+        }
+        else if ( !SourceStager.LINKING_NONE.equals( linking ) && !SourceStager.LINKING_HARDLINK.equals( linking )
+            && !SourceStager.LINKING_SYMLINK.equals( linking ) )
+        {
+            throw new MojoExecutionException( "Unknown assetLinking '" + linking + "', expected '"
+                + SourceStager.LINKING_NONE + "', '" + SourceStager.LINKING_HARDLINK + "' or '"
+                + SourceStager.LINKING_SYMLINK + "'" );
+        }
+        SourceStager stager = new SourceStager( log, linking );
+
+        if ( SourceStager.STAGING_SYNC.equals( staging ) )
+        {
+            stager.sync( settings.getTexDirectory(), workingDirectory, settings.isStagingChecksums() );
+        }
+        else if ( StringUtils.isEmpty( staging ) || SourceStager.STAGING_COPY.equals( staging ) )
+        {
+            if ( SourceStager.LINKING_NONE.equals( linking ) )
+            {
+                fileUtils.copyLatexSrcToTempDir( settings.getTexDirectory(), workingDirectory );
+            }
+            else
+            {
+                stager.copy( settings.getTexDirectory(), workingDirectory );
+            }
+        }
+        else if ( SourceStager.STAGING_INPLACE.equals( staging ) )
+        {
+            stager.mirrorDirectories( settings.getTexDirectory(), workingDirectory );
+        }
+        else
+        {
+            throw new MojoExecutionException( "Unknown staging '" + staging + "', expected '"
+                + SourceStager.STAGING_COPY + "', '" + SourceStager.STAGING_SYNC + "' or '"
+                + SourceStager.STAGING_INPLACE + "'" );
+        }
+    }
+
+    /**
+     * @param texFiles the LaTeX main documents in the tex directory
+     * @return those of the given documents which must be processed. Unless {@link Settings#isIncremental()} is set,
+     *         these are all documents.
+     */
+    protected List getOutdatedDocuments( List texFiles )
+        throws MojoExecutionException, MojoFailureException
+    {
+        if ( outputStore != null || settings.isIncremental() )
+        {
+            loadDependencyGraph();
+        }
+        if ( !settings.isIncremental() )
+        {
+            return texFiles;
+        }
+
+        fingerprintStore = new FingerprintStore( settings.getFingerprintFile(), log );
+        fingerprintStore.load();
+        List outdatedFiles = new ArrayList();
+        for ( Iterator iterator = texFiles.iterator(); iterator.hasNext(); )
+        {
+            File texFile = (File) iterator.next();
+            String fingerprint = getFingerprint( texFile );
+            if ( fingerprintStore.isUpToDate( getFingerprintKey( texFile ), fingerprint ) && hasOutput( texFile ) )
+            {
+                log.info( "LaTeX file " + texFile + " is up to date" );
+            }
+            else
+            {
+                outdatedFiles.add( texFile );
+            }
+        }
+        return outdatedFiles;
+    }
+
+    /**
+     * Forgets the digests of the source files computed so far, after the sources have changed.
+     */
+    protected void forgetFileDigests()
+    {
+        fileDigests = new FileDigests();
+    }
+
+    /**
+     * Loads the dependencies recorded by the last build, unless already loaded. The dependencies of the documents
+     * processed from now on are recorded.
+     */
+    protected DependencyGraph loadDependencyGraph()
+    {
+        if ( dependencyGraph == null )
+        {
+            dependencyGraph = new DependencyGraph( settings.getDependencyFile(), log );
+            dependencyGraph.load();
+        }
+        return dependencyGraph;
+    }
+
+    /**
+     * Copies the output of those of the given documents found in the output store to the output directory.
+     * 
+     * @param texFiles the LaTeX main documents in the tex directory
+     * @return those of the given documents which must be processed
+     */
+    protected List restoreCachedOutputs( List texFiles )
+        throws MojoExecutionException, MojoFailureException
+    {
+        if ( outputStore == null )
+        {
+            return texFiles;
+        }
+        List missingFiles = new ArrayList();
+        for ( Iterator iterator = texFiles.iterator(); iterator.hasNext(); )
+        {
+            File texFile = (File) iterator.next();
+            File targetDirectory = fileUtils.getTargetDirectory( texFile, settings.getTexDirectory(),
+                                                                 settings.getOutputDirectory() );
+            if ( outputStore.restore( getCacheKey( texFile ), targetDirectory ) )
+            {
+                log.info( "Restored the output of LaTeX file " + texFile + " from the output cache" );
+                rememberFingerprint( texFile );
+            }
+            else
+            {
+                missingFiles.add( texFile );
+            }
+        }
+        saveBuildState();
+        return missingFiles;
+    }
+
+    /**
+     * @return the store to cache the outputs in, or null for no caching. Override to use another store than a
+     *         directory.
+     */
+    protected OutputStore createOutputStore()
+    {
+        if ( settings.getOutputCacheDirectory() == null )
+        {
+            return null;
+        }
+        return new LocalOutputStore( settings.getOutputCacheDirectory(), log );
+    }
+
+    /**
+     * Processes the given LaTeX main documents in the temporary directory using {@link Settings#getThreads()} worker
+     * threads, starting with the documents which took longest in previous builds. Documents including the same files
+     * are processed one after another.
+     * 
+     * @param texFiles the LaTeX main documents in the tex directory
+     */
+    protected void processDocuments( List texFiles )
+        throws MojoExecutionException, MojoFailureException
+    {
+        final Map sourceFiles = new HashMap();
+        List tempFiles = new ArrayList();
+        for ( Iterator iterator = texFiles.iterator(); iterator.hasNext(); )
+        {
+            File texFile = (File) iterator.next();
+            File tempFile = new File( settings.getTempDirectory(),
+                                      fileUtils.getRelativePath( texFile, settings.getTexDirectory() ) );
+            sourceFiles.put( tempFile, texFile );
+            tempFiles.add( tempFile );
+        }
+
+        final DocumentDurations durations = new DocumentDurations( settings.getDurationFile(), log );
+        durations.load();
+        tempFiles = sortLongestFirst( tempFiles, sourceFiles, durations );
+
+        DocumentScheduler.DocumentTask publishing = new DocumentScheduler.DocumentTask()
+        {
+            public void process( File texFile, Log stageLog )
+                throws CommandLineException, MojoExecutionException, MojoFailureException
+            {
+                File sourceFile = (File) sourceFiles.get( texFile );
+                TexFileUtils stageFileUtils = createFileUtils( stageLog );
+                publishDocument( texFile, stageFileUtils, stageLog );
+                rememberFingerprint( sourceFile );
+                if ( outputStore != null )
+                {
+                    outputStore.store( getCacheKey( sourceFile ), getOutputFiles( texFile, stageFileUtils ) );
+                }
+            }
+        };
+        DocumentScheduler.DocumentTask[] stages;
+        if ( settings.isCleanUp() )
+        {
+            stages = new DocumentScheduler.DocumentTask[] { publishing, new DocumentScheduler.DocumentTask()
+            {
+                public void process( File texFile, Log stageLog )
+                    throws MojoExecutionException
+                {
+                    deleteIntermediateFiles( texFile, createFileUtils( stageLog ), stageLog );
+                }
+            } };
+        }
+        else
+        {
+            stages = new DocumentScheduler.DocumentTask[] { publishing };
+        }
+
+        DocumentScheduler scheduler = new DocumentScheduler( settings.getThreads(), log );
+        scheduler.setUnits( getSchedulingUnits( tempFiles, sourceFiles ) );
+        try
+        {
+            scheduler.processAll( tempFiles, new DocumentScheduler.DocumentTask()
+            {
+                public void process( File texFile, Log documentLog )
+                    throws CommandLineException, MojoExecutionException, MojoFailureException
+                {
+                    File sourceFile = (File) sourceFiles.get( texFile );
+                    long startTime = System.currentTimeMillis();
+                    long waitMillis = metrics.getWaitMillis( texFile );
+                    TexFileUtils documentFileUtils = createFileUtils( documentLog );
+                    LatexProcessor documentProcessor = createLatexProcessor( settings, sourceFile, null,
+                                                                             documentFileUtils, documentLog );
+                    forgetFingerprint( sourceFile );
+                    processDocument( texFile, documentProcessor, documentFileUtils, documentLog );
+                    // the waits for a process slot depend on the other documents of the build
+                    waitMillis = metrics.getWaitMillis( texFile ) - waitMillis;
+                    durations.record( getDurationKey( sourceFile ),
+                                      System.currentTimeMillis() - startTime - waitMillis );
+                    recordDependencies( sourceFile, texFile );
+                }
+            }, stages );
+        }
+        finally
+        {
+            durations.save();
+            saveBuildState();
+        }
+    }
+
+    /**
+     * Puts documents including the same files into the same scheduling unit, so they are not compiled at the same
+     * time: TeX writes the aux file of a file included via <code>\include</code> next to it, where each document
+     * would overwrite the one of the other.
+     *
+     * @param sourceFiles maps the given documents in the temporary directory to the documents in the tex directory
+     * @return maps the given documents in the temporary directory to the keys of their units
+     */
+    private Map getSchedulingUnits( List tempFiles, Map sourceFiles )
+        throws MojoExecutionException
+    {
+        Map units = new HashMap();
+        Map unitsByInclude = new HashMap();
+        for ( Iterator iterator = tempFiles.iterator(); iterator.hasNext(); )
+        {
+            File tempFile = (File) iterator.next();
+            Set includes = dependencyScanner.scanIncludes( (File) sourceFiles.get( tempFile ) );
+            units.put( tempFile, tempFile );
+            for ( Iterator includeIterator = includes.iterator(); includeIterator.hasNext(); )
+            {
+                Object include = includeIterator.next();
+                Object otherUnit = unitsByInclude.get( include );
+                if ( otherUnit != null && !otherUnit.equals( tempFile ) )
+                {
+                    // merge the unit of the other documents including the file into the unit of this document
+                    replaceValues( units, otherUnit, tempFile );
+                    replaceValues( unitsByInclude, otherUnit, tempFile );
+                }
+                unitsByInclude.put( include, tempFile );
+            }
+        }
+        return units;
+    }
+
+    private static void replaceValues( Map map, Object oldValue, Object newValue )
+    {
+        for ( Iterator iterator = map.entrySet().iterator(); iterator.hasNext(); )
+        {
+            Map.Entry entry = (Map.Entry) iterator.next();
+            if ( entry.getValue().equals( oldValue ) )
+            {
+                entry.setValue( newValue );
+            }
+        }
+    }
+
+    /**
+     * Sorts the documents in the tex directory rather than their copies, which are empty when compiling in place, as
+     * documents without a recorded duration are estimated by their size.
+     *
+     * @param sourceFiles maps the given documents in the temporary directory to the documents in the tex directory
+     * @return the given documents in the temporary directory, those which took longest in previous builds first
+     */
+    private List sortLongestFirst( List tempFiles, Map sourceFiles, DocumentDurations durations )
+    {
+        List sources = new ArrayList();
+        List keys = new ArrayList();
+        Map tempFilesBySource = new HashMap();
+        for ( Iterator iterator = tempFiles.iterator(); iterator.hasNext(); )
+        {
+            File tempFile = (File) iterator.next();
+            File sourceFile = (File) sourceFiles.get( tempFile );
+            sources.add( sourceFile );
+            keys.add( getDurationKey( sourceFile ) );
+            tempFilesBySource.put( sourceFile, tempFile );
+        }
+
+        List sortedFiles = new ArrayList();
+        for ( Iterator iterator = durations.sortLongestFirst( sources, keys ).iterator(); iterator.hasNext(); )
+        {
+            sortedFiles.add( tempFilesBySource.get( iterator.next() ) );
+        }
+        return sortedFiles;
+    }
+
+    /**
+     * @return the key of the duration of the given document, each goal takes its own time
+     */
+    private String getDurationKey( File texFile )
+    {
+        return getGoal() + ":" + getDocumentKey( texFile );
+    }
+
+    private void saveBuildState()
+        throws MojoExecutionException
+    {
+        if ( dependencyGraph != null )
+        {
+            dependencyGraph.save();
+        }
+        if ( fingerprintStore != null )
+        {
+            fingerprintStore.save();
+        }
+    }
+
+    /**
+     * @param sourceFile the LaTeX main document in the tex directory
+     * @param variant distinguishes several transcripts of the same document, or null
+     * @return a processor for the given document in a working directory, which compiles it in place if so configured
+     *         by {@link Settings#getStaging()}
+     */
+    protected LatexProcessor createLatexProcessor( Settings documentSettings, File sourceFile, String variant,
+                                                   TexFileUtils documentFileUtils, Log documentLog )
+    {
+        File sourceDirectory = isCompilingInPlace() ? sourceFile.getParentFile() : null;
+        return createLatexProcessor( documentSettings, sourceFile, sourceDirectory, variant, documentFileUtils,
+                                     documentLog );
+    }
+
+    /**
+     * @param sourceFile the LaTeX main document in the tex directory
+     * @param sourceDirectory the directory LaTeX reads the sources of the document from while writing its output
+     *            next to the processed document, or null if the sources are next to the processed document
+     * @param variant distinguishes several transcripts of the same document, or null
+     * @return a processor for the given document in a working directory
+     */
+    protected LatexProcessor createLatexProcessor( Settings documentSettings, File sourceFile, File sourceDirectory,
+                                                   String variant, TexFileUtils documentFileUtils, Log documentLog )
+    {
+        CommandExecutor executor = createCommandExecutor( documentLog, getTranscriptFile( sourceFile, variant ),
+                                                          sourceDirectory );
+        LatexProcessor processor = new LatexProcessor( documentSettings, executor, documentLog, documentFileUtils,
+                                                       metrics );
+        processor.setSourceDirectory( sourceDirectory );
+        if ( documentSettings.isPrecompilePreamble() )
+        {
+            processor.setToolchainVersion( getToolchainVersion() );
+        }
+        return processor;
+    }
+
+    /**
+     * @param transcriptFile the file to append the output of all commands to, or null for no transcript
+     * @param sourceDirectory the directory to add to the search paths of TeX, BibTeX and makeindex, or null
+     * @return an executor for the commands concerning a single document, sharing the process limit of the build
+     */
+    protected CommandExecutor createCommandExecutor( Log documentLog, File transcriptFile, File sourceDirectory )
+    {
+        Map environment = new TreeMap();
+        if ( sourceDirectory != null )
+        {
+            // the trailing separator appends the default search path
+            String searchPath = sourceDirectory.getAbsolutePath() + File.pathSeparator;
+            for ( int i = 0; i < SEARCH_PATH_VARIABLES.length; i++ )
+            {
+                environment.put( SEARCH_PATH_VARIABLES[i], searchPath );
+            }
+        }
+        return new LimitedCommandExecutor( new CommandExecutorImpl( documentLog, transcriptFile, environment ),
+                                           processLimiter, metrics );
+    }
+
+    /**
+     * @return true if the documents are compiled in place instead of in a copy of the tex directory
+     */
+    protected boolean isCompilingInPlace()
+    {
+        return SourceStager.STAGING_INPLACE.equals( settings.getStaging() );
+    }
+
+    /**
+     * @return the file utilities for the work on a single document, logging to the given log
+     */
+    protected TexFileUtils createFileUtils( Log documentLog )
+    {
+        return new TexFileUtilsImpl( documentLog, new MainDocumentDetector( documentLog, null, 1 ),
+                                     new OutputPublisher( documentLog, settings.getThreads() ) );
+    }
+
+    /**
+     * @param texFile a LaTeX main document in the tex directory
+     * @param variant distinguishes several transcripts of the same document, or null
+     * @return the file to write the output of the commands run for the given document to, or null for none
+     */
+    protected File getTranscriptFile( File texFile, String variant )
+    {
+        if ( settings.getTranscriptDirectory() == null )
+        {
+            return null;
+        }
+        String name = getDocumentKey( texFile ) + ( variant == null ? "" : "-" + variant );
+        File transcriptFile = new File( settings.getTranscriptDirectory(), name + ".transcript" );
+        transcriptFile.delete();
+        return transcriptFile;
+    }
+
+    /**
+     * Processes a single LaTeX main document. May be called concurrently for different documents.
+     * 
+     * @param documentLog the log to use for all output concerning this document
+     */
+    protected abstract void processDocument( File texFile, LatexProcessor processor, TexFileUtils texFileUtils,
+                                             Log documentLog )
+        throws CommandLineException, MojoExecutionException, MojoFailureException;
+
+    /**
+     * Copies the output of a processed LaTeX main document to the output directory. Runs on the publishing thread,
+     * while the next documents are processed. Does nothing by default, for goals publishing in
+     * {@link #processDocument(File, LatexProcessor, TexFileUtils, Log)}.
+     * 
+     * @param texFile a processed LaTeX main document in the temporary directory
+     */
+    protected void publishDocument( File texFile, TexFileUtils texFileUtils, Log stageLog )
+        throws MojoExecutionException, MojoFailureException
+    {
+    }
+
+    /**
+     * Deletes the auxiliary and output files of a published document from the temporary directory, so the disk space
+     * is freed while the next documents are processed. Only the files named after the document are deleted, the aux
+     * files of included files may be in use by another document. The remaining files are deleted by
+     * {@link #cleanUp()}.
+     */
+    private void deleteIntermediateFiles( File texFile, TexFileUtils texFileUtils, Log stageLog )
+        throws MojoExecutionException
+    {
+        List files = new ArrayList( texFileUtils.getAuxiliaryFiles( texFile ) );
+        files.addAll( Arrays.asList( getOutputFiles( texFile, texFileUtils ) ) );
+        String jobName = texFileUtils.getFileNameWithoutSuffix( texFile );
+        for ( Iterator iterator = files.iterator(); iterator.hasNext(); )
+        {
+            File file = (File) iterator.next();
+            boolean ownFile = file.getParentFile().equals( texFile.getParentFile() )
+                && file.getName().startsWith( jobName + "." );
+            if ( ownFile && file.isFile() && !file.delete() )
+            {
+                stageLog.debug( "Cannot delete the intermediate file " + file );
+            }
+        }
+    }
+
+    /**
+     * @param texFile a processed LaTeX main document in the temporary directory
+     * @return the output files of this goal for the given document
+     */
+    protected abstract File[] getOutputFiles( File texFile, TexFileUtils texFileUtils );
+
+    /**
+     * @return the name of the goal, distinguishes the fingerprints of the goals
+     */
+    protected abstract String getGoal();
+
+    /**
+     * @param texFile a LaTeX main document in the tex directory
+     * @return true if the output of this goal for the given document exists in the output directory
+     */
+    protected abstract boolean hasOutput( File texFile )
+        throws MojoExecutionException, MojoFailureException;
+
+    /**
+     * @param texFile a LaTeX main document in the tex directory
+     * @return the java.io.File objects the result of processing the given document depends on which are known before
+     *         processing it: those found by scanning its sources
+     */
+    protected Set getScannedSourceFiles( File texFile )
+        throws MojoExecutionException
+    {
+        return dependencyScanner.scan( texFile );
+    }
+
+    /**
+     * @param texFile a LaTeX main document in the tex directory
+     * @return the java.io.File objects the result of processing the given document depends on: those of
+     *         {@link #getScannedSourceFiles(File)} and those recorded in the dependency graph during the last build
+     */
+    protected Set getSourceFiles( File texFile )
+        throws MojoExecutionException
+    {
+        Set files = getScannedSourceFiles( texFile );
+        File texDirectory = getCanonicalTexDirectory();
+        for ( Iterator iterator = dependencyGraph.getDependencies( getDocumentKey( texFile ) ).iterator(); iterator
+            .hasNext(); )
+        {
+            File file = new File( texDirectory, (String) iterator.next() );
+            if ( file.exists() )
+            {
+                files.add( file );
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Stores the dependencies of a processed document in the dependency graph, including the inputs recorded by TeX
+     * in the <code>.fls</code> file if TeX was called with <code>-recorder</code>.
+     * 
+     * @param texFile a LaTeX main document in the tex directory
+     * @param tempFile the same document in the temporary directory
+     */
+    private void recordDependencies( File texFile, File tempFile )
+        throws MojoExecutionException
+    {
+        if ( dependencyGraph == null )
+        {
+            return;
+        }
+        File texDirectory = getCanonicalTexDirectory();
+        Set paths = new TreeSet();
+        for ( Iterator iterator = dependencyScanner.scan( texFile ).iterator(); iterator.hasNext(); )
+        {
+            paths.add( fileUtils.getRelativePath( (File) iterator.next(), texDirectory ) );
+        }
+        String recorderFileName = fileUtils.getFileNameWithoutSuffix( tempFile ) + ".fls";
+        File recorderFile = new File( tempFile.getParentFile(), recorderFileName );
+        if ( recorderFile.exists() )
+        {
+            // the recorded inputs are relative to the directory LaTeX ran in
+            File baseDirectory = isCompilingInPlace() ? settings.getTexDirectory() : settings.getTempDirectory();
+            Set inputs = dependencyScanner.parseRecorderFile( recorderFile, baseDirectory );
+            for ( Iterator iterator = inputs.iterator(); iterator.hasNext(); )
+            {
+                String path = (String) iterator.next();
+                if ( new File( texDirectory, path ).exists() )
+                {
+                    paths.add( path );
+                }
+            }
+        }
+        dependencyGraph.setDependencies( getDocumentKey( texFile ), paths );
+    }
+
+    private File getCanonicalTexDirectory()
+    {
+        try
+        {
+            return settings.getTexDirectory().getCanonicalFile();
+        }
+        catch ( IOException e )
+        {
+            return settings.getTexDirectory().getAbsoluteFile();
+        }
+    }
+
+    /**
+     * @param texFile a LaTeX main document in the tex directory
+     * @return the path identifying the given document in the dependency graph
+     */
+    protected String getDocumentKey( File texFile )
+    {
+        return fileUtils.getRelativePath( texFile, settings.getTexDirectory() );
+    }
+
+    private String getFingerprint( File texFile )
+        throws MojoExecutionException
+    {
+        return getFingerprint( getSourceFiles( texFile ) );
+    }
+
+    private String getFingerprint( Set sourceFiles )
+        throws MojoExecutionException
+    {
+        String[] parameters = new String[] {
+            getGoal(),
+            pluginVersion,
+            getToolchainVersion(),
+            String.valueOf( settings.getTexPath() ),
+            settings.getTexCommand(),
+            String.valueOf( Arrays.asList( settings.getTexCommandArgs() ) ),
+            settings.getBibtexCommand(),
+            settings.getTex4htCommand(),
+            settings.getTex4htPipeline(),
+            settings.getTex4htLatexCommand(),
+            String.valueOf( Arrays.asList( settings.getTex4htCommandArgs() ) ),
+            String.valueOf( Arrays.asList( settings.getOutputTargets() ) ),
+            String.valueOf( Arrays.asList( settings.getAuxiliaryStages() ) ) };
+        return fileDigests.getFingerprint( parameters, sourceFiles, getCanonicalTexDirectory() );
+    }
+
+    /**
+     * @return the key of the output of the given document in the output store, a fingerprint over the settings, the
+     *         version of the TeX installation and the sources known before processing. The dependencies recorded
+     *         while processing are left out, as a build restoring the output may not have recorded them.
+     */
+    private String getCacheKey( File texFile )
+        throws MojoExecutionException
+    {
+        return getFingerprint( getScannedSourceFiles( texFile ) );
+    }
+
+    /**
+     * @return the version output of the LaTeX command, determined once per mojo execution
+     */
+    private synchronized String getToolchainVersion()
+    {
+        if ( toolchainVersion == null )
+        {
+            try
+            {
+                toolchainVersion = createCommandExecutor( log, null, null ).execute( settings.getBaseDirectory(),
+                                                                                     settings.getTexPath(),
+                                                                                     settings.getTexCommand(),
+                                                                                     new String[] { "--version" } );
+            }
+            catch ( CommandLineException e )
+            {
+                log.debug( "Cannot determine the version of " + settings.getTexCommand(), e );
+                toolchainVersion = "unknown";
+            }
+        }
+        return toolchainVersion;
+    }
+
+    private String getFingerprintKey( File texFile )
+    {
+        return getGoal() + ":" + settings.getOutputDirectory().getPath() + ":" + getDocumentKey( texFile );
+    }
+
+    private void forgetFingerprint( File texFile )
+    {
+        if ( fingerprintStore != null )
+        {
+            fingerprintStore.remove( getFingerprintKey( texFile ) );
+        }
+    }
+
+    private void rememberFingerprint( File texFile )
+        throws MojoExecutionException
+    {
+        if ( fingerprintStore != null )
+        {
+            // the dependencies may have been refined while processing
+            fingerprintStore.update( getFingerprintKey( texFile ), getFingerprint( texFile ) );
+        }
     }
-}
\ No newline at end of file
+}
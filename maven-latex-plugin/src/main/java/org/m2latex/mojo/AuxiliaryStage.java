@@ -0,0 +1,192 @@
+/*
+ * The akquinet maven-latex-plugin project
+ *
+ * Copyright (c) 2011 by akquinet tech@spree GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.m2latex.mojo;
+
+import java.util.Arrays;
+
+/**
+ * A tool run between LaTeX runs to turn a file written by LaTeX into a file read by the next run, e.g. makeindex
+ * turning the <code>.idx</code> file into an <code>.ind</code> file. A stage runs if its input file changed since its
+ * last run or its output file is missing, or if its pattern is found in the LaTeX log file. The stages
+ * <code>makeindex</code>, <code>makeglossaries</code> and <code>biber</code> are predefined, only their name must be
+ * configured.
+ */
+public class AuxiliaryStage
+{
+    static final String MAKEINDEX = "makeindex";
+
+    static final String MAKEGLOSSARIES = "makeglossaries";
+
+    static final String BIBER = "biber";
+
+    /**
+     * The name of the stage, a predefined stage or an arbitrary name.
+     * 
+     * @parameter
+     */
+    private String name;
+
+    /**
+     * The command to run in the directory of the document.
+     * 
+     * @parameter
+     */
+    private String command;
+
+    /**
+     * The arguments of the command, <code>%n</code> is replaced by the name of the document without suffix.
+     * 
+     * @parameter
+     */
+    private String[] arguments;
+
+    /**
+     * The suffix of the file written by LaTeX which the command reads, e.g. <code>idx</code>.
+     * 
+     * @parameter
+     */
+    private String inputSuffix;
+
+    /**
+     * The suffix of the file written by the command which LaTeX reads, e.g. <code>ind</code>.
+     * 
+     * @parameter
+     */
+    private String outputSuffix;
+
+    /**
+     * A regular expression; the stage also runs if it is found in the LaTeX log file.
+     * 
+     * @parameter
+     */
+    private String logPattern;
+
+    /**
+     * The number of seconds after which the command is killed and the build fails, 0 for no limit.
+     * 
+     * @parameter
+     */
+    private int timeout = 0;
+
+    public AuxiliaryStage()
+    {
+    }
+
+    public AuxiliaryStage( String name, String command, String[] arguments, String inputSuffix, String outputSuffix )
+    {
+        this.name = name;
+        this.command = command;
+        this.arguments = arguments;
+        this.inputSuffix = inputSuffix;
+        this.outputSuffix = outputSuffix;
+    }
+
+    /**
+     * @return the predefined stage with the given name, or null
+     */
+    static AuxiliaryStage getPredefinedStage( String name )
+    {
+        if ( MAKEINDEX.equals( name ) )
+        {
+            return new AuxiliaryStage( MAKEINDEX, "makeindex", new String[] { "%n.idx" }, "idx", "ind" );
+        }
+        if ( MAKEGLOSSARIES.equals( name ) )
+        {
+            return new AuxiliaryStage( MAKEGLOSSARIES, "makeglossaries", new String[] { "%n" }, "glo", "gls" );
+        }
+        if ( BIBER.equals( name ) )
+        {
+            return new AuxiliaryStage( BIBER, "biber", new String[] { "%n" }, "bcf", "bbl" );
+        }
+        return null;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public String getCommand()
+    {
+        if ( command == null && getPredefinedStage( name ) != null )
+        {
+            return getPredefinedStage( name ).command;
+        }
+        return command == null ? name : command;
+    }
+
+    public String[] getArguments()
+    {
+        if ( arguments == null && getPredefinedStage( name ) != null )
+        {
+            return getPredefinedStage( name ).arguments;
+        }
+        return arguments == null ? new String[] { "%n" } : arguments;
+    }
+
+    public String getInputSuffix()
+    {
+        if ( inputSuffix == null && getPredefinedStage( name ) != null )
+        {
+            return getPredefinedStage( name ).inputSuffix;
+        }
+        return inputSuffix;
+    }
+
+    public String getOutputSuffix()
+    {
+        if ( outputSuffix == null && getPredefinedStage( name ) != null )
+        {
+            return getPredefinedStage( name ).outputSuffix;
+        }
+        return outputSuffix;
+    }
+
+    public String getLogPattern()
+    {
+        return logPattern;
+    }
+
+    public int getTimeout()
+    {
+        return timeout;
+    }
+
+    public AuxiliaryStage setLogPattern( String logPattern )
+    {
+        this.logPattern = logPattern;
+        return this;
+    }
+
+    public AuxiliaryStage setTimeout( int timeout )
+    {
+        this.timeout = timeout;
+        return this;
+    }
+
+    public String toString()
+    {
+        StringBuffer sb = new StringBuffer( String.valueOf( name ) );
+        sb.append( '[' ).append( getCommand() ).append( ' ' ).append( Arrays.asList( getArguments() ) );
+        sb.append( ',' ).append( getInputSuffix() ).append( "->" ).append( getOutputSuffix() );
+        sb.append( ',' ).append( logPattern ).append( ']' );
+        return sb.toString();
+    }
+}
@@ -0,0 +1,375 @@
+/*
+ * The akquinet maven-latex-plugin project
+ *
+ * Copyright (c) 2011 by akquinet tech@spree GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.m2latex.mojo;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.util.cli.CommandLineException;
+
+/**
+ * Runs the {@link AuxiliaryStage}s of a LaTeX main document whose triggers fired. The digests of the inputs each stage
+ * last ran on are kept in a file next to the document, so a stage does not run again for an unchanged input, even in
+ * a later build with the same temporary directory.
+ */
+public class AuxiliaryStageRunner
+{
+    /**
+     * The suffix of the file keeping the input digests of the stages.
+     */
+    static final String STATE_SUFFIX = "m2latex-stages";
+
+    private final Settings settings;
+
+    private final CommandExecutor executor;
+
+    private final TexFileUtils fileUtils;
+
+    private final BuildMetrics metrics;
+
+    private final Log log;
+
+    public AuxiliaryStageRunner( Settings settings, CommandExecutor executor, TexFileUtils fileUtils,
+                                 BuildMetrics metrics, Log log )
+    {
+        this.settings = settings;
+        this.executor = executor;
+        this.fileUtils = fileUtils;
+        this.metrics = metrics;
+        this.log = log;
+    }
+
+    /**
+     * @return true if one of the configured stages writes files with the given suffix
+     */
+    public boolean isWrittenByStage( String suffix )
+    {
+        AuxiliaryStage[] stages = settings.getAuxiliaryStages();
+        for ( int i = 0; i < stages.length; i++ )
+        {
+            if ( suffix.equals( stages[i].getOutputSuffix() ) )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the log patterns of the configured stages, to be looked for in the single pass over the log file, see
+     *         {@link LogAnalysis#matches(String)}
+     */
+    public String[] getLogPatterns()
+    {
+        List patterns = new ArrayList();
+        AuxiliaryStage[] stages = settings.getAuxiliaryStages();
+        for ( int i = 0; i < stages.length; i++ )
+        {
+            if ( StringUtils.isNotEmpty( stages[i].getLogPattern() ) )
+            {
+                patterns.add( stages[i].getLogPattern() );
+            }
+        }
+        return (String[]) patterns.toArray( new String[patterns.size()] );
+    }
+
+    /**
+     * @param analysis the analysis of the log file of the last LaTeX run, including the patterns of
+     *            {@link #getLogPatterns()}
+     * @return the configured stages which must run after the last LaTeX run of the given document
+     */
+    public List getTriggeredStages( File texFile, LogAnalysis analysis )
+        throws MojoExecutionException
+    {
+        List triggeredStages = new ArrayList();
+        AuxiliaryStage[] stages = settings.getAuxiliaryStages();
+        if ( stages.length == 0 )
+        {
+            return triggeredStages;
+        }
+        Properties state = loadState( texFile );
+        for ( int i = 0; i < stages.length; i++ )
+        {
+            if ( isTriggered( texFile, stages[i], state, analysis ) )
+            {
+                triggeredStages.add( stages[i] );
+            }
+        }
+        return triggeredStages;
+    }
+
+    private boolean isTriggered( File texFile, AuxiliaryStage stage, Properties state, LogAnalysis analysis )
+        throws MojoExecutionException
+    {
+        File inputFile = getFile( texFile, stage.getInputSuffix() );
+        if ( inputFile != null && inputFile.isFile() )
+        {
+            File outputFile = getFile( texFile, stage.getOutputSuffix() );
+            if ( outputFile != null && !outputFile.isFile() )
+            {
+                log.debug( "Running " + stage.getName() + ", " + outputFile.getName() + " does not exist" );
+                return true;
+            }
+            if ( !FileDigests.computeDigest( inputFile ).equals( state.getProperty( stage.getName() ) ) )
+            {
+                log.debug( "Running " + stage.getName() + ", " + inputFile.getName() + " has changed" );
+                return true;
+            }
+        }
+        if ( StringUtils.isNotEmpty( stage.getLogPattern() ) && analysis.matches( stage.getLogPattern() ) )
+        {
+            log.debug( "Running " + stage.getName() + ", the log file matches " + stage.getLogPattern() );
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return a task running the given stage on the given document, returning Boolean.TRUE if the output file of the
+     *         stage has changed, so LaTeX must be rerun
+     */
+    public Callable newTask( final File texFile, final AuxiliaryStage stage )
+    {
+        return new Callable()
+        {
+            public Object call()
+                throws CommandLineException, MojoExecutionException
+            {
+                return Boolean.valueOf( run( texFile, stage ) );
+            }
+        };
+    }
+
+    /**
+     * Runs the given stage on the given document.
+     * 
+     * @return true if the output file of the stage has changed, so LaTeX must be rerun
+     */
+    public boolean run( File texFile, AuxiliaryStage stage )
+        throws CommandLineException, MojoExecutionException
+    {
+        File inputFile = getFile( texFile, stage.getInputSuffix() );
+        String inputDigest = inputFile != null && inputFile.isFile() ? FileDigests.computeDigest( inputFile ) : null;
+        File outputFile = getFile( texFile, stage.getOutputSuffix() );
+        String outputDigest = getDigest( outputFile );
+
+        String jobName = fileUtils.getFileNameWithoutSuffix( texFile );
+        String[] arguments = stage.getArguments();
+        String[] args = new String[arguments.length];
+        for ( int i = 0; i < arguments.length; i++ )
+        {
+            args[i] = StringUtils.replace( arguments[i], "%n", jobName );
+        }
+        log.debug( "Running " + stage.getCommand() + " on file " + texFile.getName() );
+        BuildMetrics.Timing timing = metrics.startExternal( texFile, stage.getName() );
+        int exitCode;
+        try
+        {
+            exitCode = executor.executeForExitCode( texFile.getParentFile(), settings.getTexPath(),
+                                                    stage.getCommand(), args, stage.getTimeout() );
+        }
+        finally
+        {
+            timing.stop();
+        }
+
+        if ( inputDigest != null )
+        {
+            // a failed stage must run again on the same input
+            synchronized ( this )
+            {
+                Properties state = loadState( texFile );
+                if ( exitCode == 0 )
+                {
+                    state.setProperty( stage.getName(), inputDigest );
+                }
+                else
+                {
+                    state.remove( stage.getName() );
+                }
+                saveState( texFile, state );
+            }
+        }
+        return outputFile == null || !outputDigest.equals( getDigest( outputFile ) );
+    }
+
+    /**
+     * Runs the given tasks concurrently.
+     * 
+     * @return true if one of the tasks returned Boolean.TRUE
+     */
+    public static boolean runConcurrently( List tasks )
+        throws CommandLineException, MojoExecutionException
+    {
+        if ( tasks.size() == 1 )
+        {
+            return call( (Callable) tasks.get( 0 ) );
+        }
+        ExecutorService pool = Executors.newFixedThreadPool( tasks.size() );
+        try
+        {
+            List futures = new ArrayList();
+            for ( int i = 0; i < tasks.size(); i++ )
+            {
+                futures.add( pool.submit( (Callable) tasks.get( i ) ) );
+            }
+            boolean changed = false;
+            for ( int i = 0; i < futures.size(); i++ )
+            {
+                changed |= getResult( (Future) futures.get( i ) );
+            }
+            return changed;
+        }
+        finally
+        {
+            pool.shutdownNow();
+        }
+    }
+
+    private static boolean call( Callable task )
+        throws CommandLineException, MojoExecutionException
+    {
+        try
+        {
+            return ( (Boolean) task.call() ).booleanValue();
+        }
+        catch ( CommandLineException e )
+        {
+            throw e;
+        }
+        catch ( Exception e )
+        {
+            throw toMojoExecutionException( e );
+        }
+    }
+
+    private static boolean getResult( Future future )
+        throws CommandLineException, MojoExecutionException
+    {
+        try
+        {
+            return ( (Boolean) future.get() ).booleanValue();
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException( "Interrupted while running the auxiliary stages", e );
+        }
+        catch ( ExecutionException e )
+        {
+            if ( e.getCause() instanceof CommandLineException )
+            {
+                throw (CommandLineException) e.getCause();
+            }
+            throw toMojoExecutionException( e.getCause() );
+        }
+    }
+
+    /**
+     * @return the given failure of a stage as MojoExecutionException
+     */
+    private static MojoExecutionException toMojoExecutionException( Throwable e )
+    {
+        if ( e instanceof MojoExecutionException )
+        {
+            return (MojoExecutionException) e;
+        }
+        return new MojoExecutionException( "Error running an auxiliary stage: " + e.getMessage(), e );
+    }
+
+    private String getDigest( File file )
+        throws MojoExecutionException
+    {
+        return file != null && file.isFile() ? FileDigests.computeDigest( file ) : "";
+    }
+
+    /**
+     * @return the file with the given suffix next to the given document, or null if the suffix is null
+     */
+    private File getFile( File texFile, String suffix )
+    {
+        if ( StringUtils.isEmpty( suffix ) )
+        {
+            return null;
+        }
+        return new File( texFile.getParentFile(), fileUtils.getFileNameWithoutSuffix( texFile ) + "." + suffix );
+    }
+
+    private Properties loadState( File texFile )
+        throws MojoExecutionException
+    {
+        Properties state = new Properties();
+        File stateFile = getFile( texFile, STATE_SUFFIX );
+        if ( !stateFile.isFile() )
+        {
+            return state;
+        }
+        InputStream in = null;
+        try
+        {
+            in = new FileInputStream( stateFile );
+            state.load( in );
+        }
+        catch ( IOException e )
+        {
+            log.warn( "Cannot read " + stateFile + ", running all auxiliary stages: " + e.getMessage() );
+        }
+        finally
+        {
+            IOUtils.closeQuietly( in );
+        }
+        return state;
+    }
+
+    private void saveState( File texFile, Properties state )
+        throws MojoExecutionException
+    {
+        File stateFile = getFile( texFile, STATE_SUFFIX );
+        OutputStream out = null;
+        try
+        {
+            out = new FileOutputStream( stateFile );
+            state.store( out, "maven-latex-plugin input digests of the auxiliary stages" );
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "Error writing " + stateFile, e );
+        }
+        finally
+        {
+            IOUtils.closeQuietly( out );
+        }
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ * The akquinet maven-latex-plugin project
+ *
+ * Copyright (c) 2011 by akquinet tech@spree GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.m2latex.mojo;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Keeps the bibliographies (<code>.bbl</code> files) written by BibTeX, keyed by a digest of everything BibTeX reads:
+ * the <code>\citation</code>, <code>\bibdata</code> and <code>\bibstyle</code> entries of the aux files and the
+ * local bibliography databases and styles. As long as this digest does not change, the cached bibliography is used
+ * instead of running BibTeX.
+ */
+public class BibliographyCache
+{
+    private static final String CITATION = "\\citation{";
+
+    private static final String BIBDATA = "\\bibdata{";
+
+    private static final String BIBSTYLE = "\\bibstyle{";
+
+    private static final String INPUT = "\\@input{";
+
+    private final Settings settings;
+
+    private final Log log;
+
+    public BibliographyCache( Settings settings, Log log )
+    {
+        this.settings = settings;
+        this.log = log;
+    }
+
+    /**
+     * @return the digest of the BibTeX inputs of the given LaTeX main document, or null if its aux file does not
+     *         request a bibliography
+     */
+    public String getInputsDigest( File texFile )
+        throws MojoExecutionException
+    {
+        return getInputsDigest( texFile, texFile.getParentFile() );
+    }
+
+    /**
+     * @param sourceDirectory the directory BibTeX finds the local bibliography databases and styles in
+     * @return the digest of the BibTeX inputs of the given LaTeX main document, or null if its aux file does not
+     *         request a bibliography
+     */
+    public String getInputsDigest( File texFile, File sourceDirectory )
+        throws MojoExecutionException
+    {
+        StringBuffer inputs = new StringBuffer( settings.getBibtexCommand() ).append( '\n' );
+        File auxFile = getFileWithSuffix( texFile, ".aux" );
+        if ( !readAuxFile( auxFile, sourceDirectory, inputs, new HashSet() ) )
+        {
+            return null;
+        }
+        MessageDigest digest = FileDigests.newMessageDigest();
+        try
+        {
+            digest.update( inputs.toString().getBytes( "UTF-8" ) );
+        }
+        catch ( UnsupportedEncodingException e )
+        {
+            throw new IllegalStateException( "UTF-8 is not supported by this JVM" );
+        }
+        return FileDigests.toHex( digest.digest() );
+    }
+
+    /**
+     * @return the bibliography BibTeX writes for the given LaTeX main document
+     */
+    public File getBblFile( File texFile )
+    {
+        return getFileWithSuffix( texFile, ".bbl" );
+    }
+
+    /**
+     * @return true if a bibliography is cached for the given digest
+     */
+    public boolean contains( String digest )
+    {
+        return getCacheFile( digest ).isFile();
+    }
+
+    /**
+     * Copies the bibliography cached for the given digest to the given file, unless the file has the same content.
+     * 
+     * @return true if the given file has changed
+     */
+    public boolean restore( String digest, File bblFile )
+        throws MojoExecutionException
+    {
+        File cacheFile = getCacheFile( digest );
+        try
+        {
+            if ( bblFile.isFile() && FileUtils.contentEquals( cacheFile, bblFile ) )
+            {
+                return false;
+            }
+            FileUtils.copyFile( cacheFile, bblFile );
+            return true;
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "Error copying the cached bibliography " + cacheFile + " to "
+                + bblFile, e );
+        }
+    }
+
+    /**
+     * Caches the given bibliography for the given digest. Missing bibliographies are not cached.
+     */
+    public void store( String digest, File bblFile )
+        throws MojoExecutionException
+    {
+        if ( !bblFile.isFile() )
+        {
+            log.debug( "BibTeX did not write " + bblFile + ", nothing to cache" );
+            return;
+        }
+        File cacheFile = getCacheFile( digest );
+        File partialFile = new File( cacheFile.getPath() + "." + Thread.currentThread().getId() + ".partial" );
+        try
+        {
+            FileUtils.copyFile( bblFile, partialFile );
+            if ( !partialFile.renameTo( cacheFile ) && !cacheFile.isFile() )
+            {
+                throw new IOException( "Cannot rename " + partialFile + " to " + cacheFile );
+            }
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "Error caching the bibliography " + bblFile, e );
+        }
+        finally
+        {
+            partialFile.delete();
+        }
+    }
+
+    /**
+     * Appends the BibTeX inputs found in the given aux file and the aux files it includes to the given buffer.
+     * 
+     * @return true if a bibliography database was found
+     */
+    private boolean readAuxFile( File auxFile, File sourceDirectory, StringBuffer inputs, Set visited )
+        throws MojoExecutionException
+    {
+        if ( !auxFile.isFile() || !visited.add( auxFile ) )
+        {
+            return false;
+        }
+        boolean bibdataFound = false;
+        BufferedReader reader = null;
+        try
+        {
+            reader = new BufferedReader( new FileReader( auxFile ) );
+            for ( String line = reader.readLine(); line != null; line = reader.readLine() )
+            {
+                if ( line.startsWith( CITATION ) )
+                {
+                    inputs.append( line ).append( '\n' );
+                }
+                else if ( line.startsWith( BIBDATA ) )
+                {
+                    inputs.append( line ).append( '\n' );
+                    appendFiles( sourceDirectory, getArgument( line, BIBDATA ), ".bib", inputs );
+                    bibdataFound = true;
+                }
+                else if ( line.startsWith( BIBSTYLE ) )
+                {
+                    inputs.append( line ).append( '\n' );
+                    appendFiles( sourceDirectory, getArgument( line, BIBSTYLE ), ".bst", inputs );
+                }
+                else if ( line.startsWith( INPUT ) )
+                {
+                    File includedFile = new File( auxFile.getParentFile(), getArgument( line, INPUT ) );
+                    bibdataFound |= readAuxFile( includedFile, sourceDirectory, inputs, visited );
+                }
+            }
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "Error reading file " + auxFile.getPath(), e );
+        }
+        finally
+        {
+            IOUtils.closeQuietly( reader );
+        }
+        return bibdataFound;
+    }
+
+    /**
+     * Appends the digests of the local files among the given comma separated names. Files not found next to the
+     * document are taken from the TeX installation and considered unchanged.
+     */
+    private void appendFiles( File directory, String names, String suffix, StringBuffer inputs )
+        throws MojoExecutionException
+    {
+        String[] fileNames = StringUtils.split( names, "," );
+        for ( int i = 0; i < fileNames.length; i++ )
+        {
+            String fileName = fileNames[i].trim();
+            File file = new File( directory, fileName.endsWith( suffix ) ? fileName : fileName + suffix );
+            if ( file.isFile() )
+            {
+                inputs.append( file.getName() ).append( '=' ).append( FileDigests.computeDigest( file ) );
+                inputs.append( '\n' );
+            }
+        }
+    }
+
+    private String getArgument( String line, String command )
+    {
+        int end = line.lastIndexOf( '}' );
+        return end < command.length() ? "" : line.substring( command.length(), end );
+    }
+
+    private File getCacheFile( String digest )
+    {
+        return new File( settings.getBibliographyCacheDirectory(), digest + ".bbl" );
+    }
+
+    private static File getFileWithSuffix( File texFile, String suffix )
+    {
+        String name = texFile.getName();
+        int index = name.lastIndexOf( '.' );
+        return new File( texFile.getParentFile(), ( index < 0 ? name : name.substring( 0, index ) ) + suffix );
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * The akquinet maven-latex-plugin project
+ *
+ * Copyright (c) 2011 by akquinet tech@spree GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.m2latex.mojo;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * A Log which keeps all messages in memory until they are flushed to another Log. Used to keep the output of
+ * documents processed in parallel together and in a deterministic order. Debug messages, which include the full
+ * output of all commands, are not kept but written to the target Log right away, so a long running command neither
+ * fills the memory nor stays silent until its document is finished.
+ */
+public class BufferedLog
+    implements Log
+{
+    private static final int INFO = 1;
+
+    private static final int WARN = 2;
+
+    private static final int ERROR = 3;
+
+    private final Log target;
+
+    private final List entries = new ArrayList();
+
+    /**
+     * @param target the Log to write the debug messages to
+     */
+    public BufferedLog( Log target )
+    {
+        this.target = target;
+    }
+
+    /**
+     * Writes all buffered messages to the given log and clears the buffer.
+     */
+    public synchronized void flushTo( Log target )
+    {
+        for ( Iterator iterator = entries.iterator(); iterator.hasNext(); )
+        {
+            Entry entry = (Entry) iterator.next();
+            entry.writeTo( target );
+        }
+        entries.clear();
+    }
+
+    public boolean isDebugEnabled()
+    {
+        return target.isDebugEnabled();
+    }
+
+    public void debug( CharSequence content )
+    {
+        target.debug( content );
+    }
+
+    public void debug( CharSequence content, Throwable error )
+    {
+        target.debug( content, error );
+    }
+
+    public void debug( Throwable error )
+    {
+        target.debug( error );
+    }
+
+    public boolean isInfoEnabled()
+    {
+        return true;
+    }
+
+    public void info( CharSequence content )
+    {
+        add( INFO, content, null );
+    }
+
+    public void info( CharSequence content, Throwable error )
+    {
+        add( INFO, content, error );
+    }
+
+    public void info( Throwable error )
+    {
+        add( INFO, null, error );
+    }
+
+    public boolean isWarnEnabled()
+    {
+        return true;
+    }
+
+    public void warn( CharSequence content )
+    {
+        add( WARN, content, null );
+    }
+
+    public void warn( CharSequence content, Throwable error )
+    {
+        add( WARN, content, error );
+    }
+
+    public void warn( Throwable error )
+    {
+        add( WARN, null, error );
+    }
+
+    public boolean isErrorEnabled()
+    {
+        return true;
+    }
+
+    public void error( CharSequence content )
+    {
+        add( ERROR, content, null );
+    }
+
+    public void error( CharSequence content, Throwable error )
+    {
+        add( ERROR, content, error );
+    }
+
+    public void error( Throwable error )
+    {
+        add( ERROR, null, error );
+    }
+
+    private synchronized void add( int level, CharSequence content, Throwable error )
+    {
+        entries.add( new Entry( level, content == null ? null : content.toString(), error ) );
+    }
+
+    private static class Entry
+    {
+        private final int level;
+
+        private final String content;
+
+        private final Throwable error;
+
+        Entry( int level, String content, Throwable error )
+        {
+            this.level = level;
+            this.content = content;
+            this.error = error;
+        }
+
+        void writeTo( Log target )
+        {
+            switch ( level )
+            {
+                case INFO:
+                    if ( error == null )
+                        target.info( content );
+                    else if ( content == null )
+                        target.info( error );
+                    else
+                        target.info( content, error );
+                    break;
+                case WARN:
+                    if ( error == null )
+                        target.warn( content );
+                    else if ( content == null )
+                        target.warn( error );
+                    else
+                        target.warn( content, error );
+                    break;
+                default:
+                    if ( error == null )
+                        target.error( content );
+                    else if ( content == null )
+                        target.error( error );
+                    else
+                        target.error( content, error );
+            }
+        }
+    }
+}
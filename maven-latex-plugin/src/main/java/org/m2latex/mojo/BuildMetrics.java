@@ -0,0 +1,366 @@
+/*
+ * The akquinet maven-latex-plugin project
+ *
+ * Copyright (c) 2011 by akquinet tech@spree GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.m2latex.mojo;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.StringUtils;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Collects the wall clock and CPU time spent in each processing stage of each LaTeX main document, and reports them
+ * as a table in the log and as a JSON file. The CPU time is that of the plugin thread, so it is only recorded for
+ * stages running in the plugin itself: the CPU time of external commands like pdflatex is not available to Java, and
+ * the plugin thread just waits for them. The time an external stage waits for a process slot of the
+ * {@link ProcessLimiter} is left out of the stage and recorded as the stage <code>waiting</code> of the document.
+ */
+public class BuildMetrics
+{
+    static final String STAGE_DISCOVERY = "discovery";
+
+    static final String STAGE_STAGING = "staging";
+
+    static final String STAGE_LATEX = "latex";
+
+    static final String STAGE_BIBTEX = "bibtex";
+
+    static final String STAGE_TEX4HT = "tex4ht";
+
+    static final String STAGE_PUBLISHING = "publishing";
+
+    /**
+     * The stage recording the waits for a process slot.
+     */
+    static final String STAGE_WAITING = "waiting";
+
+    /**
+     * The document name used for stages not belonging to a single document.
+     */
+    static final String ALL_DOCUMENTS = "(all)";
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private final File baseDirectory;
+
+    private final long startTime = System.currentTimeMillis();
+
+    /**
+     * Maps document names to maps from stage names to {@link StageMetrics}, both in the order of recording.
+     */
+    private final Map documents = new LinkedHashMap();
+
+    /**
+     * The external stage timed by the current thread, if any.
+     */
+    private final ThreadLocal currentTiming = new ThreadLocal();
+
+    /**
+     * @param baseDirectory documents are named by their path relative to this directory, or by their absolute path
+     *            if null
+     */
+    public BuildMetrics( File baseDirectory )
+    {
+        this.baseDirectory = baseDirectory;
+    }
+
+    /**
+     * Starts timing a stage in the current thread.
+     *
+     * @param document the document the stage works on, or null for all documents
+     */
+    public Timing start( File document, String stage )
+    {
+        return new Timing( getDocumentName( document ), stage, false );
+    }
+
+    /**
+     * Starts timing a stage running an external command in the current thread, only its wall clock time is recorded.
+     *
+     * @param document the document the stage works on, or null for all documents
+     */
+    public Timing startExternal( File document, String stage )
+    {
+        return new Timing( getDocumentName( document ), stage, true );
+    }
+
+    /**
+     * Records that the current thread waited for a process slot before running an external command. The wait is
+     * left out of the time of the external stage the thread is timing and recorded as {@link #STAGE_WAITING}.
+     */
+    public void recordWait( long millis )
+    {
+        Timing timing = (Timing) currentTiming.get();
+        if ( timing != null )
+        {
+            timing.waitMillis += millis;
+        }
+        else if ( millis > 0 )
+        {
+            record( ALL_DOCUMENTS, STAGE_WAITING, true, millis, 0 );
+        }
+    }
+
+    /**
+     * @return the milliseconds the external stages of the given document waited for a process slot so far
+     */
+    public synchronized long getWaitMillis( File document )
+    {
+        StageMetrics metrics = getStageMetrics( document, STAGE_WAITING );
+        return metrics == null ? 0 : metrics.wallMillis;
+    }
+
+    /**
+     * @return the metrics recorded for the given document and stage, or null if none were recorded
+     */
+    public synchronized StageMetrics getStageMetrics( File document, String stage )
+    {
+        Map stages = (Map) documents.get( getDocumentName( document ) );
+        return stages == null ? null : (StageMetrics) stages.get( stage );
+    }
+
+    private synchronized void record( String document, String stage, boolean external, long wallMillis,
+                                      long cpuMillis )
+    {
+        Map stages = (Map) documents.get( document );
+        if ( stages == null )
+        {
+            stages = new LinkedHashMap();
+            documents.put( document, stages );
+        }
+        StageMetrics metrics = (StageMetrics) stages.get( stage );
+        if ( metrics == null )
+        {
+            metrics = new StageMetrics();
+            stages.put( stage, metrics );
+        }
+        metrics.external = external;
+        metrics.runs++;
+        metrics.wallMillis += wallMillis;
+        metrics.cpuMillis += cpuMillis;
+    }
+
+    private String getDocumentName( File document )
+    {
+        if ( document == null )
+        {
+            return ALL_DOCUMENTS;
+        }
+        String path = document.getAbsolutePath();
+        if ( baseDirectory == null )
+        {
+            return path;
+        }
+        String basePath = baseDirectory.getAbsolutePath() + File.separator;
+        return path.startsWith( basePath ) ? path.substring( basePath.length() ) : path;
+    }
+
+    /**
+     * Logs a table with the metrics of all documents and stages.
+     */
+    public synchronized void logSummary( Log log )
+    {
+        if ( documents.isEmpty() )
+        {
+            return;
+        }
+        int nameWidth = "Document".length();
+        for ( Iterator iterator = documents.keySet().iterator(); iterator.hasNext(); )
+        {
+            nameWidth = Math.max( nameWidth, ( (String) iterator.next() ).length() );
+        }
+        log.info( "LaTeX build times:" );
+        log.info( formatRow( nameWidth, "Document", "Stage", "Runs", "Wall [ms]", "CPU [ms]" ) );
+        for ( Iterator documentIterator = documents.entrySet().iterator(); documentIterator.hasNext(); )
+        {
+            Map.Entry document = (Map.Entry) documentIterator.next();
+            Map stages = (Map) document.getValue();
+            for ( Iterator stageIterator = stages.entrySet().iterator(); stageIterator.hasNext(); )
+            {
+                Map.Entry stage = (Map.Entry) stageIterator.next();
+                StageMetrics metrics = (StageMetrics) stage.getValue();
+                log.info( formatRow( nameWidth, (String) document.getKey(), (String) stage.getKey(),
+                                     String.valueOf( metrics.runs ), String.valueOf( metrics.wallMillis ),
+                                     metrics.external ? "-" : String.valueOf( metrics.cpuMillis ) ) );
+            }
+        }
+        log.info( "Total: " + ( System.currentTimeMillis() - startTime ) + " ms" );
+    }
+
+    private String formatRow( int nameWidth, String document, String stage, String runs, String wall, String cpu )
+    {
+        return StringUtils.rightPad( document, nameWidth ) + "  " + StringUtils.rightPad( stage, 10 )
+            + StringUtils.leftPad( runs, 5 ) + StringUtils.leftPad( wall, 11 ) + StringUtils.leftPad( cpu, 10 );
+    }
+
+    /**
+     * Writes the metrics of all documents and stages to the given file in JSON format.
+     */
+    public synchronized void writeReport( File reportFile )
+        throws IOException
+    {
+        StringBuffer json = new StringBuffer();
+        json.append( "{\n  \"totalWallMillis\": " ).append( System.currentTimeMillis() - startTime );
+        json.append( ",\n  \"documents\": [" );
+        List documentEntries = new ArrayList( documents.entrySet() );
+        for ( int i = 0; i < documentEntries.size(); i++ )
+        {
+            Map.Entry document = (Map.Entry) documentEntries.get( i );
+            json.append( i == 0 ? "\n" : ",\n" );
+            json.append( "    {\n      \"document\": " ).append( quote( (String) document.getKey() ) );
+            json.append( ",\n      \"stages\": [" );
+            List stageEntries = new ArrayList( ( (Map) document.getValue() ).entrySet() );
+            for ( int j = 0; j < stageEntries.size(); j++ )
+            {
+                Map.Entry stage = (Map.Entry) stageEntries.get( j );
+                StageMetrics metrics = (StageMetrics) stage.getValue();
+                json.append( j == 0 ? "\n" : ",\n" );
+                json.append( "        { \"stage\": " ).append( quote( (String) stage.getKey() ) );
+                json.append( ", \"runs\": " ).append( metrics.runs );
+                json.append( ", \"wallMillis\": " ).append( metrics.wallMillis );
+                if ( !metrics.external )
+                {
+                    json.append( ", \"cpuMillis\": " ).append( metrics.cpuMillis );
+                }
+                json.append( " }" );
+            }
+            json.append( "\n      ]\n    }" );
+        }
+        json.append( "\n  ]\n}\n" );
+        reportFile.getParentFile().mkdirs();
+        FileUtils.writeStringToFile( reportFile, json.toString(), "UTF-8" );
+    }
+
+    private static String quote( String value )
+    {
+        StringBuffer quoted = new StringBuffer( "\"" );
+        for ( int i = 0; i < value.length(); i++ )
+        {
+            char c = value.charAt( i );
+            if ( c == '"' || c == '\\' )
+            {
+                quoted.append( '\\' ).append( c );
+            }
+            else if ( c < ' ' )
+            {
+                quoted.append( "\\u" ).append( StringUtils.leftPad( Integer.toHexString( c ), 4, '0' ) );
+            }
+            else
+            {
+                quoted.append( c );
+            }
+        }
+        return quoted.append( '"' ).toString();
+    }
+
+    private static long getCpuTime()
+    {
+        return THREADS.isCurrentThreadCpuTimeSupported() ? THREADS.getCurrentThreadCpuTime() : 0;
+    }
+
+    /**
+     * The accumulated metrics of one stage of one document.
+     */
+    public static class StageMetrics
+    {
+        private boolean external;
+
+        private int runs;
+
+        private long wallMillis;
+
+        private long cpuMillis;
+
+        public int getRuns()
+        {
+            return runs;
+        }
+
+        public long getWallMillis()
+        {
+            return wallMillis;
+        }
+
+        /**
+         * @return true if the stage runs an external command, its CPU time is not recorded then
+         */
+        public boolean isExternal()
+        {
+            return external;
+        }
+
+        public long getCpuMillis()
+        {
+            return cpuMillis;
+        }
+    }
+
+    /**
+     * A running stage, to be stopped in the thread it was started in.
+     */
+    public class Timing
+    {
+        private final String document;
+
+        private final String stage;
+
+        private final boolean external;
+
+        private final long wallStart = System.currentTimeMillis();
+
+        private final long cpuStart;
+
+        private long waitMillis;
+
+        Timing( String document, String stage, boolean external )
+        {
+            this.document = document;
+            this.stage = stage;
+            this.external = external;
+            this.cpuStart = external ? 0 : getCpuTime();
+            if ( external )
+            {
+                currentTiming.set( this );
+            }
+        }
+
+        public void stop()
+        {
+            long cpuMillis = external ? 0 : ( getCpuTime() - cpuStart ) / 1000000;
+            if ( external )
+            {
+                currentTiming.remove();
+            }
+            long wallMillis = Math.max( 0, System.currentTimeMillis() - wallStart - waitMillis );
+            record( document, stage, external, wallMillis, cpuMillis );
+            if ( waitMillis > 0 )
+            {
+                record( document, STAGE_WAITING, true, waitMillis, 0 );
+            }
+        }
+    }
+}
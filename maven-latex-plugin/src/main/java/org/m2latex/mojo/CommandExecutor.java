@@ -21,11 +21,44 @@ package org.m2latex.mojo;
 import java.io.File;
 
 import org.codehaus.plexus.util.cli.CommandLineException;
+import org.codehaus.plexus.util.cli.StreamConsumer;
 
 public interface CommandExecutor
 {
 
+    /**
+     * @return the last lines of the output of the command
+     */
     public abstract String execute( File workingDir, File pathToExecutable, String executable, String[] args )
         throws CommandLineException;
 
+    /**
+     * @param timeout the number of seconds after which the command is killed, 0 for no limit
+     * @return the last lines of the output of the command
+     */
+    public abstract String execute( File workingDir, File pathToExecutable, String executable, String[] args,
+                                    int timeout )
+        throws CommandLineException;
+
+    /**
+     * Like {@link #execute(File, File, String, String[], int)}, for callers depending on the success of the command.
+     *
+     * @param timeout the number of seconds after which the command is killed, 0 for no limit
+     * @return the exit code of the command
+     */
+    public abstract int executeForExitCode( File workingDir, File pathToExecutable, String executable,
+                                            String[] args, int timeout )
+        throws CommandLineException;
+
+    /**
+     * Executes the command and passes each line of its output to the given consumer while the command is running.
+     * The command is killed if it reports a fatal error or does not finish in time.
+     *
+     * @param timeout the number of seconds after which the command is killed, 0 for no limit
+     * @return the exit code of the command
+     */
+    public abstract int execute( File workingDir, File pathToExecutable, String executable, String[] args,
+                                 StreamConsumer output, int timeout )
+        throws CommandLineException;
+
 }
\ No newline at end of file
@@ -18,35 +18,456 @@
 
 package org.m2latex.mojo;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
 
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
 import org.apache.maven.plugin.logging.Log;
 import org.codehaus.plexus.util.cli.CommandLineException;
-import org.codehaus.plexus.util.cli.CommandLineUtils;
 import org.codehaus.plexus.util.cli.Commandline;
-import org.codehaus.plexus.util.cli.CommandLineUtils.StringStreamConsumer;
+import org.codehaus.plexus.util.cli.StreamConsumer;
 
 public class CommandExecutorImpl
     implements CommandExecutor
 {
+    /**
+     * Output lines after which the TeX run cannot recover, the process is killed as soon as one of them appears.
+     */
+    private static final String[] FATAL_ERROR_MARKERS = new String[] { "! Emergency stop", "Fatal error occurred" };
+
+    /**
+     * Milliseconds to wait for the remaining output of a process after it has exited.
+     */
+    private static final long PUMPER_TIMEOUT = 5000;
+
+    /**
+     * Number of output lines shown when a command fails.
+     */
+    private static final int TAIL_LINES = 20;
+
     private final Log log;
 
+    private final File transcriptFile;
+
+    private final Map environment;
+
     public CommandExecutorImpl( Log log )
+    {
+        this( log, null );
+    }
+
+    /**
+     * @param transcriptFile the file to append the output of all commands to, or null for no transcript
+     */
+    public CommandExecutorImpl( Log log, File transcriptFile )
+    {
+        this( log, transcriptFile, Collections.EMPTY_MAP );
+    }
+
+    /**
+     * @param transcriptFile the file to append the output of all commands to, or null for no transcript
+     * @param environment the environment variables to set for all commands in addition to those of this process
+     */
+    public CommandExecutorImpl( Log log, File transcriptFile, Map environment )
     {
         this.log = log;
+        this.transcriptFile = transcriptFile;
+        this.environment = environment;
     }
 
     public final String execute( File workingDir, File pathToExecutable, String executable, String[] args )
         throws CommandLineException
+    {
+        return execute( workingDir, pathToExecutable, executable, args, 0 );
+    }
+
+    public final String execute( File workingDir, File pathToExecutable, String executable, String[] args,
+                                 int timeout )
+        throws CommandLineException
+    {
+        CommandOutput output = new CommandOutput( log, CommandOutput.DEFAULT_MAX_LINES, transcriptFile );
+        execute( workingDir, pathToExecutable, executable, args, timeout, output );
+        return output.toString();
+    }
+
+    public final int executeForExitCode( File workingDir, File pathToExecutable, String executable, String[] args,
+                                         int timeout )
+        throws CommandLineException
+    {
+        CommandOutput output = new CommandOutput( log, CommandOutput.DEFAULT_MAX_LINES, transcriptFile );
+        return execute( workingDir, pathToExecutable, executable, args, timeout, output );
+    }
+
+    /**
+     * Executes the command, writing its output to the transcript and the last lines of its output to the log if it
+     * fails.
+     *
+     * @return the exit code of the command
+     */
+    private int execute( File workingDir, File pathToExecutable, String executable, String[] args, int timeout,
+                         CommandOutput output )
+        throws CommandLineException
+    {
+        output.open( executable + " " + StringUtils.join( args, " " ) );
+        try
+        {
+            int exitCode = execute( workingDir, pathToExecutable, executable, args, output, timeout );
+            log.debug( executable + " exited with code " + exitCode );
+            if ( exitCode != 0 )
+            {
+                log.warn( executable + " exited with code " + exitCode + ", last lines of its output:"
+                    + getTail( output ) );
+            }
+            return exitCode;
+        }
+        catch ( CommandLineException e )
+        {
+            throw new CommandLineException( e.getMessage() + ", last lines of its output:" + getTail( output ), e );
+        }
+        finally
+        {
+            output.close();
+        }
+    }
+
+    public final int execute( File workingDir, File pathToExecutable, String executable, String[] args,
+                              StreamConsumer output, int timeout )
+        throws CommandLineException
     {
         String command = new File( pathToExecutable, executable ).getPath();
         Commandline cl = new Commandline( command );
         cl.addArguments( args );
         cl.setWorkingDirectory( workingDir.getPath() );
-        StringStreamConsumer output = new StringStreamConsumer();
+        for ( Iterator iterator = environment.entrySet().iterator(); iterator.hasNext(); )
+        {
+            Map.Entry variable = (Map.Entry) iterator.next();
+            cl.addEnvironment( (String) variable.getKey(), (String) variable.getValue() );
+        }
         log.debug( "Executing: " + cl + " in: " + workingDir );
-        CommandLineUtils.executeCommandLine( cl, output, output );
-        log.debug( "Output:\n" + output.getOutput() + "\n" );
-        return output.getOutput();
+
+        final Process process = cl.execute();
+        // TeX waiting for terminal input gets end of file and gives up instead of hanging
+        IOUtils.closeQuietly( process.getOutputStream() );
+
+        ProcessKiller killer = new ProcessKiller( process );
+        FatalErrorDetector detector = new FatalErrorDetector( killer );
+        Thread outputPumper = pump( process.getInputStream(), output, detector, executable );
+        Thread errorPumper = pump( process.getErrorStream(), output, detector, executable );
+        Watchdog watchdog = new Watchdog( killer );
+        Timer timer = null;
+        if ( timeout > 0 )
+        {
+            timer = new Timer( "m2latex-watchdog-" + executable, true );
+            timer.schedule( watchdog, timeout * 1000L );
+        }
+        try
+        {
+            int exitCode = process.waitFor();
+            // from now on neither the watchdog nor the detector touch the process, its id may already be reused
+            killer.exited();
+            boolean timedOut = watchdog.isTimedOut();
+            if ( timer != null )
+            {
+                timer.cancel();
+                timer = null;
+            }
+            // processes started by the command may keep its output open, so do not wait for them forever
+            long deadline = System.currentTimeMillis() + PUMPER_TIMEOUT;
+            outputPumper.join( PUMPER_TIMEOUT );
+            errorPumper.join( Math.max( deadline - System.currentTimeMillis(), 1 ) );
+            if ( outputPumper.isAlive() || errorPumper.isAlive() )
+            {
+                log.debug( "Stopped waiting for the output of " + executable + ", which is still open" );
+            }
+            if ( timedOut )
+            {
+                throw new CommandLineException( executable + " did not finish within " + timeout
+                    + " seconds and was killed" );
+            }
+            if ( detector.getFatalError() != null )
+            {
+                throw new CommandLineException( executable + " was aborted after a fatal error: "
+                    + detector.getFatalError() );
+            }
+            return exitCode;
+        }
+        catch ( InterruptedException e )
+        {
+            killer.kill();
+            Thread.currentThread().interrupt();
+            throw new CommandLineException( "Interrupted while waiting for " + executable, e );
+        }
+        finally
+        {
+            if ( timer != null )
+            {
+                timer.cancel();
+            }
+        }
+    }
+
+    /**
+     * Kills the process together with all processes started by it, e.g. the TeX runs of a shell script like htlatex.
+     * Where the process tree cannot be determined, e.g. on Windows, only the process itself is killed.
+     */
+    private static void destroyProcessTree( Process process )
+    {
+        String pid = getPid( process );
+        if ( pid != null && File.separatorChar == '/' )
+        {
+            try
+            {
+                // collect the whole tree first, killed processes would hand their children over to init
+                List pids = new ArrayList();
+                collectDescendants( pid, pids );
+                if ( !pids.isEmpty() )
+                {
+                    List command = new ArrayList();
+                    command.add( "kill" );
+                    command.add( "-KILL" );
+                    command.addAll( pids );
+                    Runtime.getRuntime().exec( (String[]) command.toArray( new String[command.size()] ) ).waitFor();
+                }
+            }
+            catch ( IOException e )
+            {
+                // no pgrep or kill, at least the process itself is killed below
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+        process.destroy();
+    }
+
+    private static void collectDescendants( String pid, List pids )
+        throws IOException, InterruptedException
+    {
+        Process pgrep = Runtime.getRuntime().exec( new String[] { "pgrep", "-P", pid } );
+        IOUtils.closeQuietly( pgrep.getOutputStream() );
+        IOUtils.closeQuietly( pgrep.getErrorStream() );
+        List children;
+        try
+        {
+            children = IOUtils.readLines( pgrep.getInputStream() );
+        }
+        finally
+        {
+            IOUtils.closeQuietly( pgrep.getInputStream() );
+        }
+        pgrep.waitFor();
+        for ( Iterator iterator = children.iterator(); iterator.hasNext(); )
+        {
+            String child = ( (String) iterator.next() ).trim();
+            if ( child.length() > 0 )
+            {
+                pids.add( child );
+                collectDescendants( child, pids );
+            }
+        }
+    }
+
+    /**
+     * @return the operating system id of the process, or null if it cannot be determined
+     */
+    private static String getPid( Process process )
+    {
+        try
+        {
+            // Process.pid() as of Java 9
+            return String.valueOf( Process.class.getMethod( "pid", new Class[0] ).invoke( process, new Object[0] ) );
+        }
+        catch ( Exception e )
+        {
+            // the pid field of the UNIX process implementation before Java 9
+        }
+        try
+        {
+            Field field = process.getClass().getDeclaredField( "pid" );
+            field.setAccessible( true );
+            return String.valueOf( field.getInt( process ) );
+        }
+        catch ( Exception e )
+        {
+            return null;
+        }
+    }
+
+    private static String getTail( CommandOutput output )
+    {
+        StringBuffer tail = new StringBuffer();
+        for ( Iterator iterator = output.getLines( TAIL_LINES ).iterator(); iterator.hasNext(); )
+        {
+            tail.append( '\n' ).append( iterator.next() );
+        }
+        return tail.toString();
+    }
+
+    private Thread pump( final InputStream in, final StreamConsumer consumer, final FatalErrorDetector detector,
+                         String executable )
+    {
+        Thread pumper = new Thread( "m2latex-output-" + executable )
+        {
+            public void run()
+            {
+                BufferedReader reader = new BufferedReader( new InputStreamReader( in ) );
+                try
+                {
+                    for ( String line = reader.readLine(); line != null; line = reader.readLine() )
+                    {
+                        consumer.consumeLine( line );
+                        detector.check( line );
+                    }
+                }
+                catch ( IOException e )
+                {
+                    // the stream is closed when the process is killed
+                    log.debug( "Stopped reading the output of " + getName() + ": " + e );
+                }
+                finally
+                {
+                    IOUtils.closeQuietly( reader );
+                }
+            }
+        };
+        pumper.setDaemon( true );
+        pumper.start();
+        return pumper;
+    }
+
+    /**
+     * Kills the process and the processes started by it, unless the process has already exited and been reaped, as
+     * its id may then belong to another process.
+     */
+    private static class ProcessKiller
+    {
+        private final Process process;
+
+        private boolean exited;
+
+        ProcessKiller( Process process )
+        {
+            this.process = process;
+        }
+
+        /**
+         * @return true if the process was killed, false if it had already exited
+         */
+        synchronized boolean kill()
+        {
+            if ( exited || hasExited() )
+            {
+                exited = true;
+                return false;
+            }
+            destroyProcessTree( process );
+            return true;
+        }
+
+        /**
+         * Signals that the process has exited, so it is not killed anymore.
+         */
+        synchronized void exited()
+        {
+            exited = true;
+        }
+
+        private boolean hasExited()
+        {
+            try
+            {
+                process.exitValue();
+                return true;
+            }
+            catch ( IllegalThreadStateException e )
+            {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Kills the process and the processes started by it when its time is up.
+     */
+    private static class Watchdog
+        extends TimerTask
+    {
+        private final ProcessKiller killer;
+
+        private boolean timedOut;
+
+        Watchdog( ProcessKiller killer )
+        {
+            this.killer = killer;
+        }
+
+        public void run()
+        {
+            synchronized ( killer )
+            {
+                timedOut = killer.kill();
+            }
+        }
+
+        /**
+         * @return true if the process was killed because its time was up
+         */
+        boolean isTimedOut()
+        {
+            synchronized ( killer )
+            {
+                return timedOut;
+            }
+        }
+    }
+
+    /**
+     * Kills the process as soon as it reports a fatal error.
+     */
+    private static class FatalErrorDetector
+    {
+        private final ProcessKiller killer;
+
+        private volatile String fatalError;
+
+        FatalErrorDetector( ProcessKiller killer )
+        {
+            this.killer = killer;
+        }
+
+        void check( String line )
+        {
+            if ( fatalError != null )
+            {
+                return;
+            }
+            for ( int i = 0; i < FATAL_ERROR_MARKERS.length; i++ )
+            {
+                if ( line.indexOf( FATAL_ERROR_MARKERS[i] ) >= 0 )
+                {
+                    fatalError = line;
+                    killer.kill();
+                    return;
+                }
+            }
+        }
+
+        String getFatalError()
+        {
+            return fatalError;
+        }
     }
 }
@@ -0,0 +1,153 @@
+/*
+ * The akquinet maven-latex-plugin project
+ *
+ * Copyright (c) 2011 by akquinet tech@spree GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.m2latex.mojo;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.util.cli.StreamConsumer;
+
+/**
+ * Consumes the output of a command line by line: each line is forwarded to the debug log as it arrives, only the last
+ * lines are kept in memory for error reporting and the full transcript may be appended to a file.
+ */
+public class CommandOutput
+    implements StreamConsumer
+{
+    static final int DEFAULT_MAX_LINES = 200;
+
+    private final Log log;
+
+    private final String[] lines;
+
+    private int next;
+
+    private int count;
+
+    private final File transcriptFile;
+
+    private Writer transcript;
+
+    /**
+     * @param maxLines the number of lines to keep in memory
+     * @param transcriptFile the file to append all lines to, or null for no transcript
+     */
+    public CommandOutput( Log log, int maxLines, File transcriptFile )
+    {
+        this.log = log;
+        this.lines = new String[maxLines];
+        this.transcriptFile = transcriptFile;
+    }
+
+    /**
+     * Opens the transcript file, if any, and writes a header for the given command to it.
+     */
+    public void open( String command )
+    {
+        if ( transcriptFile == null )
+        {
+            return;
+        }
+        try
+        {
+            transcriptFile.getParentFile().mkdirs();
+            transcript = new BufferedWriter( new FileWriter( transcriptFile, true ) );
+            transcript.write( "> " + command + "\n" );
+        }
+        catch ( IOException e )
+        {
+            log.warn( "Cannot write the transcript " + transcriptFile.getPath() + ": " + e );
+            close();
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.codehaus.plexus.util.cli.StreamConsumer#consumeLine(java.lang.String)
+     */
+    public synchronized void consumeLine( String line )
+    {
+        if ( log.isDebugEnabled() )
+        {
+            log.debug( line );
+        }
+        lines[next] = line;
+        next = ( next + 1 ) % lines.length;
+        if ( count < lines.length )
+        {
+            count++;
+        }
+        if ( transcript != null )
+        {
+            try
+            {
+                transcript.write( line );
+                transcript.write( '\n' );
+            }
+            catch ( IOException e )
+            {
+                log.warn( "Cannot write the transcript " + transcriptFile.getPath() + ": " + e );
+                close();
+            }
+        }
+    }
+
+    /**
+     * @return the last lines of the output, at most the number given to the constructor
+     */
+    public List getLines()
+    {
+        return getLines( lines.length );
+    }
+
+    /**
+     * @param maxLines the maximum number of lines to return
+     * @return the last lines of the output, at most maxLines of them
+     */
+    public synchronized List getLines( int maxLines )
+    {
+        int size = Math.min( count, maxLines );
+        List result = new ArrayList( size );
+        int first = ( next - size + lines.length ) % lines.length;
+        for ( int i = 0; i < size; i++ )
+        {
+            result.add( lines[( first + i ) % lines.length] );
+        }
+        return result;
+    }
+
+    public synchronized void close()
+    {
+        IOUtils.closeQuietly( transcript );
+        transcript = null;
+    }
+
+    public String toString()
+    {
+        return StringUtils.join( getLines().iterator(), "\n" );
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * The akquinet maven-latex-plugin project
+ *
+ * Copyright (c) 2011 by akquinet tech@spree GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.m2latex.mojo;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * The files each LaTeX main document depends on, persisted between builds. Main documents and their dependencies are
+ * identified by their path relative to the tex directory, using '/' as separator.
+ */
+public class DependencyGraph
+{
+    private static final String SEPARATOR = "|";
+
+    private final File storeFile;
+
+    private final Log log;
+
+    private final Properties dependencies = new Properties();
+
+    public DependencyGraph( File storeFile, Log log )
+    {
+        this.storeFile = storeFile;
+        this.log = log;
+    }
+
+    /**
+     * Loads the graph of the previous build. A missing or unreadable store is treated as empty.
+     */
+    public void load()
+    {
+        dependencies.clear();
+        if ( !storeFile.exists() )
+        {
+            return;
+        }
+        InputStream in = null;
+        try
+        {
+            in = new FileInputStream( storeFile );
+            dependencies.load( in );
+        }
+        catch ( IOException e )
+        {
+            log.warn( "Cannot read the dependency graph '" + storeFile.getPath() + "'.", e );
+            dependencies.clear();
+        }
+        finally
+        {
+            IOUtils.closeQuietly( in );
+        }
+    }
+
+    public void save()
+        throws MojoExecutionException
+    {
+        storeFile.getParentFile().mkdirs();
+        OutputStream out = null;
+        try
+        {
+            out = new FileOutputStream( storeFile );
+            dependencies.store( out, "maven-latex-plugin dependencies of the LaTeX main documents" );
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "Error writing the dependency graph " + storeFile.getPath(), e );
+        }
+        finally
+        {
+            IOUtils.closeQuietly( out );
+        }
+    }
+
+    /**
+     * @return the sorted paths of the files the given main document depended on in the last build
+     */
+    public Set getDependencies( String mainDocument )
+    {
+        String value = dependencies.getProperty( mainDocument );
+        if ( StringUtils.isEmpty( value ) )
+        {
+            return Collections.EMPTY_SET;
+        }
+        Set result = new TreeSet();
+        String[] paths = StringUtils.split( value, SEPARATOR );
+        for ( int i = 0; i < paths.length; i++ )
+        {
+            result.add( paths[i] );
+        }
+        return result;
+    }
+
+    public void setDependencies( String mainDocument, Collection paths )
+    {
+        dependencies.setProperty( mainDocument, StringUtils.join( new TreeSet( paths ).iterator(), SEPARATOR ) );
+    }
+
+    /**
+     * @return the sorted paths of the main documents which depend on the given file
+     */
+    public Set getDocumentsDependingOn( String path )
+    {
+        Set documents = new TreeSet();
+        synchronized ( dependencies )
+        {
+            for ( Iterator iterator = dependencies.entrySet().iterator(); iterator.hasNext(); )
+            {
+                Map.Entry entry = (Map.Entry) iterator.next();
+                String mainDocument = (String) entry.getKey();
+                if ( mainDocument.equals( path ) || getDependencies( mainDocument ).contains( path ) )
+                {
+                    documents.add( mainDocument );
+                }
+            }
+        }
+        return documents;
+    }
+}
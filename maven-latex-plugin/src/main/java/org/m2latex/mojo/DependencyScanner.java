@@ -0,0 +1,373 @@
+/*
+ * The akquinet maven-latex-plugin project
+ *
+ * Copyright (c) 2011 by akquinet tech@spree GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.m2latex.mojo;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.maven.plugin.MojoExecutionException;
+
+/**
+ * Finds the files a LaTeX main document depends on by scanning its source for <code>\input</code>,
+ * <code>\include</code>, <code>\includegraphics</code>, <code>\bibliography</code> and similar commands, and by
+ * reading the <code>.fls</code> file TeX writes when called with the <code>-recorder</code> option.
+ */
+public class DependencyScanner
+{
+    private static final String OPTIONS = "\\s*(?:\\[[^\\]]*\\]\\s*)*";
+
+    private static final Pattern PATTERN_INPUT = Pattern.compile( "\\\\(?:input|include)\\s*\\{([^}]+)\\}" );
+
+    private static final Pattern PATTERN_INCLUDE = Pattern.compile( "\\\\include\\s*\\{([^}]+)\\}" );
+
+    private static final Pattern PATTERN_PLAIN_INPUT = Pattern.compile( "\\\\input\\s+([^\\s{}\\\\%]+)" );
+
+    private static final Pattern PATTERN_GRAPHICS = Pattern.compile( "\\\\includegraphics\\*?" + OPTIONS
+        + "\\{([^}]+)\\}" );
+
+    private static final Pattern PATTERN_GRAPHICSPATH = Pattern.compile( "\\\\graphicspath\\s*\\{"
+        + "((?:\\s*\\{[^}]*\\})*)\\s*\\}" );
+
+    private static final Pattern PATTERN_GRAPHICSPATH_ENTRY = Pattern.compile( "\\{([^}]*)\\}" );
+
+    private static final Pattern PATTERN_BIBLIOGRAPHY = Pattern.compile( "\\\\bibliography\\s*\\{([^}]+)\\}" );
+
+    private static final Pattern PATTERN_BIBRESOURCE = Pattern.compile( "\\\\addbibresource" + OPTIONS
+        + "\\{([^}]+)\\}" );
+
+    private static final Pattern PATTERN_BIBSTYLE = Pattern.compile( "\\\\bibliographystyle\\s*\\{([^}]+)\\}" );
+
+    private static final Pattern PATTERN_PACKAGE = Pattern.compile( "\\\\(?:usepackage|RequirePackage)" + OPTIONS
+        + "\\{([^}]+)\\}" );
+
+    private static final Pattern PATTERN_CLASS = Pattern.compile( "\\\\documentclass" + OPTIONS + "\\{([^}]+)\\}" );
+
+    private static final String BEGIN_DOCUMENT = "\\begin{document}";
+
+    private static final String[] TEX_SUFFIXES = new String[] { ".tex" };
+
+    private static final String[] GRAPHICS_SUFFIXES = new String[] { ".pdf", ".png", ".jpg", ".jpeg", ".eps", ".ps",
+        ".mps" };
+
+    /**
+     * @param texFile a LaTeX main document
+     * @return the sorted set of existing java.io.File objects the given document depends on, including itself
+     */
+    public Set scan( File texFile )
+        throws MojoExecutionException
+    {
+        File mainFile = normalize( texFile );
+        Set dependencies = new TreeSet();
+        dependencies.add( mainFile );
+        scan( mainFile, mainFile.getParentFile(), false, new ArrayList(), dependencies, null, new HashSet() );
+        return dependencies;
+    }
+
+    /**
+     * @param texFile a LaTeX main document
+     * @return the sorted set of existing java.io.File objects the given document includes via <code>\include</code>,
+     *         directly or from the files it inputs. TeX writes an aux file for each of them.
+     */
+    public Set scanIncludes( File texFile )
+        throws MojoExecutionException
+    {
+        File mainFile = normalize( texFile );
+        Set includes = new TreeSet();
+        scan( mainFile, mainFile.getParentFile(), false, new ArrayList(), new TreeSet(), includes, new HashSet() );
+        return includes;
+    }
+
+    /**
+     * Like {@link #scan(File)}, but only follows the commands before <code>\begin{document}</code> in the main
+     * document.
+     *
+     * @param texFile a LaTeX main document
+     * @return the sorted set of existing java.io.File objects the preamble of the given document depends on,
+     *         including the document itself
+     */
+    public Set scanPreamble( File texFile )
+        throws MojoExecutionException
+    {
+        File mainFile = normalize( texFile );
+        Set dependencies = new TreeSet();
+        dependencies.add( mainFile );
+        scan( mainFile, mainFile.getParentFile(), true, new ArrayList(), dependencies, null, new HashSet() );
+        return dependencies;
+    }
+
+    /**
+     * Reads the files recorded as <code>INPUT</code> in a <code>.fls</code> file which lie below the given directory.
+     * Files which were also written by TeX (e.g. the <code>.aux</code> file) are not considered inputs.
+     *
+     * @param recorderFile the <code>.fls</code> file
+     * @param baseDirectory only inputs below this directory are returned
+     * @return the paths of the inputs relative to the base directory, using '/' as separator
+     */
+    public Set parseRecorderFile( File recorderFile, File baseDirectory )
+        throws MojoExecutionException
+    {
+        Set inputs = new TreeSet();
+        Set outputs = new HashSet();
+        String basePath = normalize( baseDirectory ).getPath() + File.separatorChar;
+        File workingDir = recorderFile.getParentFile();
+
+        BufferedReader reader = null;
+        try
+        {
+            reader = new BufferedReader( new FileReader( recorderFile ) );
+            for ( String line = reader.readLine(); line != null; line = reader.readLine() )
+            {
+                if ( line.startsWith( "PWD " ) )
+                {
+                    workingDir = new File( line.substring( 4 ) );
+                }
+                else if ( line.startsWith( "INPUT " ) || line.startsWith( "OUTPUT " ) )
+                {
+                    String name = line.substring( line.indexOf( ' ' ) + 1 );
+                    File file = new File( name );
+                    if ( !file.isAbsolute() )
+                    {
+                        file = new File( workingDir, name );
+                    }
+                    String path = normalize( file ).getPath();
+                    if ( path.startsWith( basePath ) )
+                    {
+                        String relativePath = path.substring( basePath.length() ).replace( File.separatorChar, '/' );
+                        ( line.startsWith( "INPUT " ) ? inputs : outputs ).add( relativePath );
+                    }
+                }
+            }
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "Error reading file " + recorderFile.getPath(), e );
+        }
+        finally
+        {
+            IOUtils.closeQuietly( reader );
+        }
+        inputs.removeAll( outputs );
+        return inputs;
+    }
+
+    /**
+     * @param preambleOnly if true, the given file is only scanned up to <code>\begin{document}</code>
+     * @param includes the set to add the files included via <code>\include</code> to, or null
+     */
+    private void scan( File file, File workingDir, boolean preambleOnly, List graphicsPath, Set dependencies,
+                       Set includes, Set visited )
+        throws MojoExecutionException
+    {
+        if ( !visited.add( file ) )
+        {
+            return;
+        }
+
+        BufferedReader reader = null;
+        try
+        {
+            reader = new BufferedReader( new FileReader( file ) );
+            for ( String line = reader.readLine(); line != null; line = reader.readLine() )
+            {
+                line = stripComment( line );
+                int beginDocument = preambleOnly ? line.indexOf( BEGIN_DOCUMENT ) : -1;
+                if ( beginDocument >= 0 )
+                {
+                    line = line.substring( 0, beginDocument );
+                }
+                if ( line.indexOf( '\\' ) >= 0 )
+                {
+                    scanLine( line, workingDir, graphicsPath, dependencies, includes, visited );
+                }
+                if ( beginDocument >= 0 )
+                {
+                    break;
+                }
+            }
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "Error reading file " + file.getPath()
+                + " while scanning for dependencies", e );
+        }
+        finally
+        {
+            IOUtils.closeQuietly( reader );
+        }
+    }
+
+    private void scanLine( String line, File workingDir, List graphicsPath, Set dependencies, Set includes,
+                           Set visited )
+        throws MojoExecutionException
+    {
+        if ( includes != null )
+        {
+            List included = new ArrayList();
+            addArguments( PATTERN_INCLUDE, line, included );
+            for ( Iterator iterator = included.iterator(); iterator.hasNext(); )
+            {
+                File include = resolve( workingDir, (String) iterator.next(), TEX_SUFFIXES );
+                if ( include != null )
+                {
+                    includes.add( include );
+                }
+            }
+        }
+
+        List inputs = new ArrayList();
+        addArguments( PATTERN_INPUT, line, inputs );
+        addArguments( PATTERN_PLAIN_INPUT, line, inputs );
+        for ( Iterator iterator = inputs.iterator(); iterator.hasNext(); )
+        {
+            File input = resolve( workingDir, (String) iterator.next(), TEX_SUFFIXES );
+            if ( input != null )
+            {
+                dependencies.add( input );
+                scan( input, workingDir, false, graphicsPath, dependencies, includes, visited );
+            }
+        }
+
+        Matcher graphicsPathMatcher = PATTERN_GRAPHICSPATH.matcher( line );
+        while ( graphicsPathMatcher.find() )
+        {
+            addArguments( PATTERN_GRAPHICSPATH_ENTRY, graphicsPathMatcher.group( 1 ), graphicsPath );
+        }
+        List graphics = new ArrayList();
+        addArguments( PATTERN_GRAPHICS, line, graphics );
+        for ( Iterator iterator = graphics.iterator(); iterator.hasNext(); )
+        {
+            addGraphics( workingDir, graphicsPath, (String) iterator.next(), dependencies );
+        }
+
+        addResolved( workingDir, PATTERN_BIBLIOGRAPHY, line, ".bib", dependencies );
+        addResolved( workingDir, PATTERN_BIBRESOURCE, line, null, dependencies );
+        addResolved( workingDir, PATTERN_BIBSTYLE, line, ".bst", dependencies );
+        addResolved( workingDir, PATTERN_PACKAGE, line, ".sty", dependencies );
+        addResolved( workingDir, PATTERN_CLASS, line, ".cls", dependencies );
+    }
+
+    private void addGraphics( File workingDir, List graphicsPath, String name, Set dependencies )
+    {
+        File graphic = resolve( workingDir, name, GRAPHICS_SUFFIXES );
+        for ( Iterator iterator = graphicsPath.iterator(); graphic == null && iterator.hasNext(); )
+        {
+            graphic = resolve( workingDir, iterator.next() + name, GRAPHICS_SUFFIXES );
+        }
+        if ( graphic != null )
+        {
+            dependencies.add( graphic );
+        }
+    }
+
+    /**
+     * Adds the existing files denoted by the comma separated arguments of the given command.
+     */
+    private void addResolved( File workingDir, Pattern pattern, String line, String suffix, Set dependencies )
+    {
+        List arguments = new ArrayList();
+        addArguments( pattern, line, arguments );
+        for ( Iterator iterator = arguments.iterator(); iterator.hasNext(); )
+        {
+            String[] names = ( (String) iterator.next() ).split( "," );
+            for ( int i = 0; i < names.length; i++ )
+            {
+                File file = resolve( workingDir, names[i].trim(), suffix == null ? new String[0]
+                                : new String[] { suffix } );
+                if ( file != null )
+                {
+                    dependencies.add( file );
+                }
+            }
+        }
+    }
+
+    private void addArguments( Pattern pattern, String line, List arguments )
+    {
+        Matcher matcher = pattern.matcher( line );
+        while ( matcher.find() )
+        {
+            arguments.add( matcher.group( 1 ).trim() );
+        }
+    }
+
+    /**
+     * Resolves a file name as TeX does: relative to the working directory, trying the given suffixes if the name
+     * itself does not denote a file.
+     */
+    private File resolve( File workingDir, String name, String[] suffixes )
+    {
+        if ( name.length() == 0 )
+        {
+            return null;
+        }
+        File file = new File( name );
+        if ( !file.isAbsolute() )
+        {
+            file = new File( workingDir, name );
+        }
+        if ( file.isFile() )
+        {
+            return normalize( file );
+        }
+        for ( int i = 0; i < suffixes.length; i++ )
+        {
+            File candidate = new File( file.getPath() + suffixes[i] );
+            if ( candidate.isFile() )
+            {
+                return normalize( candidate );
+            }
+        }
+        return null;
+    }
+
+    private File normalize( File file )
+    {
+        try
+        {
+            return file.getCanonicalFile();
+        }
+        catch ( IOException e )
+        {
+            return file.getAbsoluteFile();
+        }
+    }
+
+    private String stripComment( String line )
+    {
+        for ( int i = line.indexOf( '%' ); i >= 0; i = line.indexOf( '%', i + 1 ) )
+        {
+            if ( i == 0 || line.charAt( i - 1 ) != '\\' )
+            {
+                return line.substring( 0, i );
+            }
+        }
+        return line;
+    }
+}
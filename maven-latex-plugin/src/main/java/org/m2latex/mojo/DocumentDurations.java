@@ -0,0 +1,188 @@
+/*
+ * The akquinet maven-latex-plugin project
+ *
+ * Copyright (c) 2011 by akquinet tech@spree GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.m2latex.mojo;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Persists the time it took to process each LaTeX main document between builds, to start the longest documents first
+ * and not end a parallel build waiting for a single long document started last. Documents without a recorded
+ * duration are estimated by their file size, scaled by the average time per byte of the documents with a duration.
+ */
+public class DocumentDurations
+{
+    private final File storeFile;
+
+    private final Log log;
+
+    private final Properties durations = new Properties();
+
+    public DocumentDurations( File storeFile, Log log )
+    {
+        this.storeFile = storeFile;
+        this.log = log;
+    }
+
+    /**
+     * Loads the durations of the previous builds. A missing or unreadable store is treated as empty.
+     */
+    public synchronized void load()
+    {
+        durations.clear();
+        if ( !storeFile.exists() )
+        {
+            return;
+        }
+        InputStream in = null;
+        try
+        {
+            in = new FileInputStream( storeFile );
+            durations.load( in );
+        }
+        catch ( IOException e )
+        {
+            log.debug( "Cannot read the document durations '" + storeFile.getPath() + "': " + e );
+            durations.clear();
+        }
+        finally
+        {
+            IOUtils.closeQuietly( in );
+        }
+    }
+
+    /**
+     * Saves the durations. Failing to do so only affects the order of the next build, so it is logged only.
+     */
+    public synchronized void save()
+    {
+        storeFile.getParentFile().mkdirs();
+        OutputStream out = null;
+        try
+        {
+            out = new FileOutputStream( storeFile );
+            durations.store( out, "maven-latex-plugin document durations in milliseconds" );
+        }
+        catch ( IOException e )
+        {
+            log.warn( "Cannot write the document durations '" + storeFile.getPath() + "'", e );
+        }
+        finally
+        {
+            IOUtils.closeQuietly( out );
+        }
+    }
+
+    /**
+     * @return the duration recorded for the given document in milliseconds, or -1 if none is known
+     */
+    public synchronized long getDuration( String key )
+    {
+        String value = durations.getProperty( key );
+        if ( value == null )
+        {
+            return -1;
+        }
+        try
+        {
+            return Long.parseLong( value );
+        }
+        catch ( NumberFormatException e )
+        {
+            return -1;
+        }
+    }
+
+    public synchronized void record( String key, long millis )
+    {
+        durations.setProperty( key, String.valueOf( millis ) );
+    }
+
+    /**
+     * @param texFiles the LaTeX main documents
+     * @param keys the keys of the given documents, in the same order
+     * @return the given documents ordered by their expected duration, the longest first
+     */
+    public List sortLongestFirst( List texFiles, List keys )
+    {
+        long knownMillis = 0;
+        long knownBytes = 0;
+        for ( int i = 0; i < texFiles.size(); i++ )
+        {
+            long duration = getDuration( (String) keys.get( i ) );
+            if ( duration >= 0 )
+            {
+                knownMillis += duration;
+                knownBytes += ( (File) texFiles.get( i ) ).length();
+            }
+        }
+        double millisPerByte = knownBytes > 0 ? (double) knownMillis / knownBytes : 1;
+
+        List estimates = new ArrayList();
+        for ( int i = 0; i < texFiles.size(); i++ )
+        {
+            File texFile = (File) texFiles.get( i );
+            long duration = getDuration( (String) keys.get( i ) );
+            double estimate = duration >= 0 ? duration : texFile.length() * millisPerByte;
+            estimates.add( new Estimate( texFile, estimate ) );
+        }
+        // the sort is stable, documents with the same estimate stay in their order
+        Collections.sort( estimates, new Comparator()
+        {
+            public int compare( Object o1, Object o2 )
+            {
+                return Double.compare( ( (Estimate) o2 ).millis, ( (Estimate) o1 ).millis );
+            }
+        } );
+
+        List sortedFiles = new ArrayList();
+        for ( Iterator iterator = estimates.iterator(); iterator.hasNext(); )
+        {
+            sortedFiles.add( ( (Estimate) iterator.next() ).texFile );
+        }
+        return sortedFiles;
+    }
+
+    private static class Estimate
+    {
+        private final File texFile;
+
+        private final double millis;
+
+        Estimate( File texFile, double millis )
+        {
+            this.texFile = texFile;
+            this.millis = millis;
+        }
+    }
+}
@@ -0,0 +1,496 @@
+/*
+ * The akquinet maven-latex-plugin project
+ *
+ * Copyright (c) 2011 by akquinet tech@spree GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.m2latex.mojo;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.util.cli.CommandLineException;
+
+/**
+ * Processes independent LaTeX main documents on a pool of worker threads. Documents which depend on each other may be
+ * put into the same scheduling unit, the documents of a unit are processed one after another. The log output of each
+ * document is buffered and written in the order of the given documents, failures are collected and reported after all
+ * documents have been processed. Work following the compilation of a document, like publishing its output, may be
+ * passed as pipeline stages, which run on their own threads while the next documents are compiled.
+ */
+public class DocumentScheduler
+{
+    /**
+     * The work to do for a single LaTeX main document.
+     */
+    public interface DocumentTask
+    {
+        /**
+         * @param texFile the LaTeX main document
+         * @param log the log to use for all output concerning this document
+         */
+        void process( File texFile, Log log )
+            throws CommandLineException, MojoExecutionException, MojoFailureException;
+    }
+
+    private final int threads;
+
+    private final Log log;
+
+    private Map units = Collections.EMPTY_MAP;
+
+    public DocumentScheduler( int threads, Log log )
+    {
+        this.threads = threads;
+        this.log = log;
+    }
+
+    /**
+     * Assigns documents to scheduling units. The documents of a unit are processed one after another in the order
+     * they are passed to this scheduler, e.g. because they write the same auxiliary files. Documents without a unit
+     * do not depend on any other document.
+     *
+     * @param units maps documents to the keys of their units
+     */
+    public void setUnits( Map units )
+    {
+        this.units = units;
+    }
+
+    public void processAll( List texFiles, DocumentTask task )
+        throws MojoExecutionException, MojoFailureException
+    {
+        reportFailures( process( texFiles, task ), texFiles.size() );
+    }
+
+    /**
+     * Processes the given documents with the given task, then hands each successfully processed document on to the
+     * following stages. Each stage runs on its own thread and is fed by a bounded queue, so the stages of different
+     * documents overlap, and the task waits when a stage falls behind. A document failing in one stage skips the
+     * remaining ones. The output of the following stages is buffered for each document and written in the order of
+     * the given documents once all stages have finished.
+     *
+     * @param stages the stages following the task, in order
+     */
+    public void processAll( List texFiles, final DocumentTask task, DocumentTask[] stages )
+        throws MojoExecutionException, MojoFailureException
+    {
+        if ( stages.length == 0 )
+        {
+            processAll( texFiles, task );
+            return;
+        }
+        final Pipeline pipeline = new Pipeline( stages, Math.max( threads, 1 ) );
+        List failures;
+        try
+        {
+            failures = process( texFiles, new DocumentTask()
+            {
+                public void process( File texFile, Log documentLog )
+                    throws CommandLineException, MojoExecutionException, MojoFailureException
+                {
+                    task.process( texFile, documentLog );
+                    pipeline.submit( texFile );
+                }
+            } );
+        }
+        catch ( MojoExecutionException e )
+        {
+            pipeline.abort();
+            throw e;
+        }
+        failures.addAll( pipeline.finish( texFiles ) );
+        reportFailures( failures, texFiles.size() );
+    }
+
+    private List process( List texFiles, DocumentTask task )
+        throws MojoExecutionException
+    {
+        if ( threads <= 1 || texFiles.size() <= 1 )
+        {
+            return processSequentially( texFiles, task );
+        }
+        return processInParallel( texFiles, task );
+    }
+
+    private List processSequentially( List texFiles, DocumentTask task )
+    {
+        List failures = new ArrayList();
+        for ( Iterator iterator = texFiles.iterator(); iterator.hasNext(); )
+        {
+            File texFile = (File) iterator.next();
+            Exception failure = processDocument( texFile, task, log );
+            if ( failure != null )
+            {
+                failures.add( new Failure( texFile, failure ) );
+            }
+        }
+        return failures;
+    }
+
+    private List processInParallel( List texFiles, final DocumentTask task )
+        throws MojoExecutionException
+    {
+        List documentUnits = getUnits( texFiles );
+        int poolSize = Math.min( threads, documentUnits.size() );
+        log.debug( "Processing " + texFiles.size() + " LaTeX documents in " + documentUnits.size() + " units using "
+            + poolSize + " threads" );
+        ExecutorService pool = Executors.newFixedThreadPool( poolSize );
+
+        List failures = new ArrayList();
+        try
+        {
+            Future[] futures = new Future[texFiles.size()];
+            BufferedLog[] logs = new BufferedLog[texFiles.size()];
+            for ( Iterator iterator = documentUnits.iterator(); iterator.hasNext(); )
+            {
+                final List unitTasks = new ArrayList();
+                for ( Iterator indices = ( (List) iterator.next() ).iterator(); indices.hasNext(); )
+                {
+                    int index = ( (Integer) indices.next() ).intValue();
+                    final File texFile = (File) texFiles.get( index );
+                    final BufferedLog documentLog = new BufferedLog( log );
+                    FutureTask future = new FutureTask( new Callable()
+                    {
+                        public Object call()
+                        {
+                            return processDocument( texFile, task, documentLog );
+                        }
+                    } );
+                    futures[index] = future;
+                    logs[index] = documentLog;
+                    unitTasks.add( future );
+                }
+                pool.execute( new Runnable()
+                {
+                    public void run()
+                    {
+                        for ( Iterator iterator = unitTasks.iterator(); iterator.hasNext(); )
+                        {
+                            ( (Runnable) iterator.next() ).run();
+                        }
+                    }
+                } );
+            }
+
+            for ( int i = 0; i < futures.length; i++ )
+            {
+                File texFile = (File) texFiles.get( i );
+                Exception failure = waitFor( futures[i], texFile );
+                logs[i].flushTo( log );
+                if ( failure != null )
+                {
+                    failures.add( new Failure( texFile, failure ) );
+                }
+            }
+        }
+        finally
+        {
+            pool.shutdownNow();
+        }
+        return failures;
+    }
+
+    /**
+     * @return the scheduling units of the given documents as lists of their indices, in the order of their first
+     *         documents
+     */
+    private List getUnits( List texFiles )
+    {
+        Map documentUnits = new LinkedHashMap();
+        for ( int i = 0; i < texFiles.size(); i++ )
+        {
+            Object texFile = texFiles.get( i );
+            Object key = units.containsKey( texFile ) ? units.get( texFile ) : texFile;
+            List unit = (List) documentUnits.get( key );
+            if ( unit == null )
+            {
+                unit = new ArrayList();
+                documentUnits.put( key, unit );
+            }
+            unit.add( Integer.valueOf( i ) );
+        }
+        return new ArrayList( documentUnits.values() );
+    }
+
+    private Exception waitFor( Future future, File texFile )
+        throws MojoExecutionException
+    {
+        try
+        {
+            return (Exception) future.get();
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException( "Interrupted while processing " + texFile, e );
+        }
+        catch ( ExecutionException e )
+        {
+            throw new MojoExecutionException( "Unexpected error while processing " + texFile, e );
+        }
+    }
+
+    private Exception processDocument( File texFile, DocumentTask task, Log documentLog )
+    {
+        try
+        {
+            task.process( texFile, documentLog );
+            return null;
+        }
+        catch ( Exception e )
+        {
+            return e;
+        }
+    }
+
+    private void reportFailures( List failures, int documentCount )
+        throws MojoExecutionException, MojoFailureException
+    {
+        if ( failures.isEmpty() )
+        {
+            return;
+        }
+        if ( failures.size() == 1 )
+        {
+            rethrow( ( (Failure) failures.get( 0 ) ).cause );
+        }
+
+        StringBuffer message = new StringBuffer();
+        message.append( failures.size() ).append( " of " ).append( documentCount );
+        message.append( " LaTeX documents could not be processed:" );
+        for ( Iterator iterator = failures.iterator(); iterator.hasNext(); )
+        {
+            Failure failure = (Failure) iterator.next();
+            log.error( "Processing " + failure.texFile + " failed: " + failure.cause.getMessage() );
+            message.append( "\n  " ).append( failure.texFile ).append( ": " ).append( failure.cause.getMessage() );
+        }
+        throw new MojoExecutionException( message.toString(), ( (Failure) failures.get( 0 ) ).cause );
+    }
+
+    private void rethrow( Exception e )
+        throws MojoExecutionException, MojoFailureException
+    {
+        if ( e instanceof MojoExecutionException )
+        {
+            throw (MojoExecutionException) e;
+        }
+        if ( e instanceof MojoFailureException )
+        {
+            throw (MojoFailureException) e;
+        }
+        if ( e instanceof CommandLineException )
+        {
+            throw new MojoExecutionException( "Error executing command", e );
+        }
+        throw new MojoExecutionException( e.getMessage(), e );
+    }
+
+    /**
+     * The stages following the task of {@link DocumentScheduler#processAll(List, DocumentTask, DocumentTask[])}, each
+     * on its own thread taking the documents from a bounded queue. All stages of a document share one buffered log.
+     */
+    private class Pipeline
+    {
+        private final Object end = new Object();
+
+        private final List failures = new ArrayList();
+
+        private final Map logs = new HashMap();
+
+        private final BlockingQueue[] queues;
+
+        private final Thread[] workers;
+
+        Pipeline( DocumentTask[] stages, int capacity )
+        {
+            queues = new BlockingQueue[stages.length];
+            for ( int i = 0; i < stages.length; i++ )
+            {
+                queues[i] = new ArrayBlockingQueue( capacity );
+            }
+            workers = new Thread[stages.length];
+            for ( int i = 0; i < stages.length; i++ )
+            {
+                workers[i] = startWorker( i, stages[i] );
+            }
+        }
+
+        private Thread startWorker( final int index, final DocumentTask stage )
+        {
+            Thread worker = new Thread( "m2latex-pipeline-" + index )
+            {
+                public void run()
+                {
+                    BlockingQueue next = index + 1 < queues.length ? queues[index + 1] : null;
+                    try
+                    {
+                        for ( Object item = queues[index].take(); item != end; item = queues[index].take() )
+                        {
+                            File texFile = (File) item;
+                            Exception failure = processStage( texFile, stage );
+                            if ( failure != null )
+                            {
+                                addFailure( new Failure( texFile, failure ) );
+                            }
+                            else if ( next != null )
+                            {
+                                next.put( texFile );
+                            }
+                        }
+                        if ( next != null )
+                        {
+                            next.put( end );
+                        }
+                    }
+                    catch ( InterruptedException e )
+                    {
+                        // aborted
+                    }
+                }
+            };
+            worker.setDaemon( true );
+            worker.start();
+            return worker;
+        }
+
+        /**
+         * Runs a stage for a document, an error thrown by the stage fails the document but does not stop the
+         * worker, which would leave the queues filling up.
+         */
+        private Exception processStage( File texFile, DocumentTask stage )
+        {
+            try
+            {
+                return processDocument( texFile, stage, getLog( texFile ) );
+            }
+            catch ( Throwable e )
+            {
+                MojoExecutionException failure =
+                    new MojoExecutionException( "Unexpected error while processing " + texFile + ": " + e );
+                failure.initCause( e );
+                return failure;
+            }
+        }
+
+        private synchronized BufferedLog getLog( File texFile )
+        {
+            BufferedLog stageLog = (BufferedLog) logs.get( texFile );
+            if ( stageLog == null )
+            {
+                stageLog = new BufferedLog( log );
+                logs.put( texFile, stageLog );
+            }
+            return stageLog;
+        }
+
+        private synchronized void addFailure( Failure failure )
+        {
+            failures.add( failure );
+        }
+
+        /**
+         * Hands the given document on to the first stage, waiting while its queue is full.
+         */
+        void submit( File texFile )
+            throws MojoExecutionException
+        {
+            try
+            {
+                queues[0].put( texFile );
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+                throw new MojoExecutionException( "Interrupted while waiting to publish " + texFile, e );
+            }
+        }
+
+        /**
+         * Waits until all submitted documents have passed all stages, then writes the output of the stages.
+         *
+         * @param texFiles the documents in the order to write their output in
+         * @return the failures in the stages
+         */
+        List finish( List texFiles )
+            throws MojoExecutionException
+        {
+            try
+            {
+                queues[0].put( end );
+                for ( int i = 0; i < workers.length; i++ )
+                {
+                    workers[i].join();
+                }
+            }
+            catch ( InterruptedException e )
+            {
+                abort();
+                Thread.currentThread().interrupt();
+                throw new MojoExecutionException( "Interrupted while waiting for the pipeline", e );
+            }
+            synchronized ( this )
+            {
+                for ( Iterator iterator = texFiles.iterator(); iterator.hasNext(); )
+                {
+                    BufferedLog stageLog = (BufferedLog) logs.get( iterator.next() );
+                    if ( stageLog != null )
+                    {
+                        stageLog.flushTo( log );
+                    }
+                }
+                return new ArrayList( failures );
+            }
+        }
+
+        void abort()
+        {
+            for ( int i = 0; i < workers.length; i++ )
+            {
+                workers[i].interrupt();
+            }
+        }
+    }
+
+    private static class Failure
+    {
+        private final File texFile;
+
+        private final Exception cause;
+
+        Failure( File texFile, Exception cause )
+        {
+            this.texFile = texFile;
+            this.cause = cause;
+        }
+    }
+}
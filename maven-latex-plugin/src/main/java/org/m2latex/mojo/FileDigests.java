@@ -0,0 +1,152 @@
+/*
+ * The akquinet maven-latex-plugin project
+ *
+ * Copyright (c) 2011 by akquinet tech@spree GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.m2latex.mojo;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.maven.plugin.MojoExecutionException;
+
+/**
+ * Computes content digests of files. The digest of each file is computed only once, so the same source file can be
+ * part of the fingerprints of many LaTeX main documents at low cost.
+ */
+public class FileDigests
+{
+    private static final String ALGORITHM = "SHA-1";
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final Map digests = new HashMap();
+
+    /**
+     * @return the hex encoded digest of the content of the given file, or an empty string if the file does not exist.
+     */
+    public synchronized String getDigest( File file )
+        throws MojoExecutionException
+    {
+        String digest = (String) digests.get( file );
+        if ( digest == null )
+        {
+            digest = file.isFile() ? computeDigest( file ) : "";
+            digests.put( file, digest );
+        }
+        return digest;
+    }
+
+    /**
+     * Combines the given parameters and the content of the given files to a single fingerprint.
+     *
+     * @param parameters strings that influence the result of processing, e.g. command names and arguments
+     * @param files the java.io.File objects whose content influences the result of processing
+     * @param baseDirectory the files are identified by their path relative to this directory
+     */
+    public String getFingerprint( String[] parameters, Collection files, File baseDirectory )
+        throws MojoExecutionException
+    {
+        MessageDigest messageDigest = newMessageDigest();
+        for ( int i = 0; i < parameters.length; i++ )
+        {
+            update( messageDigest, parameters[i] );
+        }
+        String basePath = baseDirectory.getAbsolutePath();
+        for ( Iterator iterator = files.iterator(); iterator.hasNext(); )
+        {
+            File file = (File) iterator.next();
+            String path = file.getAbsolutePath();
+            update( messageDigest, path.startsWith( basePath ) ? path.substring( basePath.length() ) : path );
+            update( messageDigest, getDigest( file ) );
+        }
+        return toHex( messageDigest.digest() );
+    }
+
+    static String toHex( byte[] bytes )
+    {
+        char[] chars = new char[bytes.length * 2];
+        for ( int i = 0; i < bytes.length; i++ )
+        {
+            chars[2 * i] = HEX_DIGITS[( bytes[i] >> 4 ) & 0xf];
+            chars[2 * i + 1] = HEX_DIGITS[bytes[i] & 0xf];
+        }
+        return new String( chars );
+    }
+
+    static MessageDigest newMessageDigest()
+    {
+        try
+        {
+            return MessageDigest.getInstance( ALGORITHM );
+        }
+        catch ( NoSuchAlgorithmException e )
+        {
+            throw new IllegalStateException( ALGORITHM + " is not supported by this JVM" );
+        }
+    }
+
+    private void update( MessageDigest messageDigest, String value )
+    {
+        try
+        {
+            messageDigest.update( String.valueOf( value ).getBytes( "UTF-8" ) );
+            messageDigest.update( (byte) 0 );
+        }
+        catch ( UnsupportedEncodingException e )
+        {
+            throw new IllegalStateException( "UTF-8 is not supported by this JVM" );
+        }
+    }
+
+    /**
+     * @return the hex encoded digest of the current content of the given file, bypassing the cache
+     */
+    static String computeDigest( File file )
+        throws MojoExecutionException
+    {
+        MessageDigest messageDigest = newMessageDigest();
+        InputStream in = null;
+        try
+        {
+            in = new FileInputStream( file );
+            byte[] buffer = new byte[8192];
+            for ( int read = in.read( buffer ); read != -1; read = in.read( buffer ) )
+            {
+                messageDigest.update( buffer, 0, read );
+            }
+            return toHex( messageDigest.digest() );
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "Error reading file " + file.getPath(), e );
+        }
+        finally
+        {
+            IOUtils.closeQuietly( in );
+        }
+    }
+}
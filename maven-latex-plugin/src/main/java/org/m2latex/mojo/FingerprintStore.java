@@ -0,0 +1,111 @@
+/*
+ * The akquinet maven-latex-plugin project
+ *
+ * Copyright (c) 2011 by akquinet tech@spree GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.m2latex.mojo;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Persists the fingerprints of successfully processed LaTeX main documents between builds.
+ */
+public class FingerprintStore
+{
+    private final File storeFile;
+
+    private final Log log;
+
+    private final Properties fingerprints = new Properties();
+
+    public FingerprintStore( File storeFile, Log log )
+    {
+        this.storeFile = storeFile;
+        this.log = log;
+    }
+
+    /**
+     * Loads the fingerprints of the previous build. A missing or unreadable store is treated as empty.
+     */
+    public void load()
+    {
+        fingerprints.clear();
+        if ( !storeFile.exists() )
+        {
+            return;
+        }
+        InputStream in = null;
+        try
+        {
+            in = new FileInputStream( storeFile );
+            fingerprints.load( in );
+        }
+        catch ( IOException e )
+        {
+            log.warn( "Cannot read the fingerprint store '" + storeFile.getPath() + "', rebuilding all documents.", e );
+            fingerprints.clear();
+        }
+        finally
+        {
+            IOUtils.closeQuietly( in );
+        }
+    }
+
+    public void save()
+        throws MojoExecutionException
+    {
+        storeFile.getParentFile().mkdirs();
+        OutputStream out = null;
+        try
+        {
+            out = new FileOutputStream( storeFile );
+            fingerprints.store( out, "maven-latex-plugin fingerprints" );
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "Error writing the fingerprint store " + storeFile.getPath(), e );
+        }
+        finally
+        {
+            IOUtils.closeQuietly( out );
+        }
+    }
+
+    public boolean isUpToDate( String key, String fingerprint )
+    {
+        return fingerprint.equals( fingerprints.getProperty( key ) );
+    }
+
+    public void update( String key, String fingerprint )
+    {
+        fingerprints.setProperty( key, fingerprint );
+    }
+
+    public void remove( String key )
+    {
+        fingerprints.remove( key );
+    }
+}
@@ -19,11 +19,11 @@
 package org.m2latex.mojo;
 
 import java.io.File;
-import java.util.Iterator;
 import java.util.List;
 
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.logging.Log;
 import org.codehaus.plexus.util.cli.CommandLineException;
 
 /**
@@ -50,19 +50,15 @@ public class LatexMojo
 
         try
         {
-            fileUtils.copyLatexSrcToTempDir( texDirectory, settings.getTempDirectory() );
-            List latexMainFiles = fileUtils.getLatexMainDocuments( settings.getTempDirectory() );
-            for ( Iterator iterator = latexMainFiles.iterator(); iterator.hasNext(); )
+            List latexMainFiles = findLatexMainDocuments();
+            List outdatedFiles = restoreCachedOutputs( getOutdatedDocuments( latexMainFiles ) );
+            if ( outdatedFiles.isEmpty() )
             {
-                File texFile = (File) iterator.next();
-                latexProcessor.processLatex( texFile );
-                fileUtils.copyLatexOutputToOutputFolder( texFile, settings.getTempDirectory(), settings
-                    .getOutputDirectory() );
+                log.info( "All LaTeX documents are up to date - skipping LaTeX processing" );
+                return;
             }
-        }
-        catch ( CommandLineException e )
-        {
-            throw new MojoExecutionException( "Error executing command", e );
+            stageSources();
+            processDocuments( outdatedFiles );
         }
         finally
         {
@@ -70,6 +66,45 @@ public class LatexMojo
             {
                 cleanUp();
             }
+            reportMetrics();
         }
     }
+
+    protected void processDocument( File texFile, LatexProcessor processor, TexFileUtils texFileUtils,
+                                    Log documentLog )
+        throws CommandLineException, MojoExecutionException, MojoFailureException
+    {
+        processor.processLatex( texFile );
+    }
+
+    protected void publishDocument( File texFile, TexFileUtils texFileUtils, Log stageLog )
+        throws MojoExecutionException, MojoFailureException
+    {
+        BuildMetrics.Timing timing = metrics.start( texFile, BuildMetrics.STAGE_PUBLISHING );
+        try
+        {
+            texFileUtils.copyLatexOutputToOutputFolder( texFile, settings.getTempDirectory(), settings
+                .getOutputDirectory() );
+        }
+        finally
+        {
+            timing.stop();
+        }
+    }
+
+    protected File[] getOutputFiles( File texFile, TexFileUtils texFileUtils )
+    {
+        return texFileUtils.getLatexOutputFiles( texFile );
+    }
+
+    protected String getGoal()
+    {
+        return "latex";
+    }
+
+    protected boolean hasOutput( File texFile )
+        throws MojoExecutionException, MojoFailureException
+    {
+        return fileUtils.hasLatexOutput( texFile, settings.getTexDirectory(), settings.getOutputDirectory() );
+    }
 }
@@ -24,10 +24,38 @@ import org.apache.maven.plugin.logging.Log;
 import org.codehaus.plexus.util.cli.CommandLineException;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
 
 public class LatexProcessor
 {
-    static final String PATTERN_NEED_ANOTHER_LATEX_RUN = "(Rerun (LaTeX|to get cross-references right)|There were undefined references|Package natbib Warning: Citation\\(s\\) may have changed)";
+    static final String RERUN_DETECTION_LOG = "log";
+
+    static final String RERUN_DETECTION_FIXPOINT = "fixpoint";
+
+    static final String TEX4HT_PIPELINE_HTLATEX = "htlatex";
+
+    static final String TEX4HT_PIPELINE_DIRECT = "direct";
+
+    static final String TEX4HT_COMMAND = "tex4ht";
+
+    static final String T4HT_COMMAND = "t4ht";
+
+    /**
+     * The LaTeX code htlatex runs: loads tex4ht with the given options when the document class is loaded, then inputs
+     * the document. Followed by the options and <code>.a.b.c.\input</code> and the document.
+     */
+    private static final String TEX4HT_HOOK = "\\makeatletter\\def\\HCode{\\futurelet\\HCode\\HChar}"
+        + "\\def\\HChar{\\ifx\"\\HCode\\def\\HCode\"##1\"{\\Link##1}\\expandafter\\HCode\\else"
+        + "\\expandafter\\Link\\fi}\\def\\Link#1.a.b.c.{\\g@addto@macro\\@documentclasshook"
+        + "{\\RequirePackage[#1,html]{tex4ht}}\\let\\HCode\\documentstyle\\def\\documentstyle"
+        + "{\\let\\documentstyle\\HCode\\expandafter\\def\\csname tex4ht\\endcsname{#1,html}"
+        + "\\def\\HCode####1{\\documentstyle[tex4ht,}\\@ifnextchar[{\\HCode}{\\documentstyle[tex4ht]}}}"
+        + "\\makeatother\\HCode ";
+
+    private static final int MAX_RETRIES = 5;
 
     private final Settings settings;
 
@@ -37,53 +65,308 @@ public class LatexProcessor
 
     private TexFileUtils fileUtils;
 
+    private final PreambleFormatCache formatCache;
+
+    private final BibliographyCache bibliographyCache;
+
+    private final AuxiliaryStageRunner auxiliaryStageRunner;
+
+    private final BuildMetrics metrics;
+
+    /**
+     * The directory with the sources of the processed document when compiling in place, otherwise null.
+     */
+    private File sourceDirectory;
+
     public LatexProcessor( Settings settings, CommandExecutor executor, Log log, TexFileUtils fileUtils )
+    {
+        this( settings, executor, log, fileUtils, new BuildMetrics( null ) );
+    }
+
+    /**
+     * @param metrics records the time spent in the LaTeX, BibTeX and tex4ht runs
+     */
+    public LatexProcessor( Settings settings, CommandExecutor executor, Log log, TexFileUtils fileUtils,
+                           BuildMetrics metrics )
     {
         this.settings = settings;
         this.executor = executor;
         this.log = log;
         this.fileUtils = fileUtils;
+        this.formatCache = new PreambleFormatCache( settings, executor, log );
+        this.bibliographyCache = new BibliographyCache( settings, log );
+        this.metrics = metrics;
+        this.auxiliaryStageRunner = new AuxiliaryStageRunner( settings, executor, fileUtils, metrics, log );
+    }
+
+    /**
+     * Compiles in place: LaTeX runs in the given directory, where the sources of the document are, and writes all
+     * generated files to the directory of the processed document, using the <code>-output-directory</code> option.
+     * The other tools run in the directory of the processed document and find the sources through the search paths
+     * the command executor sets.
+     *
+     * @param sourceDirectory the directory with the sources of the document, or null if they are next to it
+     */
+    public void setSourceDirectory( File sourceDirectory )
+    {
+        this.sourceDirectory = sourceDirectory;
+    }
+
+    /**
+     * @param toolchainVersion the version output of the LaTeX command, determined once per build, which is part of
+     *            the keys of the precompiled preambles
+     */
+    public void setToolchainVersion( String toolchainVersion )
+    {
+        formatCache.setToolchainVersion( toolchainVersion );
     }
 
     public void processLatex( File texFile )
             throws CommandLineException, MojoExecutionException
     {
         log.info( "Processing LaTeX file " + texFile );
+        File format = null;
+        if ( settings.isPrecompilePreamble() )
+        {
+            format = formatCache.getFormat( texFile, getSourceDirectory( texFile ) );
+        }
 
-        runLatex( texFile );
-        if ( needBibtexRun( texFile ) )
+        if ( isFixpointRerunDetection() )
         {
-            runBibtex( texFile );
+            processLatexUntilFixpoint( texFile, format, false );
+            return;
         }
+
+        LogAnalysis analysis = runLatex( texFile, format );
+        boolean auxiliaryFilesChanged = runAuxiliaryStages( texFile, analysis, true );
         int retries = 0;
-        while ( retries < 5 && needAnotherLatexRun( texFile ) )
+        while ( retries < MAX_RETRIES && ( auxiliaryFilesChanged || needAnotherLatexRun( analysis ) ) )
         {
             log.debug( "Latex must be rerun" );
-            runLatex( texFile );
+            analysis = runLatex( texFile, format );
+            auxiliaryFilesChanged = runAuxiliaryStages( texFile, analysis, false );
             retries++;
         }
+        logDiagnostics( texFile, analysis );
+    }
+
+    /**
+     * Reruns LaTeX until a run does not change the auxiliary files it has read, independent of the messages in the
+     * log file.
+     *
+     * @param tex4ht run LaTeX with tex4ht loaded instead of the configured LaTeX command
+     */
+    private void processLatexUntilFixpoint( File texFile, File format, boolean tex4ht )
+            throws CommandLineException, MojoExecutionException
+    {
+        String digestBefore = fileUtils.getAuxiliaryFilesDigest( texFile );
+        LogAnalysis analysis = tex4ht ? runTex4htLatex( texFile ) : runLatex( texFile, format );
+        String digestAfter = fileUtils.getAuxiliaryFilesDigest( texFile );
+        boolean needRun = !digestAfter.equals( digestBefore );
+        if ( runAuxiliaryStages( texFile, analysis, true ) )
+        {
+            digestAfter = fileUtils.getAuxiliaryFilesDigest( texFile );
+            needRun = true;
+        }
+        int retries = 0;
+        while ( retries < MAX_RETRIES && needRun )
+        {
+            log.debug( "Latex must be rerun, auxiliary files have changed" );
+            digestBefore = digestAfter;
+            analysis = tex4ht ? runTex4htLatex( texFile ) : runLatex( texFile, format );
+            digestAfter = fileUtils.getAuxiliaryFilesDigest( texFile );
+            needRun = !digestAfter.equals( digestBefore );
+            if ( runAuxiliaryStages( texFile, analysis, false ) )
+            {
+                digestAfter = fileUtils.getAuxiliaryFilesDigest( texFile );
+                needRun = true;
+            }
+            retries++;
+        }
+        if ( needRun )
+        {
+            log.warn( "The auxiliary files of " + texFile.getName() + " did not converge after " + ( retries + 1 )
+                + " LaTeX runs" );
+        }
+        logDiagnostics( texFile, analysis );
+    }
+
+    private boolean isFixpointRerunDetection()
+            throws MojoExecutionException
+    {
+        String rerunDetection = settings.getRerunDetection();
+        if ( RERUN_DETECTION_FIXPOINT.equals( rerunDetection ) )
+        {
+            return true;
+        }
+        if ( StringUtils.isEmpty( rerunDetection ) || RERUN_DETECTION_LOG.equals( rerunDetection ) )
+        {
+            return false;
+        }
+        throw new MojoExecutionException( "Unknown rerunDetection '" + rerunDetection + "', expected '"
+            + RERUN_DETECTION_LOG + "' or '" + RERUN_DETECTION_FIXPOINT + "'" );
     }
 
     public void processTex4ht( File texFile )
             throws MojoExecutionException, CommandLineException
     {
-        processLatex( texFile );
-        runTex4ht( texFile );
+        if ( !isDirectTex4htPipeline() )
+        {
+            processLatex( texFile );
+        }
+        processTex4htAfterLatex( texFile );
+    }
+
+    /**
+     * Produces html for a document whose auxiliary files and bibliography have been written already, e.g. by
+     * {@link #processLatex(File)}, without running the texCommand again.
+     */
+    public void processTex4htAfterLatex( File texFile )
+            throws MojoExecutionException, CommandLineException
+    {
+        if ( isDirectTex4htPipeline() )
+        {
+            log.info( "Processing LaTeX file " + texFile + " with tex4ht" );
+            processLatexUntilFixpoint( texFile, null, true );
+            runTex4htPostprocessors( texFile );
+        }
+        else
+        {
+            runTex4ht( texFile );
+        }
+    }
+
+    /**
+     * @return the directory LaTeX reads the sources of the given document from
+     */
+    private File getSourceDirectory( File texFile )
+    {
+        return sourceDirectory == null ? texFile.getParentFile() : sourceDirectory;
+    }
+
+    /**
+     * @return the given LaTeX arguments preceded by the output directory if compiling in place
+     */
+    private String[] addOutputDirectory( File texFile, String[] args )
+    {
+        if ( sourceDirectory == null )
+        {
+            return args;
+        }
+        String[] allArgs = new String[args.length + 1];
+        allArgs[0] = "-output-directory=" + texFile.getAbsoluteFile().getParentFile().getPath();
+        System.arraycopy( args, 0, allArgs, 1, args.length );
+        return allArgs;
+    }
+
+    private boolean isDirectTex4htPipeline()
+            throws MojoExecutionException
+    {
+        String tex4htPipeline = settings.getTex4htPipeline();
+        if ( TEX4HT_PIPELINE_DIRECT.equals( tex4htPipeline ) )
+        {
+            return true;
+        }
+        if ( StringUtils.isEmpty( tex4htPipeline ) || TEX4HT_PIPELINE_HTLATEX.equals( tex4htPipeline ) )
+        {
+            return false;
+        }
+        throw new MojoExecutionException( "Unknown tex4htPipeline '" + tex4htPipeline + "', expected '"
+            + TEX4HT_PIPELINE_HTLATEX + "' or '" + TEX4HT_PIPELINE_DIRECT + "'" );
+    }
+
+    /**
+     * Runs the LaTeX pass of htlatex once: the configured tex4ht LaTeX command with tex4ht loaded.
+     *
+     * @return the analysis of the log file written by this run
+     */
+    private LogAnalysis runTex4htLatex( File texFile )
+            throws CommandLineException, MojoExecutionException
+    {
+        log.debug( "Running " + settings.getTex4htLatexCommand() + " with tex4ht on file " + texFile.getName() );
+        String[] tex4htCommandArgs = settings.getTex4htCommandArgs();
+        String[] latexOptions = splitTex4htArgument( tex4htCommandArgs, 3 );
+        String[] args = new String[latexOptions.length + 1];
+        System.arraycopy( latexOptions, 0, args, 0, latexOptions.length );
+        args[args.length - 1] = TEX4HT_HOOK + getTex4htArgument( tex4htCommandArgs, 0 ) + ".a.b.c.\\input "
+            + texFile.getName();
+        BuildMetrics.Timing timing = metrics.startExternal( texFile, BuildMetrics.STAGE_LATEX );
+        try
+        {
+            executor.execute( getSourceDirectory( texFile ), settings.getTexPath(), settings.getTex4htLatexCommand(),
+                              addOutputDirectory( texFile, args ), settings.getLatexTimeout() );
+        }
+        finally
+        {
+            timing.stop();
+        }
+        return analyzeLogFile( texFile );
+    }
+
+    /**
+     * Runs the stages of htlatex after its LaTeX passes: tex4ht to translate the dvi file to html and t4ht to
+     * convert the pictures and move the results to the output directory.
+     */
+    private void runTex4htPostprocessors( File texFile )
+            throws CommandLineException, MojoExecutionException
+    {
+        File tex4htOutdir = fileUtils.createTex4htOutputDir( texFile );
+        String[] tex4htCommandArgs = settings.getTex4htCommandArgs();
+        String[] t4htOptions = splitTex4htArgument( tex4htCommandArgs, 2 );
+        String[] t4htArgs = new String[t4htOptions.length + 1];
+        System.arraycopy( t4htOptions, 0, t4htArgs, 0, t4htOptions.length );
+        t4htArgs[t4htArgs.length - 1] = "-d" + tex4htOutdir.getAbsolutePath() + File.separatorChar;
+
+        BuildMetrics.Timing timing = metrics.startExternal( texFile, BuildMetrics.STAGE_TEX4HT );
+        try
+        {
+            runTex4htStage( texFile, TEX4HT_COMMAND, splitTex4htArgument( tex4htCommandArgs, 1 ) );
+            runTex4htStage( texFile, T4HT_COMMAND, t4htArgs );
+        }
+        finally
+        {
+            timing.stop();
+        }
+    }
+
+    private void runTex4htStage( File texFile, String command, String[] options )
+            throws CommandLineException
+    {
+        log.debug( "Running " + command + " on file " + texFile.getName() );
+        String[] args = new String[options.length + 1];
+        args[0] = texFile.getName();
+        System.arraycopy( options, 0, args, 1, options.length );
+        executor.execute( texFile.getParentFile(), settings.getTexPath(), command, args,
+                          settings.getTex4htTimeout() );
     }
 
     private void runTex4ht( File texFile )
             throws CommandLineException, MojoExecutionException
     {
+        if ( sourceDirectory != null )
+        {
+            throw new MojoExecutionException( "The " + TEX4HT_PIPELINE_HTLATEX + " tex4htPipeline cannot compile in"
+                + " place, use the " + TEX4HT_PIPELINE_DIRECT + " tex4htPipeline or another staging" );
+        }
         log.debug( "Running " + settings.getTex4htCommand() + " on file " + texFile.getName() );
         File workingDir = texFile.getParentFile();
         String[] args = buildHtlatexArguments( texFile );
-        executor.execute( workingDir, settings.getTexPath(), settings.getTex4htCommand(), args );
+        BuildMetrics.Timing timing = metrics.startExternal( texFile, BuildMetrics.STAGE_TEX4HT );
+        try
+        {
+            executor.execute( workingDir, settings.getTexPath(), settings.getTex4htCommand(), args,
+                              settings.getTex4htTimeout() );
+        }
+        finally
+        {
+            timing.stop();
+        }
     }
 
     private String[] buildHtlatexArguments( File texFile )
             throws MojoExecutionException
     {
-        File tex4htOutdir = fileUtils.createTex4htOutputDir( settings.getTempDirectory() );
+        File tex4htOutdir = fileUtils.createTex4htOutputDir( texFile );
 
         final String argOutputDir = " -d" + tex4htOutdir.getAbsolutePath() + File.separatorChar;
         String[] tex4htCommandArgs = settings.getTex4htCommandArgs();
@@ -109,21 +392,116 @@ public class LatexProcessor
         return returnEmptyArg ? "" : args[index];
     }
 
-    private boolean needAnotherLatexRun( File texFile )
-            throws MojoExecutionException
+    /**
+     * @return the options of the given tex4ht argument as separate arguments, as htlatex passes them on
+     */
+    private String[] splitTex4htArgument( String[] args, int index )
+    {
+        return StringUtils.split( getTex4htArgument( args, index ), " " );
+    }
+
+    private boolean needAnotherLatexRun( LogAnalysis analysis )
     {
-        String reRunPattern = PATTERN_NEED_ANOTHER_LATEX_RUN;
-        boolean needRun = fileUtils.matchInCorrespondingLogFile( texFile, reRunPattern );
+        boolean needRun = analysis.isAnotherLatexRunNeeded();
         log.debug( "Another Latex run? " + needRun );
         return needRun;
     }
 
-    private boolean needBibtexRun( File texFile )
-            throws MojoExecutionException
+    /**
+     * Reports the diagnostics of the last LaTeX run: errors as warnings, LaTeX and package warnings as information and
+     * bad boxes in debug mode only, each with the input file and line they refer to.
+     */
+    private void logDiagnostics( File texFile, LogAnalysis analysis )
     {
-        String namePrefixTexFile = fileUtils.getFileNameWithoutSuffix( texFile );
-        String pattern = "No file " + namePrefixTexFile + ".bbl";
-        return fileUtils.matchInCorrespondingLogFile( texFile, pattern );
+        for ( Iterator iterator = analysis.getDiagnostics().iterator(); iterator.hasNext(); )
+        {
+            LogDiagnostic diagnostic = (LogDiagnostic) iterator.next();
+            String location = diagnostic.getLocation() == null ? "" : diagnostic.getLocation() + ": ";
+            if ( diagnostic.isError() )
+            {
+                log.warn( "LaTeX error in " + texFile.getName() + ": " + location + diagnostic.getMessage() );
+            }
+            else if ( LogDiagnostic.SEVERITY_WARNING.equals( diagnostic.getSeverity() ) )
+            {
+                log.info( "LaTeX warning in " + texFile.getName() + ": " + location + diagnostic.getMessage() );
+            }
+            else
+            {
+                log.debug( "Bad box in " + texFile.getName() + ": " + location + diagnostic.getMessage() );
+            }
+        }
+        int badBoxes = analysis.countDiagnostics( LogDiagnostic.SEVERITY_BAD_BOX );
+        if ( badBoxes > 0 )
+        {
+            log.info( texFile.getName() + " has " + badBoxes + " overfull or underfull boxes" );
+        }
+    }
+
+    /**
+     * Runs the tools between two LaTeX runs: BibTeX after the first run and the auxiliary stages whose triggers fired,
+     * all of them concurrently.
+     *
+     * @return true if a file read by LaTeX has changed, so LaTeX must be rerun
+     */
+    private boolean runAuxiliaryStages( final File texFile, final LogAnalysis analysis, boolean firstRun )
+            throws CommandLineException, MojoExecutionException
+    {
+        List stages = auxiliaryStageRunner.getTriggeredStages( texFile, analysis );
+        if ( stages.isEmpty() )
+        {
+            return firstRun && updateBibliography( texFile, analysis );
+        }
+        List tasks = new ArrayList();
+        if ( firstRun )
+        {
+            tasks.add( new Callable()
+            {
+                public Object call()
+                        throws CommandLineException, MojoExecutionException
+                {
+                    return Boolean.valueOf( updateBibliography( texFile, analysis ) );
+                }
+            } );
+        }
+        for ( Iterator iterator = stages.iterator(); iterator.hasNext(); )
+        {
+            tasks.add( auxiliaryStageRunner.newTask( texFile, (AuxiliaryStage) iterator.next() ) );
+        }
+        return AuxiliaryStageRunner.runConcurrently( tasks );
+    }
+
+    /**
+     * Brings the bibliography of the given document up to date after its first LaTeX run. BibTeX only runs if no
+     * bibliography is cached for the current citations, bibliography databases and style, otherwise the cached
+     * bibliography is used. If the aux file does not request a bibliography, BibTeX runs if the log asks for it.
+     *
+     * @return true if the bibliography has changed, so LaTeX must be rerun
+     */
+    private boolean updateBibliography( File texFile, LogAnalysis analysis )
+            throws CommandLineException, MojoExecutionException
+    {
+        String digest = bibliographyCache.getInputsDigest( texFile, getSourceDirectory( texFile ) );
+        if ( digest == null )
+        {
+            // with biblatex and biber the log asks for the bbl file as well
+            if ( analysis.isBibtexRunNeeded() && !auxiliaryStageRunner.isWrittenByStage( "bbl" ) )
+            {
+                runBibtex( texFile );
+                return true;
+            }
+            return false;
+        }
+        File bblFile = bibliographyCache.getBblFile( texFile );
+        if ( bibliographyCache.contains( digest ) )
+        {
+            boolean changed = bibliographyCache.restore( digest, bblFile );
+            log.debug( "The BibTeX inputs of " + texFile.getName() + " are unchanged, "
+                + ( changed ? "using the cached bibliography" : "the bibliography is up to date" ) );
+            return changed;
+        }
+        runBibtex( texFile );
+        bibliographyCache.store( digest, bblFile );
+        return true;
     }
 
     private void runBibtex( File texFile )
@@ -133,19 +511,74 @@ public class LatexProcessor
         File workingDir = texFile.getParentFile();
 
         String[] args = new String[]{fileUtils.getCorrespondingAuxFile( texFile ).getPath()};
-        executor.execute( workingDir, settings.getTexPath(), settings.getBibtexCommand(), args );
+        BuildMetrics.Timing timing = metrics.startExternal( texFile, BuildMetrics.STAGE_BIBTEX );
+        try
+        {
+            executor.execute( workingDir, settings.getTexPath(), settings.getBibtexCommand(), args,
+                              settings.getBibtexTimeout() );
+        }
+        finally
+        {
+            timing.stop();
+        }
     }
 
-    private void runLatex( File texFile )
-            throws CommandLineException
+    /**
+     * @param format the precompiled preamble to load, or null to process the preamble of the document. A format the
+     *            LaTeX command cannot load is discarded and the preamble processed instead.
+     * @return the analysis of the log file written by this run
+     */
+    private LogAnalysis runLatex( File texFile, File format )
+            throws CommandLineException, MojoExecutionException
     {
         log.debug( "Running " + settings.getTexCommand() + " on file " + texFile.getName() );
-        File workingDir = texFile.getParentFile();
+        File workingDir = getSourceDirectory( texFile );
+        if ( format != null && !formatCache.exists( format ) )
+        {
+            format = null;
+        }
 
         String[] texCommandArgs = settings.getTexCommandArgs();
-        String[] args = new String[texCommandArgs.length + 1];
-        System.arraycopy( texCommandArgs, 0, args, 0, texCommandArgs.length );
-        args[texCommandArgs.length] = texFile.getName();
-        executor.execute( workingDir, settings.getTexPath(), settings.getTexCommand(), args );
+        int offset = format == null ? 0 : 1;
+        String[] args = new String[offset + texCommandArgs.length + 1];
+        if ( format != null )
+        {
+            args[0] = "-fmt=" + format.getAbsolutePath();
+        }
+        System.arraycopy( texCommandArgs, 0, args, offset, texCommandArgs.length );
+        args[args.length - 1] = texFile.getName();
+        BuildMetrics.Timing timing = metrics.startExternal( texFile, BuildMetrics.STAGE_LATEX );
+        String output;
+        try
+        {
+            output = executor.execute( workingDir, settings.getTexPath(), settings.getTexCommand(),
+                                       addOutputDirectory( texFile, args ), settings.getLatexTimeout() );
+        }
+        finally
+        {
+            timing.stop();
+        }
+        if ( format != null && output != null && output.indexOf( PreambleFormatCache.FATAL_FORMAT_ERROR ) >= 0 )
+        {
+            log.warn( "Cannot load the format " + format.getName() + ", processing the preamble of "
+                + texFile.getName() + " again" );
+            formatCache.discard( format );
+            return runLatex( texFile, null );
+        }
+        return analyzeLogFile( texFile );
+    }
+
+    /**
+     * Reads the log file of the given document once, looking for the log patterns of the auxiliary stages as well.
+     */
+    private LogAnalysis analyzeLogFile( File texFile )
+            throws MojoExecutionException
+    {
+        String[] patterns = auxiliaryStageRunner.getLogPatterns();
+        if ( patterns.length == 0 )
+        {
+            return fileUtils.analyzeCorrespondingLogFile( texFile );
+        }
+        return fileUtils.analyzeCorrespondingLogFile( texFile, patterns );
     }
 }
@@ -0,0 +1,115 @@
+/*
+ * The akquinet maven-latex-plugin project
+ *
+ * Copyright (c) 2011 by akquinet tech@spree GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.m2latex.mojo;
+
+import java.io.File;
+
+import org.codehaus.plexus.util.cli.CommandLineException;
+import org.codehaus.plexus.util.cli.StreamConsumer;
+
+/**
+ * Executes commands with another executor, but waits for a permit of a {@link ProcessLimiter} before each command.
+ * The time spent waiting is reported to the {@link BuildMetrics}, so it is not counted as time of the command.
+ */
+public class LimitedCommandExecutor
+    implements CommandExecutor
+{
+    private final CommandExecutor executor;
+
+    private final ProcessLimiter limiter;
+
+    private final BuildMetrics metrics;
+
+    public LimitedCommandExecutor( CommandExecutor executor, ProcessLimiter limiter )
+    {
+        this( executor, limiter, null );
+    }
+
+    /**
+     * @param metrics the metrics to report the waits for a permit to, or null
+     */
+    public LimitedCommandExecutor( CommandExecutor executor, ProcessLimiter limiter, BuildMetrics metrics )
+    {
+        this.executor = executor;
+        this.limiter = limiter;
+        this.metrics = metrics;
+    }
+
+    public String execute( File workingDir, File pathToExecutable, String executable, String[] args )
+        throws CommandLineException
+    {
+        return execute( workingDir, pathToExecutable, executable, args, 0 );
+    }
+
+    public String execute( File workingDir, File pathToExecutable, String executable, String[] args, int timeout )
+        throws CommandLineException
+    {
+        acquire( executable );
+        try
+        {
+            return executor.execute( workingDir, pathToExecutable, executable, args, timeout );
+        }
+        finally
+        {
+            limiter.release();
+        }
+    }
+
+    public int executeForExitCode( File workingDir, File pathToExecutable, String executable, String[] args,
+                                   int timeout )
+        throws CommandLineException
+    {
+        acquire( executable );
+        try
+        {
+            return executor.executeForExitCode( workingDir, pathToExecutable, executable, args, timeout );
+        }
+        finally
+        {
+            limiter.release();
+        }
+    }
+
+    public int execute( File workingDir, File pathToExecutable, String executable, String[] args,
+                        StreamConsumer output, int timeout )
+        throws CommandLineException
+    {
+        acquire( executable );
+        try
+        {
+            return executor.execute( workingDir, pathToExecutable, executable, args, output, timeout );
+        }
+        finally
+        {
+            limiter.release();
+        }
+    }
+
+    private void acquire( String executable )
+        throws CommandLineException
+    {
+        long startTime = System.currentTimeMillis();
+        limiter.acquire( executable );
+        if ( metrics != null )
+        {
+            metrics.recordWait( System.currentTimeMillis() - startTime );
+        }
+    }
+}
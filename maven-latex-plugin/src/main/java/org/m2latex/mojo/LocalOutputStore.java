@@ -0,0 +1,122 @@
+/*
+ * The akquinet maven-latex-plugin project
+ *
+ * Copyright (c) 2011 by akquinet tech@spree GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.m2latex.mojo;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * An {@link OutputStore} in a local directory, e.g. below <code>~/.m2</code>, with one folder per key. Entries are
+ * written to a temporary folder first and renamed when complete, so concurrent builds never see partial entries.
+ */
+public class LocalOutputStore
+    implements OutputStore
+{
+    private final File directory;
+
+    private final Log log;
+
+    public LocalOutputStore( File directory, Log log )
+    {
+        this.directory = directory;
+        this.log = log;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.m2latex.mojo.OutputStore#restore(java.lang.String, java.io.File)
+     */
+    public boolean restore( String key, File targetDirectory )
+        throws MojoExecutionException
+    {
+        File[] files = getEntry( key ).listFiles();
+        if ( files == null || files.length == 0 )
+        {
+            // an empty entry does not hold an output, e.g. if it was left by an older version
+            return false;
+        }
+        for ( int i = 0; i < files.length; i++ )
+        {
+            try
+            {
+                log.debug( "Restoring " + files[i] + " to " + targetDirectory );
+                FileUtils.copyFileToDirectory( files[i], targetDirectory );
+            }
+            catch ( IOException e )
+            {
+                throw new MojoExecutionException( "Error restoring " + files[i] + " from the output cache", e );
+            }
+        }
+        return true;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.m2latex.mojo.OutputStore#store(java.lang.String, java.io.File[])
+     */
+    public void store( String key, File[] files )
+        throws MojoExecutionException
+    {
+        File entry = getEntry( key );
+        if ( entry.exists() )
+        {
+            return;
+        }
+        boolean hasOutput = false;
+        for ( int i = 0; i < files.length; i++ )
+        {
+            hasOutput |= files[i].isFile();
+        }
+        if ( !hasOutput )
+        {
+            log.debug( "No output to store in the cache for " + key );
+            return;
+        }
+        File partialEntry = new File( entry.getParentFile(), key + ".part" + Thread.currentThread().getId() + "-"
+            + System.nanoTime() );
+        try
+        {
+            for ( int i = 0; i < files.length; i++ )
+            {
+                if ( files[i].isFile() )
+                {
+                    FileUtils.copyFileToDirectory( files[i], partialEntry );
+                }
+            }
+            if ( !partialEntry.renameTo( entry ) )
+            {
+                // another build stored the same output in the meantime
+                FileUtils.deleteDirectory( partialEntry );
+            }
+        }
+        catch ( IOException e )
+        {
+            log.warn( "Cannot store the output in the cache " + directory + ": " + e );
+            FileUtils.deleteQuietly( partialEntry );
+        }
+    }
+
+    private File getEntry( String key )
+    {
+        return new File( new File( directory, key.substring( 0, 2 ) ), key );
+    }
+}
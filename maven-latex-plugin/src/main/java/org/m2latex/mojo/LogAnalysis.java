@@ -0,0 +1,134 @@
+/*
+ * The akquinet maven-latex-plugin project
+ *
+ * Copyright (c) 2011 by akquinet tech@spree GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.m2latex.mojo;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The result of analyzing the log file of a LaTeX run.
+ */
+public class LogAnalysis
+{
+    private final boolean anotherLatexRunNeeded;
+
+    private final boolean bibtexRunNeeded;
+
+    private final List errors;
+
+    private final List diagnostics;
+
+    private final Set matchedPatterns;
+
+    /**
+     * @param errors the error messages, i.e. the lines starting with '!'
+     */
+    public LogAnalysis( boolean anotherLatexRunNeeded, boolean bibtexRunNeeded, List errors )
+    {
+        this( anotherLatexRunNeeded, bibtexRunNeeded, errors, Collections.EMPTY_LIST );
+    }
+
+    /**
+     * @param errors the error messages, i.e. the lines starting with '!'
+     * @param diagnostics the {@link LogDiagnostic}s in the order of the log file
+     */
+    public LogAnalysis( boolean anotherLatexRunNeeded, boolean bibtexRunNeeded, List errors, List diagnostics )
+    {
+        this( anotherLatexRunNeeded, bibtexRunNeeded, errors, diagnostics, Collections.EMPTY_SET );
+    }
+
+    /**
+     * @param errors the error messages, i.e. the lines starting with '!'
+     * @param diagnostics the {@link LogDiagnostic}s in the order of the log file
+     * @param matchedPatterns the further patterns found in the log file
+     */
+    public LogAnalysis( boolean anotherLatexRunNeeded, boolean bibtexRunNeeded, List errors, List diagnostics,
+                        Set matchedPatterns )
+    {
+        this.anotherLatexRunNeeded = anotherLatexRunNeeded;
+        this.bibtexRunNeeded = bibtexRunNeeded;
+        this.errors = Collections.unmodifiableList( errors );
+        this.diagnostics = Collections.unmodifiableList( diagnostics );
+        this.matchedPatterns = Collections.unmodifiableSet( matchedPatterns );
+    }
+
+    public boolean isAnotherLatexRunNeeded()
+    {
+        return anotherLatexRunNeeded;
+    }
+
+    public boolean isBibtexRunNeeded()
+    {
+        return bibtexRunNeeded;
+    }
+
+    public boolean hasErrors()
+    {
+        return !errors.isEmpty();
+    }
+
+    /**
+     * @return a List of Strings with the error messages found in the log file
+     */
+    public List getErrors()
+    {
+        return errors;
+    }
+
+    /**
+     * @return a List of {@link LogDiagnostic}s with the errors, warnings and bad boxes found in the log file
+     */
+    public List getDiagnostics()
+    {
+        return diagnostics;
+    }
+
+    /**
+     * @param pattern one of the further patterns the log file was analyzed for
+     * @return true if the pattern was found in a line of the log file
+     */
+    public boolean matches( String pattern )
+    {
+        return matchedPatterns.contains( pattern );
+    }
+
+    /**
+     * @return the number of diagnostics with the given severity
+     */
+    public int countDiagnostics( String severity )
+    {
+        int count = 0;
+        for ( Iterator iterator = diagnostics.iterator(); iterator.hasNext(); )
+        {
+            if ( ( (LogDiagnostic) iterator.next() ).getSeverity().equals( severity ) )
+            {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public String toString()
+    {
+        return "LogAnalysis[anotherLatexRunNeeded=" + anotherLatexRunNeeded + ",bibtexRunNeeded=" + bibtexRunNeeded
+            + ",errors=" + errors.size() + ",diagnostics=" + diagnostics.size() + "]";
+    }
+}
@@ -0,0 +1,514 @@
+/*
+ * The akquinet maven-latex-plugin project
+ *
+ * Copyright (c) 2011 by akquinet tech@spree GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.m2latex.mojo;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.maven.plugin.MojoExecutionException;
+
+/**
+ * Reads the log file of a LaTeX run once and checks all patterns the processing depends on in a single pass. Lines
+ * wrapped by TeX are joined first, unless the next line starts a new message, and the files TeX opens and closes,
+ * marked by parentheses, are tracked to attribute errors, warnings and bad boxes to the input file they occurred in.
+ */
+public class LogAnalyzer
+{
+    static final String PATTERN_NEED_ANOTHER_LATEX_RUN = "(Rerun (LaTeX|to get cross-references right)|There were undefined references|Package natbib Warning: Citation\\(s\\) may have changed)";
+
+    private static final Pattern NEED_ANOTHER_LATEX_RUN = Pattern.compile( PATTERN_NEED_ANOTHER_LATEX_RUN );
+
+    /**
+     * Errors in the format of the <code>-file-line-error</code> option: <code>./chapter.tex:12: message</code>.
+     */
+    private static final Pattern FILE_LINE_ERROR = Pattern.compile( "^(\\S[^:]*):(\\d+): (.*)$" );
+
+    /**
+     * TeX wraps the lines it writes to the log file after this many characters (<code>max_print_line</code>).
+     */
+    private static final int MAX_PRINT_LINE = 79;
+
+    private static final int MAX_ERRORS = 100;
+
+    private static final int MAX_DIAGNOSTICS = 1000;
+
+    /**
+     * The number of context lines after an error in which the line number <code>l.&lt;n&gt;</code> is looked for.
+     */
+    private static final int MAX_ERROR_CONTEXT = 20;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * @param logFile the log file of the LaTeX run
+     * @param jobName the name of the LaTeX main document without suffix
+     */
+    public LogAnalysis analyze( File logFile, String jobName )
+        throws MojoExecutionException
+    {
+        return analyze( logFile, jobName, new String[0] );
+    }
+
+    /**
+     * @param logFile the log file of the LaTeX run
+     * @param jobName the name of the LaTeX main document without suffix
+     * @param patterns further regular expressions to look for, see {@link LogAnalysis#matches(String)}
+     */
+    public LogAnalysis analyze( File logFile, String jobName, String[] patterns )
+        throws MojoExecutionException
+    {
+        if ( !logFile.exists() )
+        {
+            throw new MojoExecutionException( "File " + logFile.getPath() + " does not exist after running LaTeX." );
+        }
+
+        Parser parser = new Parser( jobName, patterns );
+        BufferedReader reader = null;
+        try
+        {
+            reader = new BufferedReader( new FileReader( logFile ), BUFFER_SIZE );
+            StringBuffer wrapped = new StringBuffer();
+            for ( String line = reader.readLine(); line != null; line = reader.readLine() )
+            {
+                if ( wrapped.length() > 0 )
+                {
+                    if ( !Parser.startsMessage( line ) )
+                    {
+                        wrapped.append( line );
+                        if ( line.length() != MAX_PRINT_LINE )
+                        {
+                            parser.parse( wrapped.toString() );
+                            wrapped.setLength( 0 );
+                        }
+                        continue;
+                    }
+                    // the previous line just happened to be max_print_line characters long
+                    parser.parse( wrapped.toString() );
+                    wrapped.setLength( 0 );
+                }
+                if ( line.length() == MAX_PRINT_LINE )
+                {
+                    wrapped.append( line );
+                    continue;
+                }
+                parser.parse( line );
+            }
+            if ( wrapped.length() > 0 )
+            {
+                parser.parse( wrapped.toString() );
+            }
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "Error reading file " + logFile.getPath(), e );
+        }
+        finally
+        {
+            IOUtils.closeQuietly( reader );
+        }
+        return parser.finish();
+    }
+
+    /**
+     * The state of the analysis of one log file, fed with one unwrapped line after the other.
+     */
+    private static class Parser
+    {
+        private final Matcher rerunMatcher = NEED_ANOTHER_LATEX_RUN.matcher( "" );
+
+        private final Matcher fileLineErrorMatcher = FILE_LINE_ERROR.matcher( "" );
+
+        private final String missingBbl;
+
+        private final String[] patterns;
+
+        private final Matcher[] patternMatchers;
+
+        private final Set matchedPatterns = new HashSet();
+
+        private boolean anotherLatexRunNeeded;
+
+        private boolean bibtexRunNeeded;
+
+        private final List errors = new ArrayList();
+
+        private final List diagnostics = new ArrayList();
+
+        /**
+         * The files opened by TeX, innermost last, with null for parentheses not opening a file.
+         */
+        private final List fileStack = new ArrayList();
+
+        /**
+         * The error waiting for its line number, or null.
+         */
+        private Message pendingError;
+
+        private int errorContextLines;
+
+        private boolean skipErrorContinuation;
+
+        /**
+         * The warning which may be continued on the next line, or null.
+         */
+        private Message pendingWarning;
+
+        private String continuationPrefix;
+
+        /**
+         * Whether the lines of a bad box are skipped, up to the next empty line.
+         */
+        private boolean inBadBox;
+
+        Parser( String jobName, String[] patterns )
+        {
+            this.missingBbl = "No file " + jobName + ".bbl";
+            this.patterns = patterns;
+            this.patternMatchers = new Matcher[patterns.length];
+            for ( int i = 0; i < patterns.length; i++ )
+            {
+                patternMatchers[i] = Pattern.compile( patterns[i] ).matcher( "" );
+            }
+        }
+
+        void parse( String line )
+        {
+            if ( !anotherLatexRunNeeded && rerunMatcher.reset( line ).find() )
+            {
+                anotherLatexRunNeeded = true;
+            }
+            if ( !bibtexRunNeeded && line.indexOf( missingBbl ) >= 0 )
+            {
+                bibtexRunNeeded = true;
+            }
+            for ( int i = 0; i < patternMatchers.length; i++ )
+            {
+                if ( patternMatchers[i] != null && patternMatchers[i].reset( line ).find() )
+                {
+                    matchedPatterns.add( patterns[i] );
+                    patternMatchers[i] = null;
+                }
+            }
+            if ( pendingError != null )
+            {
+                if ( parseErrorContext( line ) )
+                {
+                    if ( !isSourceContext( line ) )
+                    {
+                        // TeX may go on reading files after an error without a line number
+                        parseParentheses( line );
+                    }
+                    return;
+                }
+            }
+            if ( skipErrorContinuation )
+            {
+                skipErrorContinuation = false;
+                if ( line.startsWith( " " ) )
+                {
+                    return;
+                }
+            }
+            if ( pendingWarning != null )
+            {
+                if ( continuationPrefix != null && line.startsWith( continuationPrefix ) )
+                {
+                    pendingWarning.append( line.substring( continuationPrefix.length() ).trim() );
+                    parseParentheses( line );
+                    return;
+                }
+                addWarning();
+            }
+            if ( inBadBox )
+            {
+                inBadBox = line.length() > 0;
+                parseParentheses( line );
+                return;
+            }
+            if ( line.length() == 0 )
+            {
+                return;
+            }
+
+            if ( line.charAt( 0 ) == '!' )
+            {
+                addError( line );
+                pendingError = new Message( LogDiagnostic.SEVERITY_ERROR, getCurrentFile(),
+                                            line.substring( 1 ).trim() );
+                return;
+            }
+            if ( line.startsWith( "Overfull \\" ) || line.startsWith( "Underfull \\" ) )
+            {
+                int lineNumber = parseNumberAfter( line, " at lines " );
+                if ( lineNumber == 0 )
+                {
+                    lineNumber = parseNumberAfter( line, " at line " );
+                }
+                addDiagnostic( new LogDiagnostic( LogDiagnostic.SEVERITY_BAD_BOX, getCurrentFile(), lineNumber,
+                                                  line ) );
+                inBadBox = true;
+                return;
+            }
+            int warningIndex = line.indexOf( " Warning: " );
+            if ( warningIndex > 0 && isWarningSource( line ) )
+            {
+                String source = line.substring( line.lastIndexOf( ' ', warningIndex - 1 ) + 1, warningIndex );
+                pendingWarning = new Message( LogDiagnostic.SEVERITY_WARNING, getCurrentFile(), line );
+                continuationPrefix = "(" + source + ")";
+                parseParentheses( line );
+                return;
+            }
+            if ( line.indexOf( ": " ) > 0 && fileLineErrorMatcher.reset( line ).matches() )
+            {
+                addError( line );
+                pendingError = new Message( LogDiagnostic.SEVERITY_ERROR, normalize( fileLineErrorMatcher.group( 1 ) ),
+                                            fileLineErrorMatcher.group( 3 ) );
+                pendingError.line = Integer.parseInt( fileLineErrorMatcher.group( 2 ) );
+                return;
+            }
+            parseParentheses( line );
+        }
+
+        /**
+         * Looks for the line number of the pending error.
+         *
+         * @return true if the line belongs to the context of the pending error
+         */
+        private boolean parseErrorContext( String line )
+        {
+            if ( line.startsWith( "l." ) )
+            {
+                int lineNumber = parseNumberAfter( line, "l." );
+                if ( lineNumber > 0 )
+                {
+                    if ( pendingError.line == 0 )
+                    {
+                        pendingError.line = lineNumber;
+                    }
+                    addDiagnostic( pendingError.toDiagnostic() );
+                    pendingError = null;
+                    // the rest of the source line follows indented on the next line
+                    skipErrorContinuation = true;
+                    return true;
+                }
+            }
+            if ( line.length() > 0 && line.charAt( 0 ) == '!' || ++errorContextLines > MAX_ERROR_CONTEXT )
+            {
+                addDiagnostic( pendingError.toDiagnostic() );
+                pendingError = null;
+                return false;
+            }
+            return true;
+        }
+
+        /**
+         * @return true if the given line of the context of an error shows TeX source, which is not searched for files
+         */
+        private static boolean isSourceContext( String line )
+        {
+            return line.startsWith( "l." ) || line.startsWith( "<" ) || line.startsWith( " " );
+        }
+
+        private void parseParentheses( String line )
+        {
+            int length = line.length();
+            for ( int i = 0; i < length; i++ )
+            {
+                char c = line.charAt( i );
+                if ( c == '(' )
+                {
+                    int end = i + 1;
+                    boolean file = false;
+                    while ( end < length && !isFileNameEnd( line.charAt( end ) ) )
+                    {
+                        char n = line.charAt( end );
+                        file |= n == '.' || n == '/' || n == '\\';
+                        end++;
+                    }
+                    fileStack.add( file ? line.substring( i + 1, end ) : null );
+                    i = end - 1;
+                }
+                else if ( c == ')' && !fileStack.isEmpty() )
+                {
+                    fileStack.remove( fileStack.size() - 1 );
+                }
+            }
+        }
+
+        private static boolean isFileNameEnd( char c )
+        {
+            return c == ' ' || c == '(' || c == ')' || c == '[' || c == '{' || c == '<' || c == '"';
+        }
+
+        /**
+         * @return true if the given line may start a new message, so it does not continue a line of exactly
+         *         max_print_line characters
+         */
+        static boolean startsMessage( String line )
+        {
+            if ( line.length() == 0 )
+            {
+                return true;
+            }
+            char first = line.charAt( 0 );
+            if ( first == '!' )
+            {
+                return true;
+            }
+            if ( line.startsWith( "l." ) && parseNumberAfter( line, "l." ) > 0 )
+            {
+                return true;
+            }
+            if ( line.startsWith( "Overfull \\" ) || line.startsWith( "Underfull \\" ) )
+            {
+                return true;
+            }
+            if ( isWarningSource( line ) && line.indexOf( " Warning: " ) > 0 )
+            {
+                return true;
+            }
+            return line.indexOf( ": " ) > 0 && FILE_LINE_ERROR.matcher( line ).matches();
+        }
+
+        private static boolean isWarningSource( String line )
+        {
+            return line.startsWith( "LaTeX" ) || line.startsWith( "Package " ) || line.startsWith( "Class " );
+        }
+
+        private String getCurrentFile()
+        {
+            for ( int i = fileStack.size() - 1; i >= 0; i-- )
+            {
+                String file = (String) fileStack.get( i );
+                if ( file != null )
+                {
+                    return normalize( file );
+                }
+            }
+            return null;
+        }
+
+        private static String normalize( String file )
+        {
+            return file.startsWith( "./" ) ? file.substring( 2 ) : file;
+        }
+
+        private void addError( String line )
+        {
+            if ( errors.size() < MAX_ERRORS )
+            {
+                errors.add( line );
+            }
+            errorContextLines = 0;
+        }
+
+        private void addWarning()
+        {
+            pendingWarning.line = parseNumberAfter( pendingWarning.text.toString(), " on input line " );
+            addDiagnostic( pendingWarning.toDiagnostic() );
+            pendingWarning = null;
+            continuationPrefix = null;
+        }
+
+        private void addDiagnostic( LogDiagnostic diagnostic )
+        {
+            if ( diagnostics.size() < MAX_DIAGNOSTICS )
+            {
+                diagnostics.add( diagnostic );
+            }
+        }
+
+        LogAnalysis finish()
+        {
+            if ( pendingError != null )
+            {
+                addDiagnostic( pendingError.toDiagnostic() );
+                pendingError = null;
+            }
+            if ( pendingWarning != null )
+            {
+                addWarning();
+            }
+            return new LogAnalysis( anotherLatexRunNeeded, bibtexRunNeeded, errors, diagnostics, matchedPatterns );
+        }
+
+        /**
+         * @return the number following the given marker in the given text, or 0 if there is none
+         */
+        private static int parseNumberAfter( String text, String marker )
+        {
+            int index = text.indexOf( marker );
+            if ( index < 0 )
+            {
+                return 0;
+            }
+            int number = 0;
+            for ( int i = index + marker.length(); i < text.length() && number < Integer.MAX_VALUE / 10; i++ )
+            {
+                char c = text.charAt( i );
+                if ( c < '0' || c > '9' )
+                {
+                    break;
+                }
+                number = number * 10 + ( c - '0' );
+            }
+            return number;
+        }
+    }
+
+    /**
+     * A diagnostic whose text or line number is still being read.
+     */
+    private static class Message
+    {
+        private final String severity;
+
+        private final String file;
+
+        private final StringBuffer text;
+
+        private int line;
+
+        Message( String severity, String file, String text )
+        {
+            this.severity = severity;
+            this.file = file;
+            this.text = new StringBuffer( text );
+        }
+
+        void append( String continuation )
+        {
+            text.append( ' ' ).append( continuation );
+        }
+
+        LogDiagnostic toDiagnostic()
+        {
+            return new LogDiagnostic( severity, file, line, text.toString() );
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * The akquinet maven-latex-plugin project
+ *
+ * Copyright (c) 2011 by akquinet tech@spree GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.m2latex.mojo;
+
+/**
+ * An error, warning or bad box reported in the log file of a LaTeX run.
+ */
+public class LogDiagnostic
+{
+    public static final String SEVERITY_ERROR = "error";
+
+    public static final String SEVERITY_WARNING = "warning";
+
+    public static final String SEVERITY_BAD_BOX = "badbox";
+
+    private final String severity;
+
+    private final String file;
+
+    private final int line;
+
+    private final String message;
+
+    /**
+     * @param file the input file the diagnostic refers to as written in the log, or null if unknown
+     * @param line the line in the input file, or 0 if unknown
+     */
+    public LogDiagnostic( String severity, String file, int line, String message )
+    {
+        this.severity = severity;
+        this.file = file;
+        this.line = line;
+        this.message = message;
+    }
+
+    public String getSeverity()
+    {
+        return severity;
+    }
+
+    public boolean isError()
+    {
+        return SEVERITY_ERROR.equals( severity );
+    }
+
+    public String getFile()
+    {
+        return file;
+    }
+
+    public int getLine()
+    {
+        return line;
+    }
+
+    public String getMessage()
+    {
+        return message;
+    }
+
+    /**
+     * @return the location of the diagnostic in the form <code>file:line</code> as far as it is known, or null
+     */
+    public String getLocation()
+    {
+        if ( file == null )
+        {
+            return line > 0 ? "line " + line : null;
+        }
+        return line > 0 ? file + ":" + line : file;
+    }
+
+    public String toString()
+    {
+        String location = getLocation();
+        return ( location == null ? "" : location + ": " ) + severity + ": " + message;
+    }
+}
@@ -0,0 +1,436 @@
+/*
+ * The akquinet maven-latex-plugin project
+ *
+ * Copyright (c) 2011 by akquinet tech@spree GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.m2latex.mojo;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.filefilter.FileFilterUtils;
+import org.apache.commons.io.filefilter.TrueFileFilter;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Finds the LaTeX main documents, i.e. the files containing <code>\begin{document}</code> outside of comments. Each
+ * file is only read up to the end of its preamble, files are checked in parallel and the results may be cached
+ * between builds, keyed by path, size and modification time.
+ */
+public class MainDocumentDetector
+{
+    private static final List SECTIONING_COMMANDS = Arrays.asList( new String[] {
+        "chapter",
+        "part",
+        "section",
+        "subsection" } );
+
+    /**
+     * The environments which may appear before <code>\documentclass</code>.
+     */
+    private static final List PREAMBLE_ENVIRONMENTS = Arrays.asList( new String[] {
+        "filecontents",
+        "filecontents*" } );
+
+    private static final int MAX_NAME_LENGTH = 32;
+
+    private final Log log;
+
+    private final File cacheFile;
+
+    private final int threads;
+
+    /**
+     * @param cacheFile the file to cache the results in, or null for no caching
+     * @param threads the number of files to check in parallel
+     */
+    public MainDocumentDetector( Log log, File cacheFile, int threads )
+    {
+        this.log = log;
+        this.cacheFile = cacheFile;
+        this.threads = threads;
+    }
+
+    /**
+     * @return A List of java.io.File objects denoting the LaTeX main documents below the given directory.
+     */
+    public List findMainDocuments( File directory )
+        throws MojoExecutionException
+    {
+        Collection texFiles = FileUtils.listFiles( directory, FileFilterUtils.suffixFileFilter( ".tex" ),
+                                                   TrueFileFilter.INSTANCE );
+        File[] files = (File[]) texFiles.toArray( new File[texFiles.size()] );
+        Properties cache = loadCache();
+
+        boolean[] isMainFile = new boolean[files.length];
+        List unknown = new ArrayList();
+        for ( int i = 0; i < files.length; i++ )
+        {
+            String cached = cache.getProperty( files[i].getAbsolutePath() );
+            if ( cached != null && cached.startsWith( getStamp( files[i] ) + ":" ) )
+            {
+                isMainFile[i] = cached.endsWith( ":true" );
+            }
+            else
+            {
+                unknown.add( Integer.valueOf( i ) );
+            }
+        }
+
+        checkFiles( files, unknown, isMainFile );
+
+        List mainFiles = new ArrayList();
+        Properties newCache = new Properties();
+        for ( int i = 0; i < files.length; i++ )
+        {
+            if ( isMainFile[i] )
+            {
+                mainFiles.add( files[i] );
+            }
+            newCache.setProperty( files[i].getAbsolutePath(), getStamp( files[i] ) + ":" + isMainFile[i] );
+        }
+        log.debug( "Checked " + unknown.size() + " of " + files.length + " TeX files, found " + mainFiles.size()
+            + " main documents" );
+        saveCache( newCache );
+        return mainFiles;
+    }
+
+    /**
+     * Reads the given file until <code>\begin{document}</code> is found, or until a sectioning command shows that the
+     * file is not a main document, as a main document has no sectioning commands before its document class.
+     */
+    public boolean isMainDocument( File file )
+        throws MojoExecutionException
+    {
+        InputStream in = null;
+        try
+        {
+            in = new FileInputStream( file );
+            return new PreambleScanner( in ).containsBeginDocument();
+        }
+        catch ( FileNotFoundException e )
+        {
+            throw new MojoExecutionException( "The TeX file '" + file.getPath()
+                + "' was removed while running this goal", e );
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "Problems reading the file '" + file.getPath()
+                + "' while checking if it is a TeX main file", e );
+        }
+        finally
+        {
+            IOUtils.closeQuietly( in );
+        }
+    }
+
+    private void checkFiles( final File[] files, List indices, boolean[] isMainFile )
+        throws MojoExecutionException
+    {
+        if ( threads <= 1 || indices.size() <= 1 )
+        {
+            for ( Iterator iterator = indices.iterator(); iterator.hasNext(); )
+            {
+                int i = ( (Integer) iterator.next() ).intValue();
+                isMainFile[i] = isMainDocument( files[i] );
+            }
+            return;
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool( Math.min( threads, indices.size() ) );
+        try
+        {
+            List futures = new ArrayList();
+            for ( Iterator iterator = indices.iterator(); iterator.hasNext(); )
+            {
+                final File file = files[( (Integer) iterator.next() ).intValue()];
+                futures.add( pool.submit( new Callable()
+                {
+                    public Object call()
+                        throws MojoExecutionException
+                    {
+                        return Boolean.valueOf( isMainDocument( file ) );
+                    }
+                } ) );
+            }
+            for ( int j = 0; j < futures.size(); j++ )
+            {
+                int i = ( (Integer) indices.get( j ) ).intValue();
+                isMainFile[i] = ( (Boolean) ( (Future) futures.get( j ) ).get() ).booleanValue();
+            }
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException( "Interrupted while searching LaTeX main documents", e );
+        }
+        catch ( ExecutionException e )
+        {
+            if ( e.getCause() instanceof MojoExecutionException )
+            {
+                throw (MojoExecutionException) e.getCause();
+            }
+            throw new MojoExecutionException( "Error searching LaTeX main documents", e );
+        }
+        finally
+        {
+            pool.shutdownNow();
+        }
+    }
+
+    private String getStamp( File file )
+    {
+        return file.length() + ":" + file.lastModified();
+    }
+
+    private Properties loadCache()
+    {
+        Properties cache = new Properties();
+        if ( cacheFile == null || !cacheFile.exists() )
+        {
+            return cache;
+        }
+        InputStream in = null;
+        try
+        {
+            in = new FileInputStream( cacheFile );
+            cache.load( in );
+        }
+        catch ( IOException e )
+        {
+            log.debug( "Cannot read the main document cache '" + cacheFile.getPath() + "'", e );
+            cache.clear();
+        }
+        finally
+        {
+            IOUtils.closeQuietly( in );
+        }
+        return cache;
+    }
+
+    private void saveCache( Properties cache )
+    {
+        if ( cacheFile == null )
+        {
+            return;
+        }
+        cacheFile.getParentFile().mkdirs();
+        OutputStream out = null;
+        try
+        {
+            out = new FileOutputStream( cacheFile );
+            cache.store( out, "maven-latex-plugin main documents" );
+        }
+        catch ( IOException e )
+        {
+            log.warn( "Cannot write the main document cache '" + cacheFile.getPath() + "'", e );
+        }
+        finally
+        {
+            IOUtils.closeQuietly( out );
+        }
+    }
+
+    /**
+     * Scans the bytes of a TeX file for control sequences, skipping comments.
+     */
+    private static class PreambleScanner
+    {
+        private final InputStream in;
+
+        private final byte[] buffer = new byte[8192];
+
+        private int position;
+
+        private int length;
+
+        private boolean documentClassSeen;
+
+        PreambleScanner( InputStream in )
+        {
+            this.in = in;
+        }
+
+        /**
+         * @return true if the file contains <code>\begin{document}</code>. Before <code>\documentclass</code>,
+         *         reading stops at the first content which cannot be part of a preamble: another environment, a
+         *         sectioning command or a line of text.
+         */
+        boolean containsBeginDocument()
+            throws IOException
+        {
+            int depth = 0;
+            boolean lineStart = true;
+            for ( int c = read(); c != -1; c = read() )
+            {
+                if ( c == '%' )
+                {
+                    skipComment();
+                    lineStart = true;
+                    continue;
+                }
+                if ( c == '\\' )
+                {
+                    String name = readCommandName();
+                    if ( "begin".equals( name ) )
+                    {
+                        String environment = readArgument();
+                        if ( "document".equals( environment ) )
+                        {
+                            return true;
+                        }
+                        if ( !documentClassSeen && !PREAMBLE_ENVIRONMENTS.contains( environment ) )
+                        {
+                            return false;
+                        }
+                    }
+                    else if ( "documentclass".equals( name ) || "documentstyle".equals( name ) )
+                    {
+                        documentClassSeen = true;
+                    }
+                    else if ( !documentClassSeen && SECTIONING_COMMANDS.contains( name ) )
+                    {
+                        return false;
+                    }
+                }
+                else if ( c == '{' || c == '[' )
+                {
+                    depth++;
+                }
+                else if ( c == '}' || c == ']' )
+                {
+                    depth = Math.max( 0, depth - 1 );
+                }
+                else if ( lineStart && depth == 0 && !documentClassSeen && isLetter( c ) )
+                {
+                    return false;
+                }
+                lineStart = c == '\n' || c == '\r' || ( lineStart && ( c == ' ' || c == '\t' ) );
+            }
+            return false;
+        }
+
+        /**
+         * @return the name of a control word, an empty string for a control symbol like <code>\%</code>
+         */
+        private String readCommandName()
+            throws IOException
+        {
+            StringBuffer name = new StringBuffer();
+            int c = read();
+            while ( isLetter( c ) && name.length() < MAX_NAME_LENGTH )
+            {
+                name.append( (char) c );
+                c = read();
+            }
+            if ( name.length() > 0 )
+            {
+                unread();
+            }
+            return name.toString();
+        }
+
+        /**
+         * @return the content of the braced argument following the current position, or null if there is none
+         */
+        private String readArgument()
+            throws IOException
+        {
+            int c = read();
+            while ( c == ' ' || c == '\t' || c == '\r' || c == '\n' )
+            {
+                c = read();
+            }
+            if ( c != '{' )
+            {
+                unread();
+                return null;
+            }
+            StringBuffer argument = new StringBuffer();
+            for ( c = read(); c != -1 && c != '}' && argument.length() < MAX_NAME_LENGTH; c = read() )
+            {
+                if ( c != ' ' )
+                {
+                    argument.append( (char) c );
+                }
+            }
+            return argument.toString();
+        }
+
+        private void skipComment()
+            throws IOException
+        {
+            for ( int c = read(); c != -1; c = read() )
+            {
+                if ( c == '\n' || c == '\r' )
+                {
+                    return;
+                }
+            }
+        }
+
+        private boolean isLetter( int c )
+        {
+            return ( c >= 'a' && c <= 'z' ) || ( c >= 'A' && c <= 'Z' );
+        }
+
+        private int read()
+            throws IOException
+        {
+            if ( position == length )
+            {
+                length = in.read( buffer );
+                position = 0;
+                if ( length <= 0 )
+                {
+                    length = 0;
+                    return -1;
+                }
+            }
+            return buffer[position++] & 0xff;
+        }
+
+        /**
+         * Steps back one character. Only valid directly after a successful {@link #read()}.
+         */
+        private void unread()
+        {
+            if ( position > 0 )
+            {
+                position--;
+            }
+        }
+    }
+}
@@ -0,0 +1,298 @@
+/*
+ * The akquinet maven-latex-plugin project
+ *
+ * Copyright (c) 2011 by akquinet tech@spree GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.m2latex.mojo;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.util.cli.CommandLineException;
+
+/**
+ * Build several outputs, e.g. PDF and single and multi page HTML, from one staging and LaTeX processing of the LaTeX
+ * sources. The sources are staged once and each document is processed with the texCommand (and BibTeX) once. The HTML
+ * outputs are produced in parallel, each in its own working directory holding only a copy of the auxiliary files and
+ * the bibliography of that processing. They read the sources from the staged directory and always use the
+ * <code>direct</code> tex4htPipeline: the LaTeX runs with tex4ht start from the copied auxiliary files and are only
+ * repeated until these no longer change, followed by tex4ht and t4ht.
+ * 
+ * @goal multi
+ * @phase site
+ */
+public class MultiOutputMojo
+    extends AbstractLatexMojo
+{
+    /**
+     * The directory in the temporary directory holding the working directories of the HTML outputs.
+     */
+    static final String VARIANTS_DIR = "m2latex_variants";
+
+    private OutputTarget[] targets;
+
+    public void execute()
+        throws MojoExecutionException, MojoFailureException
+    {
+        initialize();
+        targets = getOutputTargets();
+
+        File texDirectory = settings.getTexDirectory();
+
+        if ( !texDirectory.exists() )
+        {
+            log.info( "No tex directory - skipping LaTeX processing" );
+            return;
+        }
+
+        try
+        {
+            List latexMainFiles = findLatexMainDocuments();
+            List outdatedFiles = restoreCachedOutputs( getOutdatedDocuments( latexMainFiles ) );
+            if ( outdatedFiles.isEmpty() )
+            {
+                log.info( "All LaTeX documents are up to date - skipping LaTeX processing" );
+                return;
+            }
+            stageSources();
+            for ( int i = 0; i < targets.length; i++ )
+            {
+                if ( targets[i].isHtml() )
+                {
+                    createVariantDirectory( i );
+                }
+            }
+            processDocuments( outdatedFiles );
+        }
+        finally
+        {
+            if ( settings.isCleanUp() )
+            {
+                cleanUp();
+            }
+            reportMetrics();
+        }
+    }
+
+    private OutputTarget[] getOutputTargets()
+        throws MojoExecutionException
+    {
+        OutputTarget[] outputTargets = settings.getOutputTargets();
+        if ( outputTargets.length == 0 )
+        {
+            return new OutputTarget[] { new OutputTarget() };
+        }
+        for ( int i = 0; i < outputTargets.length; i++ )
+        {
+            String format = outputTargets[i].getFormat();
+            if ( !OutputTarget.FORMAT_PDF.equals( format ) && !OutputTarget.FORMAT_HTML.equals( format ) )
+            {
+                throw new MojoExecutionException( "Unknown format '" + format + "' of output target " + i
+                    + ", expected '" + OutputTarget.FORMAT_PDF + "' or '" + OutputTarget.FORMAT_HTML + "'" );
+            }
+        }
+        return outputTargets;
+    }
+
+    /**
+     * @return the working directory of the output target with the given index
+     */
+    private File getVariantDirectory( int index )
+    {
+        return new File( new File( settings.getTempDirectory(), VARIANTS_DIR ), String.valueOf( index ) );
+    }
+
+    /**
+     * Creates the directories of the tex directory in the working directory of the output target with the given
+     * index, as TeX writes the auxiliary files of included files there, but does not create directories.
+     */
+    private void createVariantDirectory( int index )
+        throws MojoExecutionException
+    {
+        BuildMetrics.Timing timing = metrics.start( null, BuildMetrics.STAGE_STAGING );
+        try
+        {
+            new SourceStager( log ).mirrorDirectories( settings.getTexDirectory(), getVariantDirectory( index ) );
+        }
+        finally
+        {
+            timing.stop();
+        }
+    }
+
+    /**
+     * The outputs of several targets cannot be restored from a single cache entry.
+     */
+    protected OutputStore createOutputStore()
+    {
+        if ( settings.getOutputCacheDirectory() != null )
+        {
+            log.warn( "The multi goal does not support the outputCacheDirectory, documents are not cached" );
+        }
+        return null;
+    }
+
+    protected void processDocument( File texFile, LatexProcessor processor, TexFileUtils texFileUtils,
+                                    Log documentLog )
+        throws CommandLineException, MojoExecutionException, MojoFailureException
+    {
+        processor.processLatex( texFile );
+
+        List variantFiles = new ArrayList();
+        final Map variantTargets = new HashMap();
+        for ( int i = 0; i < targets.length; i++ )
+        {
+            if ( targets[i].isHtml() )
+            {
+                File variantFile = prepareVariant( texFile, i, texFileUtils );
+                variantFiles.add( variantFile );
+                variantTargets.put( variantFile, Integer.valueOf( i ) );
+                continue;
+            }
+            BuildMetrics.Timing timing = metrics.start( texFile, BuildMetrics.STAGE_PUBLISHING );
+            try
+            {
+                texFileUtils.copyLatexOutputToOutputFolder( texFile, settings.getTempDirectory(),
+                                                            targets[i].getOutputDirectory( settings ) );
+            }
+            finally
+            {
+                timing.stop();
+            }
+        }
+
+        DocumentScheduler scheduler = new DocumentScheduler( settings.getThreads(), documentLog );
+        scheduler.processAll( variantFiles, new DocumentScheduler.DocumentTask()
+        {
+            public void process( File variantFile, Log variantLog )
+                throws CommandLineException, MojoExecutionException, MojoFailureException
+            {
+                processHtmlTarget( variantFile, ( (Integer) variantTargets.get( variantFile ) ).intValue(),
+                                   variantLog );
+            }
+        } );
+    }
+
+    /**
+     * Copies the auxiliary files and the bibliography the LaTeX runs wrote for the given document to the working
+     * directory of an HTML output target.
+     * 
+     * @return the document in the working directory of the target
+     */
+    private File prepareVariant( File texFile, int index, TexFileUtils texFileUtils )
+        throws MojoExecutionException
+    {
+        File variantDirectory = getVariantDirectory( index );
+        File tempDirectory = settings.getTempDirectory();
+        for ( Iterator iterator = texFileUtils.getAuxiliaryFiles( texFile ).iterator(); iterator.hasNext(); )
+        {
+            File file = (File) iterator.next();
+            File target = new File( variantDirectory, texFileUtils.getRelativePath( file, tempDirectory ) );
+            try
+            {
+                FileUtils.copyFile( file, target );
+            }
+            catch ( IOException e )
+            {
+                throw new MojoExecutionException( "Error copying " + file + " to " + target, e );
+            }
+        }
+        return new File( variantDirectory, texFileUtils.getRelativePath( texFile, tempDirectory ) );
+    }
+
+    private void processHtmlTarget( File variantFile, int index, Log variantLog )
+        throws CommandLineException, MojoExecutionException, MojoFailureException
+    {
+        OutputTarget target = targets[index];
+        File variantDirectory = getVariantDirectory( index );
+        TexFileUtils variantFileUtils = createFileUtils( variantLog );
+        String relativePath = variantFileUtils.getRelativePath( variantFile, variantDirectory );
+        File sourceFile = new File( settings.getTexDirectory(), relativePath );
+        File sourceDirectory = isCompilingInPlace()
+            ? sourceFile.getParentFile()
+            : new File( settings.getTempDirectory(), relativePath ).getParentFile();
+        Settings variantSettings =
+            target.applyTo( settings.copy().setTex4htPipeline( LatexProcessor.TEX4HT_PIPELINE_DIRECT ) );
+        LatexProcessor processor = createLatexProcessor( variantSettings, sourceFile, sourceDirectory,
+                                                         "target" + index, variantFileUtils, variantLog );
+        processor.processTex4htAfterLatex( variantFile );
+
+        BuildMetrics.Timing timing = metrics.start( variantFile, BuildMetrics.STAGE_PUBLISHING );
+        try
+        {
+            variantFileUtils.copyTex4htOutputToOutputFolder( variantFile, variantDirectory,
+                                                             variantFileUtils.getTex4htOutputDir( variantFile ),
+                                                             target.getOutputDirectory( settings ) );
+        }
+        finally
+        {
+            timing.stop();
+        }
+    }
+
+    protected File[] getOutputFiles( File texFile, TexFileUtils texFileUtils )
+    {
+        return texFileUtils.getLatexOutputFiles( texFile );
+    }
+
+    protected String getGoal()
+    {
+        return "multi";
+    }
+
+    protected boolean hasOutput( File texFile )
+        throws MojoExecutionException, MojoFailureException
+    {
+        for ( int i = 0; i < targets.length; i++ )
+        {
+            File outputDirectory = targets[i].getOutputDirectory( settings );
+            boolean hasOutput = targets[i].isHtml()
+                ? fileUtils.hasTex4htOutput( texFile, settings.getTexDirectory(), outputDirectory )
+                : fileUtils.hasLatexOutput( texFile, settings.getTexDirectory(), outputDirectory );
+            if ( !hasOutput )
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The TeX4ht configuration next to the document is a source of the HTML outputs.
+     */
+    protected Set getScannedSourceFiles( File texFile )
+        throws MojoExecutionException
+    {
+        Set files = super.getScannedSourceFiles( texFile );
+        File configFile = new File( texFile.getParentFile(), "tex4ht.cfg" );
+        if ( configFile.exists() )
+        {
+            files.add( configFile );
+        }
+        return files;
+    }
+}
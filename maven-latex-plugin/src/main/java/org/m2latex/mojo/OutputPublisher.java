@@ -0,0 +1,184 @@
+/*
+ * The akquinet maven-latex-plugin project
+ *
+ * Copyright (c) 2011 by akquinet tech@spree GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.m2latex.mojo;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Copies output files to the output directory. Files are copied in parallel with NIO, together with their
+ * modification time, and a file whose content already matches the target is not copied at all, so unchanged output
+ * keeps its modification time and is not deployed again.
+ */
+public class OutputPublisher
+{
+    private final Log log;
+
+    private final int threads;
+
+    /**
+     * @param threads the number of files to copy in parallel
+     */
+    public OutputPublisher( Log log, int threads )
+    {
+        this.log = log;
+        this.threads = threads;
+    }
+
+    /**
+     * Copies the given files and directories into the given target directory.
+     */
+    public void publish( File[] files, File targetDirectory )
+        throws MojoExecutionException
+    {
+        List sources = new ArrayList();
+        List targets = new ArrayList();
+        collect( files, targetDirectory, sources, targets );
+
+        int copied = 0;
+        if ( threads <= 1 || sources.size() <= 1 )
+        {
+            for ( int i = 0; i < sources.size(); i++ )
+            {
+                if ( publishFile( (File) sources.get( i ), (File) targets.get( i ) ) )
+                {
+                    copied++;
+                }
+            }
+        }
+        else
+        {
+            copied = publishInParallel( sources, targets );
+        }
+        log.info( "Published " + copied + " files to " + targetDirectory + ", " + ( sources.size() - copied )
+            + " unchanged" );
+    }
+
+    private void collect( File[] files, File targetDirectory, List sources, List targets )
+    {
+        for ( int i = 0; i < files.length; i++ )
+        {
+            File target = new File( targetDirectory, files[i].getName() );
+            if ( files[i].isDirectory() )
+            {
+                File[] children = files[i].listFiles();
+                if ( children != null )
+                {
+                    collect( children, target, sources, targets );
+                }
+            }
+            else
+            {
+                sources.add( files[i] );
+                targets.add( target );
+            }
+        }
+    }
+
+    private int publishInParallel( List sources, List targets )
+        throws MojoExecutionException
+    {
+        ExecutorService pool = Executors.newFixedThreadPool( Math.min( threads, sources.size() ) );
+        try
+        {
+            List futures = new ArrayList();
+            for ( int i = 0; i < sources.size(); i++ )
+            {
+                final File source = (File) sources.get( i );
+                final File target = (File) targets.get( i );
+                futures.add( pool.submit( new Callable()
+                {
+                    public Object call()
+                        throws MojoExecutionException
+                    {
+                        return Boolean.valueOf( publishFile( source, target ) );
+                    }
+                } ) );
+            }
+            int copied = 0;
+            for ( Iterator iterator = futures.iterator(); iterator.hasNext(); )
+            {
+                if ( ( (Boolean) ( (Future) iterator.next() ).get() ).booleanValue() )
+                {
+                    copied++;
+                }
+            }
+            return copied;
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException( "Interrupted while publishing output files", e );
+        }
+        catch ( ExecutionException e )
+        {
+            if ( e.getCause() instanceof MojoExecutionException )
+            {
+                throw (MojoExecutionException) e.getCause();
+            }
+            throw new MojoExecutionException( "Error publishing output files", e );
+        }
+        finally
+        {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * @return false if the target already had the content of the source
+     */
+    private boolean publishFile( File source, File target )
+        throws MojoExecutionException
+    {
+        try
+        {
+            if ( target.isFile() && target.length() == source.length() && FileUtils.contentEquals( source, target ) )
+            {
+                log.debug( "Output " + target + " is unchanged" );
+                return false;
+            }
+            log.debug( "Copying " + source + " to " + target );
+            Path targetPath = target.toPath();
+            Files.createDirectories( targetPath.getParent() );
+            Files.copy( source.toPath(), targetPath, StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.COPY_ATTRIBUTES );
+            return true;
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "Error copying file " + source + " to directory "
+                + target.getParentFile(), e );
+        }
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * The akquinet maven-latex-plugin project
+ *
+ * Copyright (c) 2011 by akquinet tech@spree GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.m2latex.mojo;
+
+import java.io.File;
+
+import org.apache.maven.plugin.MojoExecutionException;
+
+/**
+ * Stores the output files of processed LaTeX main documents under a key identifying everything the output depends
+ * on: the sources, the settings and the TeX installation. Implementations may be shared by several modules and builds.
+ */
+public interface OutputStore
+{
+    /**
+     * Copies the output files stored under the given key to the given directory.
+     * 
+     * @return false if nothing is stored under the given key
+     */
+    boolean restore( String key, File targetDirectory )
+        throws MojoExecutionException;
+
+    /**
+     * Stores the given output files under the given key, replacing nothing if the key is already present.
+     */
+    void store( String key, File[] files )
+        throws MojoExecutionException;
+}
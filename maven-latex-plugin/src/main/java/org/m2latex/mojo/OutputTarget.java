@@ -0,0 +1,132 @@
+/*
+ * The akquinet maven-latex-plugin project
+ *
+ * Copyright (c) 2011 by akquinet tech@spree GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.m2latex.mojo;
+
+import java.io.File;
+import java.util.Arrays;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * One of the outputs the <code>multi</code> goal produces from a single staging and LaTeX processing of the
+ * documents.
+ */
+public class OutputTarget
+{
+    static final String FORMAT_PDF = "pdf";
+
+    static final String FORMAT_HTML = "html";
+
+    /**
+     * <code>pdf</code> for the output of the texCommand (pdf, dvi or ps), <code>html</code> for the output of
+     * tex4ht.
+     *
+     * @parameter
+     */
+    private String format = FORMAT_PDF;
+
+    /**
+     * The directory to write the output to, relative to the site directory. The outputDirectory of the settings if
+     * not set.
+     *
+     * @parameter
+     */
+    private String outputDirectory = null;
+
+    /**
+     * The tex4htCommandArgs for an html output, those of the settings if not set.
+     *
+     * @parameter
+     */
+    private String[] tex4htCommandArgs = null;
+
+    public String getFormat()
+    {
+        return format;
+    }
+
+    public boolean isHtml()
+    {
+        return FORMAT_HTML.equals( format );
+    }
+
+    public String getOutputDirectory()
+    {
+        return outputDirectory;
+    }
+
+    /**
+     * @return the directory to write the output to
+     */
+    public File getOutputDirectory( Settings settings )
+    {
+        if ( StringUtils.isEmpty( outputDirectory ) )
+        {
+            return settings.getOutputDirectory();
+        }
+        return new File( settings.getTargetSiteDirectory(), outputDirectory );
+    }
+
+    public String[] getTex4htCommandArgs()
+    {
+        return tex4htCommandArgs;
+    }
+
+    /**
+     * @return the given settings with the arguments of this target
+     */
+    public Settings applyTo( Settings settings )
+    {
+        if ( tex4htCommandArgs == null )
+        {
+            return settings;
+        }
+        return settings.copy().setTex4htCommandArgs( tex4htCommandArgs );
+    }
+
+    public OutputTarget setFormat( String format )
+    {
+        this.format = format;
+        return this;
+    }
+
+    public OutputTarget setOutputDirectory( String outputDirectory )
+    {
+        this.outputDirectory = outputDirectory;
+        return this;
+    }
+
+    public OutputTarget setTex4htCommandArgs( String[] tex4htCommandArgs )
+    {
+        this.tex4htCommandArgs = tex4htCommandArgs;
+        return this;
+    }
+
+    public String toString()
+    {
+        StringBuffer sb = new StringBuffer( format );
+        sb.append( ':' ).append( outputDirectory );
+        if ( tex4htCommandArgs != null )
+        {
+            sb.append( ':' ).append( Arrays.asList( tex4htCommandArgs ) );
+        }
+        return sb.toString();
+    }
+}
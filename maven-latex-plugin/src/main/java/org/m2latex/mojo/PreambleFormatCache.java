@@ -0,0 +1,286 @@
+/*
+ * The akquinet maven-latex-plugin project
+ *
+ * Copyright (c) 2011 by akquinet tech@spree GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.m2latex.mojo;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.filefilter.FileFilterUtils;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.util.cli.CommandLineException;
+
+/**
+ * Dumps a format file for the preamble of a LaTeX main document using the <code>mylatexformat</code> package, so
+ * subsequent LaTeX runs load the format instead of parsing the preamble again. Formats are kept in a cache directory,
+ * keyed by a digest of the preamble text, the local files it loads, the LaTeX command and its version, and are shared
+ * by all documents with the same preamble.
+ */
+public class PreambleFormatCache
+{
+    private static final String BEGIN_DOCUMENT = "\\begin{document}";
+
+    /**
+     * The message of TeX if it cannot load a format, e.g. one dumped by another version of the engine.
+     */
+    static final String FATAL_FORMAT_ERROR = "Fatal format file error";
+
+    /**
+     * One lock per format, shared by all documents processed in parallel.
+     */
+    private static final Map LOCKS = new HashMap();
+
+    private static final FileFilter LOCAL_PACKAGE_FILTER =
+        FileFilterUtils.orFileFilter( FileFilterUtils.suffixFileFilter( ".sty" ),
+                                      FileFilterUtils.suffixFileFilter( ".cls" ) );
+
+    private final Settings settings;
+
+    private final CommandExecutor executor;
+
+    private final Log log;
+
+    private String toolchainVersion = "unknown";
+
+    public PreambleFormatCache( Settings settings, CommandExecutor executor, Log log )
+    {
+        this.settings = settings;
+        this.executor = executor;
+        this.log = log;
+    }
+
+    /**
+     * @param toolchainVersion the version output of the LaTeX command, part of the keys of the formats, as formats
+     *            can only be loaded by the engine which dumped them
+     */
+    public void setToolchainVersion( String toolchainVersion )
+    {
+        this.toolchainVersion = toolchainVersion;
+    }
+
+    /**
+     * @return the format file for the preamble of the given document without the suffix <code>.fmt</code>, as
+     *         expected by the <code>-fmt</code> option, or null if no format could be dumped
+     */
+    public File getFormat( File texFile )
+        throws CommandLineException, MojoExecutionException
+    {
+        return getFormat( texFile, texFile.getParentFile() );
+    }
+
+    /**
+     * @param sourceDirectory the directory with the sources of the given document, if they are not next to it
+     * @return the format file for the preamble of the given document without the suffix <code>.fmt</code>, as
+     *         expected by the <code>-fmt</code> option, or null if no format could be dumped
+     */
+    public File getFormat( File texFile, File sourceDirectory )
+        throws CommandLineException, MojoExecutionException
+    {
+        File sourceFile = new File( sourceDirectory, texFile.getName() );
+        String key = getPreambleKey( sourceFile );
+        File formatFile = new File( settings.getFormatCacheDirectory(), key + ".fmt" );
+        synchronized ( getLock( key ) )
+        {
+            if ( !formatFile.exists() )
+            {
+                dumpFormat( sourceFile, texFile.getParentFile(), key, formatFile );
+            }
+        }
+        if ( !formatFile.exists() )
+        {
+            return null;
+        }
+        return new File( settings.getFormatCacheDirectory(), key );
+    }
+
+    /**
+     * Deletes the given format, e.g. after the LaTeX command failed to load it, so it is dumped again.
+     * 
+     * @param format a format returned by {@link #getFormat(File, File)}
+     */
+    public void discard( File format )
+    {
+        synchronized ( getLock( format.getName() ) )
+        {
+            new File( format.getPath() + ".fmt" ).delete();
+        }
+    }
+
+    /**
+     * @param format a format returned by {@link #getFormat(File, File)}
+     * @return false if the format has been discarded
+     */
+    public boolean exists( File format )
+    {
+        return new File( format.getPath() + ".fmt" ).exists();
+    }
+
+    /**
+     * @return a digest over the preamble of the given document, the LaTeX command and its version, the local files the
+     *         preamble inputs or includes and the local style and class files next to the document, which the
+     *         preamble may load
+     */
+    String getPreambleKey( File texFile )
+        throws MojoExecutionException
+    {
+        MessageDigest digest = FileDigests.newMessageDigest();
+        BufferedReader reader = null;
+        try
+        {
+            update( digest, settings.getTexPath() + "|" + settings.getTexCommand() + "\n" );
+            update( digest, toolchainVersion + "\n" );
+            reader = new BufferedReader( new FileReader( texFile ) );
+            for ( String line = reader.readLine(); line != null; line = reader.readLine() )
+            {
+                int index = line.indexOf( BEGIN_DOCUMENT );
+                if ( index >= 0 && line.lastIndexOf( '%', index ) < 0 )
+                {
+                    update( digest, line.substring( 0, index ) );
+                    break;
+                }
+                update( digest, line + "\n" );
+            }
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "Error reading the preamble of " + texFile.getPath(), e );
+        }
+        finally
+        {
+            IOUtils.closeQuietly( reader );
+        }
+
+        File mainFile;
+        try
+        {
+            // the dependency scanner returns canonical files
+            mainFile = texFile.getCanonicalFile();
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "Error resolving " + texFile.getPath(), e );
+        }
+        String basePath = mainFile.getParent() + File.separator;
+        Set dependencies = new DependencyScanner().scanPreamble( mainFile );
+        dependencies.remove( mainFile );
+        for ( Iterator iterator = dependencies.iterator(); iterator.hasNext(); )
+        {
+            File dependency = (File) iterator.next();
+            String path = dependency.getPath();
+            if ( path.startsWith( basePath ) )
+            {
+                path = path.substring( basePath.length() );
+            }
+            update( digest, path + ":" + FileDigests.computeDigest( dependency ) + "\n" );
+        }
+
+        File[] localFiles = texFile.getParentFile().listFiles( LOCAL_PACKAGE_FILTER );
+        if ( localFiles != null )
+        {
+            Arrays.sort( localFiles );
+            for ( int i = 0; i < localFiles.length; i++ )
+            {
+                update( digest, localFiles[i].getName() + ":" + FileDigests.computeDigest( localFiles[i] ) + "\n" );
+            }
+        }
+        return FileDigests.toHex( digest.digest() );
+    }
+
+    /**
+     * @param texFile the document in the directory with its sources
+     * @param outputDirectory the directory to dump the format in
+     */
+    private void dumpFormat( File texFile, File outputDirectory, String key, File formatFile )
+        throws CommandLineException, MojoExecutionException
+    {
+        log.debug( "Dumping format " + key + " for the preamble of " + texFile.getName() );
+        File workingDir = texFile.getParentFile();
+        List args = new ArrayList();
+        args.add( "-ini" );
+        args.add( "-interaction=nonstopmode" );
+        if ( !outputDirectory.equals( workingDir ) )
+        {
+            args.add( "-output-directory=" + outputDirectory.getAbsolutePath() );
+        }
+        args.add( "-jobname=" + key );
+        args.add( "&" + settings.getTexCommand() );
+        args.add( "mylatexformat.ltx" );
+        args.add( texFile.getName() );
+        executor.execute( workingDir, settings.getTexPath(), settings.getTexCommand(),
+                          (String[]) args.toArray( new String[args.size()] ), settings.getLatexTimeout() );
+
+        File dumpedFile = new File( outputDirectory, key + ".fmt" );
+        if ( !dumpedFile.exists() )
+        {
+            log.warn( "Could not dump a format for the preamble of " + texFile.getName()
+                + " (is the mylatexformat package installed?), processing it without" );
+            return;
+        }
+        try
+        {
+            formatFile.getParentFile().mkdirs();
+            FileUtils.copyFile( dumpedFile, formatFile );
+            dumpedFile.delete();
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "Error copying the format " + dumpedFile + " to " + formatFile, e );
+        }
+    }
+
+    private static void update( MessageDigest digest, String value )
+    {
+        try
+        {
+            digest.update( value.getBytes( "UTF-8" ) );
+        }
+        catch ( UnsupportedEncodingException e )
+        {
+            throw new IllegalStateException( "UTF-8 is not supported by this JVM" );
+        }
+    }
+
+    private static Object getLock( String key )
+    {
+        synchronized ( LOCKS )
+        {
+            Object lock = LOCKS.get( key );
+            if ( lock == null )
+            {
+                lock = new Object();
+                LOCKS.put( key, lock );
+            }
+            return lock;
+        }
+    }
+}
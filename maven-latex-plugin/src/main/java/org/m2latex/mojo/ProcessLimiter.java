@@ -0,0 +1,105 @@
+/*
+ * The akquinet maven-latex-plugin project
+ *
+ * Copyright (c) 2011 by akquinet tech@spree GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.m2latex.mojo;
+
+import java.util.Date;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Semaphore;
+
+import org.codehaus.plexus.util.cli.CommandLineException;
+
+/**
+ * Limits the number of processes running at the same time. Permits are granted in the order they were requested, so
+ * no document or module is starved. A shared limiter is kept for each build, which all modules of a reactor build
+ * use. Builds are told apart by their start time, so a JVM running several builds, e.g. a build daemon or embedded
+ * Maven, does not carry the limit of one build over to the next.
+ */
+public class ProcessLimiter
+{
+    /**
+     * Maps the start times of the builds to their limiters, which are dropped together with the builds.
+     */
+    private static final Map sharedInstances = new WeakHashMap();
+
+    private final int maxProcesses;
+
+    private final Semaphore permits;
+
+    /**
+     * @param maxProcesses the maximum number of processes running at the same time
+     */
+    public ProcessLimiter( int maxProcesses )
+    {
+        this.maxProcesses = maxProcesses;
+        this.permits = new Semaphore( maxProcesses, true );
+    }
+
+    /**
+     * @param buildStartTime the start time of the build, which identifies it, or null if not known
+     * @param maxProcesses the limit to create the limiter of the build with, if it does not exist yet
+     * @return the limiter shared by all modules of the build. Its limit is the one requested first. Without a start
+     *         time a new limiter is returned.
+     */
+    public static synchronized ProcessLimiter getSharedInstance( Date buildStartTime, int maxProcesses )
+    {
+        if ( buildStartTime == null )
+        {
+            return new ProcessLimiter( maxProcesses );
+        }
+        ProcessLimiter sharedInstance = (ProcessLimiter) sharedInstances.get( buildStartTime );
+        if ( sharedInstance == null )
+        {
+            sharedInstance = new ProcessLimiter( maxProcesses );
+            sharedInstances.put( buildStartTime, sharedInstance );
+        }
+        return sharedInstance;
+    }
+
+    public int getMaxProcesses()
+    {
+        return maxProcesses;
+    }
+
+    /**
+     * Waits until the given command may be started.
+     */
+    public void acquire( String executable )
+        throws CommandLineException
+    {
+        try
+        {
+            permits.acquire();
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new CommandLineException( "Interrupted while waiting to start " + executable, e );
+        }
+    }
+
+    /**
+     * Signals that a command started after {@link #acquire(String)} has finished.
+     */
+    public void release()
+    {
+        permits.release();
+    }
+}
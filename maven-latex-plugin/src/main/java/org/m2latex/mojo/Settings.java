@@ -24,6 +24,7 @@ import java.io.File;
 import java.util.Arrays;
 
 public class Settings
+    implements Cloneable
 {
     /**
      * @parameter
@@ -74,6 +75,23 @@ public class Settings
      */
     private String tex4htCommand = "htlatex";
 
+    /**
+     * How to produce html: <code>htlatex</code> processes the document with the texCommand first and then calls the
+     * tex4htCommand, <code>direct</code> skips the htlatex script and the texCommand runs and runs the LaTeX passes
+     * with tex4ht loaded, BibTeX, <code>tex4ht</code> and <code>t4ht</code> itself, rerunning LaTeX only until the
+     * auxiliary files do not change anymore. The HTML outputs of the multi goal always use <code>direct</code>.
+     *
+     * @parameter
+     */
+    private String tex4htPipeline = LatexProcessor.TEX4HT_PIPELINE_HTLATEX;
+
+    /**
+     * The LaTeX command the <code>direct</code> tex4htPipeline runs with tex4ht loaded, it must write a dvi file.
+     *
+     * @parameter
+     */
+    private String tex4htLatexCommand = "latex";
+
     /**
      * @parameter
      */
@@ -84,6 +102,43 @@ public class Settings
      */
     private boolean cleanUp = true;
 
+    /**
+     * How to bring the tex directory to the temporary directory: <code>copy</code> deletes the temporary directory
+     * and copies everything, <code>sync</code> only copies changed files and keeps the files generated by the last
+     * build (use together with <code>cleanUp=false</code>), <code>inplace</code> copies nothing: LaTeX runs in the
+     * tex directory and writes to the temporary directory with <code>-output-directory</code>, the other tools find
+     * the sources through <code>TEXINPUTS</code>, <code>BIBINPUTS</code>, <code>BSTINPUTS</code> and
+     * <code>INDEXSTYLE</code>. In place, bibliography databases must be named relative to the document without
+     * <code>../</code>, and tex4ht requires the <code>direct</code> tex4htPipeline.
+     *
+     * @parameter
+     */
+    private String staging = SourceStager.STAGING_COPY;
+
+    /**
+     * How to stage read-only assets like images: <code>none</code> copies them, <code>hardlink</code> or
+     * <code>symlink</code> link them into the temporary directory. Files the tool chain may write to (tex, cfg, bib)
+     * are always copied. If the file system does not support links, files are copied.
+     *
+     * @parameter
+     */
+    private String assetLinking = SourceStager.LINKING_NONE;
+
+    /**
+     * In <code>sync</code> staging, compare the content of files whose size or modification time changed?
+     *
+     * @parameter
+     */
+    private boolean stagingChecksums = false;
+
+    /**
+     * How to decide whether LaTeX must be rerun: <code>log</code> looks for rerun hints in the log file,
+     * <code>fixpoint</code> reruns until the auxiliary files (aux, toc, lof, ...) do not change anymore.
+     *
+     * @parameter
+     */
+    private String rerunDetection = LatexProcessor.RERUN_DETECTION_LOG;
+
     /**
      * @parameter
      */
@@ -96,10 +151,134 @@ public class Settings
      */
     private String[] tex4htCommandArgs = new String[]{"html,2", "", "", "-interaction=nonstopmode --src-specials"};
 
+    /**
+     * Tools to run between the LaTeX runs, e.g. <code>makeindex</code>, <code>makeglossaries</code> or
+     * <code>biber</code>. Each stage runs when its input file (e.g. the <code>.idx</code> file) has changed or its log
+     * pattern is found; stages triggered by the same LaTeX run are run concurrently.
+     *
+     * @parameter
+     */
+    private AuxiliaryStage[] auxiliaryStages = null;
+
+    /**
+     * The outputs the <code>multi</code> goal produces from one staging and LaTeX processing of each document, by
+     * default the output of the texCommand in the outputDirectory.
+     *
+     * @parameter
+     */
+    private OutputTarget[] outputTargets = null;
+
+    /**
+     * The number of LaTeX main documents processed in parallel. Zero or less means one per available processor.
+     * Documents including the same files via <code>\include</code> are processed one after another.
+     *
+     * @parameter
+     */
+    private int threads = 0;
+
+    /**
+     * The maximum number of LaTeX, BibTeX, tex4ht and auxiliary tool processes running at the same time in the whole
+     * build, shared by all modules of a parallel reactor build (the value of the first module counts, a different
+     * value of another module is warned about). Zero or less means one per available processor.
+     *
+     * @parameter
+     */
+    private int maxProcesses = 0;
+
+    /**
+     * Skip LaTeX main documents whose sources, settings, TeX version and outputs did not change since the last build?
+     *
+     * @parameter
+     */
+    private boolean incremental = false;
+
+    /**
+     * Dump the preamble of each LaTeX main document to a format file with the <code>mylatexformat</code> package and
+     * load it in the LaTeX runs, instead of processing the preamble in every run?
+     *
+     * @parameter
+     */
+    private boolean precompilePreamble = false;
+
+    /**
+     * The directory to keep the precompiled preamble formats in, by default <code>target/m2latex-formats</code>.
+     *
+     * @parameter
+     */
+    private File formatCacheDirectory = null;
+
+    /**
+     * The directory to keep the bibliographies written by BibTeX in, by default
+     * <code>target/m2latex-bibliographies</code>. BibTeX only runs if the citations, bibliography databases or style
+     * of a document differ from those of all cached bibliographies.
+     *
+     * @parameter
+     */
+    private File bibliographyCacheDirectory = null;
+
+    /**
+     * The directory to write the complete output of all commands run for a LaTeX main document to, one transcript
+     * file per document. If not set, only the last lines of each command are kept.
+     *
+     * @parameter
+     */
+    private File transcriptDirectory = null;
+
+    /**
+     * A directory to cache the outputs of LaTeX main documents in, keyed by a digest of their sources, the settings
+     * and the TeX version, e.g. <code>${user.home}/.m2/m2latex-cache</code>. Documents found in the cache are not
+     * processed, their outputs are copied. The directory may be shared by modules and builds. No caching if not set.
+     *
+     * @parameter
+     */
+    private File outputCacheDirectory = null;
+
+    /**
+     * The number of seconds after which a LaTeX run is killed and the build fails, 0 for no limit.
+     *
+     * @parameter
+     */
+    private int latexTimeout = 0;
+
+    /**
+     * The number of seconds after which a BibTeX run is killed and the build fails, 0 for no limit.
+     *
+     * @parameter
+     */
+    private int bibtexTimeout = 0;
+
+    /**
+     * The number of seconds after which a tex4ht run is killed and the build fails, 0 for no limit.
+     *
+     * @parameter
+     */
+    private int tex4htTimeout = 0;
+
+    /**
+     * The number of milliseconds the watch goal waits after a change for further changes before it rebuilds the
+     * affected documents.
+     *
+     * @parameter
+     */
+    private int watchDelay = 500;
+
     private File outputDirectoryFile = null;
 
     private File tempDirectoryFile = null;
 
+    private File fingerprintFile = null;
+
+    private File dependencyFile = null;
+
+    private File durationFile = null;
+
+    private File mainDocumentCacheFile = null;
+
+    public String getAssetLinking()
+    {
+        return assetLinking;
+    }
+
     public File getBaseDirectory()
     {
         return baseDirectory;
@@ -110,6 +289,61 @@ public class Settings
         return bibtexCommand;
     }
 
+    public int getBibtexTimeout()
+    {
+        return bibtexTimeout;
+    }
+
+    public AuxiliaryStage[] getAuxiliaryStages()
+    {
+        return auxiliaryStages == null ? new AuxiliaryStage[0] : auxiliaryStages;
+    }
+
+    public File getBibliographyCacheDirectory()
+    {
+        if ( bibliographyCacheDirectory == null )
+        {
+            bibliographyCacheDirectory = new File( targetDirectory, "m2latex-bibliographies" );
+        }
+        return bibliographyCacheDirectory;
+    }
+
+    public File getFormatCacheDirectory()
+    {
+        if ( formatCacheDirectory == null )
+        {
+            formatCacheDirectory = new File( targetDirectory, "m2latex-formats" );
+        }
+        return formatCacheDirectory;
+    }
+
+    public int getLatexTimeout()
+    {
+        return latexTimeout;
+    }
+
+    public File getMainDocumentCacheFile()
+    {
+        if ( mainDocumentCacheFile == null )
+        {
+            mainDocumentCacheFile = new File( targetDirectory, "m2latex-main-documents.properties" );
+        }
+        return mainDocumentCacheFile;
+    }
+
+    /**
+     * @param goal the goal reporting its metrics, each goal gets its own file
+     */
+    public File getMetricsFile( String goal )
+    {
+        return new File( targetDirectory, "m2latex-metrics-" + goal + ".json" );
+    }
+
+    public File getOutputCacheDirectory()
+    {
+        return outputCacheDirectory;
+    }
+
     public File getOutputDirectory()
     {
         if ( outputDirectoryFile == null )
@@ -146,11 +380,68 @@ public class Settings
         return tempDirectoryFile;
     }
 
+    public File getDependencyFile()
+    {
+        if ( dependencyFile == null )
+        {
+            dependencyFile = new File( targetDirectory, "m2latex-dependencies.properties" );
+        }
+        return dependencyFile;
+    }
+
+    public File getDurationFile()
+    {
+        if ( durationFile == null )
+        {
+            durationFile = new File( targetDirectory, "m2latex-durations.properties" );
+        }
+        return durationFile;
+    }
+
+    public File getFingerprintFile()
+    {
+        if ( fingerprintFile == null )
+        {
+            fingerprintFile = new File( targetDirectory, "m2latex-fingerprints.properties" );
+        }
+        return fingerprintFile;
+    }
+
+    public OutputTarget[] getOutputTargets()
+    {
+        return outputTargets == null ? new OutputTarget[0] : outputTargets;
+    }
+
+    public String getRerunDetection()
+    {
+        return rerunDetection;
+    }
+
+    public String getStaging()
+    {
+        return staging;
+    }
+
     public String getTex4htCommand()
     {
         return tex4htCommand;
     }
 
+    public String getTex4htPipeline()
+    {
+        return tex4htPipeline;
+    }
+
+    public String getTex4htLatexCommand()
+    {
+        return tex4htLatexCommand;
+    }
+
+    public int getTex4htTimeout()
+    {
+        return tex4htTimeout;
+    }
+
     public String[] getTex4htCommandArgs()
     {
         return tex4htCommandArgs;
@@ -180,11 +471,52 @@ public class Settings
         return texPath;
     }
 
+    public int getMaxProcesses()
+    {
+        return maxProcesses > 0 ? maxProcesses : Runtime.getRuntime().availableProcessors();
+    }
+
+    public int getThreads()
+    {
+        return threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+    }
+
+    public File getTranscriptDirectory()
+    {
+        return transcriptDirectory;
+    }
+
+    public int getWatchDelay()
+    {
+        return watchDelay;
+    }
+
     public boolean isCleanUp()
     {
         return cleanUp;
     }
 
+    public boolean isPrecompilePreamble()
+    {
+        return precompilePreamble;
+    }
+
+    public boolean isStagingChecksums()
+    {
+        return stagingChecksums;
+    }
+
+    public boolean isIncremental()
+    {
+        return incremental;
+    }
+
+    public Settings setAssetLinking( String assetLinking )
+    {
+        this.assetLinking = assetLinking;
+        return this;
+    }
+
     public Settings setBaseDirectory( File baseDirectory )
     {
         this.baseDirectory = baseDirectory;
@@ -197,18 +529,72 @@ public class Settings
         return this;
     }
 
+    public Settings setBibtexTimeout( int bibtexTimeout )
+    {
+        this.bibtexTimeout = bibtexTimeout;
+        return this;
+    }
+
     public Settings setCleanUp( boolean cleanUp )
     {
         this.cleanUp = cleanUp;
         return this;
     }
 
+    public Settings setIncremental( boolean incremental )
+    {
+        this.incremental = incremental;
+        return this;
+    }
+
+    public Settings setLatexTimeout( int latexTimeout )
+    {
+        this.latexTimeout = latexTimeout;
+        return this;
+    }
+
+    public Settings setOutputCacheDirectory( File outputCacheDirectory )
+    {
+        this.outputCacheDirectory = outputCacheDirectory;
+        return this;
+    }
+
     public Settings setOutputDirectory( String outputDirectory )
     {
         this.outputDirectory = outputDirectory;
         return this;
     }
 
+    public Settings setFormatCacheDirectory( File formatCacheDirectory )
+    {
+        this.formatCacheDirectory = formatCacheDirectory;
+        return this;
+    }
+
+    public Settings setPrecompilePreamble( boolean precompilePreamble )
+    {
+        this.precompilePreamble = precompilePreamble;
+        return this;
+    }
+
+    public Settings setRerunDetection( String rerunDetection )
+    {
+        this.rerunDetection = rerunDetection;
+        return this;
+    }
+
+    public Settings setStaging( String staging )
+    {
+        this.staging = staging;
+        return this;
+    }
+
+    public Settings setStagingChecksums( boolean stagingChecksums )
+    {
+        this.stagingChecksums = stagingChecksums;
+        return this;
+    }
+
     public Settings setTargetDirectory( File targetDirectory )
     {
         this.targetDirectory = targetDirectory;
@@ -236,6 +622,24 @@ public class Settings
         return this;
     }
 
+    public Settings setTex4htPipeline( String tex4htPipeline )
+    {
+        this.tex4htPipeline = tex4htPipeline;
+        return this;
+    }
+
+    public Settings setTex4htLatexCommand( String tex4htLatexCommand )
+    {
+        this.tex4htLatexCommand = tex4htLatexCommand;
+        return this;
+    }
+
+    public Settings setTex4htTimeout( int tex4htTimeout )
+    {
+        this.tex4htTimeout = tex4htTimeout;
+        return this;
+    }
+
     public Settings setTex4htCommandArgs( String[] tex4htCommandArgs )
     {
         this.tex4htCommandArgs = tex4htCommandArgs;
@@ -260,22 +664,96 @@ public class Settings
         return this;
     }
 
+    public Settings setOutputTargets( OutputTarget[] outputTargets )
+    {
+        this.outputTargets = outputTargets;
+        return this;
+    }
+
+    public Settings setAuxiliaryStages( AuxiliaryStage[] auxiliaryStages )
+    {
+        this.auxiliaryStages = auxiliaryStages;
+        return this;
+    }
+
+    public Settings setBibliographyCacheDirectory( File bibliographyCacheDirectory )
+    {
+        this.bibliographyCacheDirectory = bibliographyCacheDirectory;
+        return this;
+    }
+
     public Settings setTexPath( File texPath )
     {
         this.texPath = texPath;
         return this;
     }
 
+    public Settings setTranscriptDirectory( File transcriptDirectory )
+    {
+        this.transcriptDirectory = transcriptDirectory;
+        return this;
+    }
+
+    public Settings setWatchDelay( int watchDelay )
+    {
+        this.watchDelay = watchDelay;
+        return this;
+    }
+
+    public Settings setMaxProcesses( int maxProcesses )
+    {
+        this.maxProcesses = maxProcesses;
+        return this;
+    }
+
+    public Settings setThreads( int threads )
+    {
+        this.threads = threads;
+        return this;
+    }
+
+    /**
+     * @return a copy of these settings, e.g. to change the arguments for a single output target
+     */
+    public Settings copy()
+    {
+        try
+        {
+            return (Settings) clone();
+        }
+        catch ( CloneNotSupportedException e )
+        {
+            throw new IllegalStateException( "Settings are not cloneable" );
+        }
+    }
+
     public String toString()
     {
         StringBuffer sb = new StringBuffer( super.toString() );
         sb.append( '[' ).append( "tempDirectory=" ).append( tempDirectory );
+        sb.append( ",staging=" ).append( staging );
+        sb.append( ",assetLinking=" ).append( assetLinking );
         sb.append( ",texPath=" ).append( texPath );
         sb.append( ",texCommand=" ).append( texCommand );
         sb.append( ",bibtexCommand=" ).append( bibtexCommand );
+        sb.append( ",rerunDetection=" ).append( rerunDetection );
         sb.append( ",baseDirectory=" ).append( baseDirectory );
         sb.append( ",targetSiteDirectory=" ).append( targetSiteDirectory );
         sb.append( ",texDirectory=" ).append( texDirectory );
+        sb.append( ",threads=" ).append( threads );
+        sb.append( ",maxProcesses=" ).append( maxProcesses );
+        sb.append( ",incremental=" ).append( incremental );
+        sb.append( ",precompilePreamble=" ).append( precompilePreamble );
+        sb.append( ",outputCacheDirectory=" ).append( outputCacheDirectory );
+        sb.append( ",latexTimeout=" ).append( latexTimeout );
+        sb.append( ",bibtexTimeout=" ).append( bibtexTimeout );
+        sb.append( ",tex4htTimeout=" ).append( tex4htTimeout );
+        sb.append( ",tex4htPipeline=" ).append( tex4htPipeline );
+        sb.append( ",tex4htLatexCommand=" ).append( tex4htLatexCommand );
+        sb.append( ",bibliographyCacheDirectory=" ).append( bibliographyCacheDirectory );
+        sb.append( ",auxiliaryStages=" ).append( Arrays.asList( getAuxiliaryStages() ) );
+        sb.append( ",watchDelay=" ).append( watchDelay );
+        sb.append( ",outputTargets=" ).append( Arrays.asList( getOutputTargets() ) );
         sb.append( ",texCommandArgs=" ).append( Arrays.asList( texCommandArgs ) ).append( ']' );
         return sb.toString();
     }
@@ -0,0 +1,352 @@
+/*
+ * The akquinet maven-latex-plugin project
+ *
+ * Copyright (c) 2011 by akquinet tech@spree GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.m2latex.mojo;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Properties;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.filefilter.TrueFileFilter;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Brings the tex directory to the temporary directory. In <code>sync</code> staging only new and changed files are
+ * copied and files removed from the tex directory are deleted, while files generated in the temporary directory, e.g.
+ * aux and bbl files, are left in place, so LaTeX can continue from the state of the previous build. Read-only assets
+ * like images may be hard or symbolic links to the tex directory instead of copies.
+ */
+public class SourceStager
+{
+    static final String STAGING_COPY = "copy";
+
+    static final String STAGING_SYNC = "sync";
+
+    static final String STAGING_INPLACE = "inplace";
+
+    /**
+     * Records the staged files with their size, modification time and optionally digest.
+     */
+    static final String MANIFEST_FILE = ".m2latex-staged.properties";
+
+    /**
+     * The manifest entry recording the linking used to stage the files.
+     */
+    private static final String MANIFEST_LINKING = "/linking";
+
+    static final String LINKING_NONE = "none";
+
+    static final String LINKING_HARDLINK = "hardlink";
+
+    static final String LINKING_SYMLINK = "symlink";
+
+    /**
+     * Files the TeX tool chain may write to, these are always copied.
+     */
+    private static final String[] COPIED_SUFFIXES = new String[] { ".tex", ".cfg", ".bib" };
+
+    private final Log log;
+
+    private final String linking;
+
+    private boolean linkingSupported = true;
+
+    public SourceStager( Log log )
+    {
+        this( log, LINKING_NONE );
+    }
+
+    /**
+     * @param linking one of {@link #LINKING_NONE}, {@link #LINKING_HARDLINK} or {@link #LINKING_SYMLINK}
+     */
+    public SourceStager( Log log, String linking )
+    {
+        this.log = log;
+        this.linking = linking;
+    }
+
+    /**
+     * Deletes the temporary directory and stages all files of the tex directory.
+     */
+    public void copy( File texDirectory, File tempDirectory )
+        throws MojoExecutionException
+    {
+        try
+        {
+            if ( tempDirectory.exists() )
+            {
+                log.info( "Deleting existing directory " + tempDirectory.getPath() );
+                FileUtils.deleteDirectory( tempDirectory );
+            }
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "Failure deleting the temporary directory (" + tempDirectory.getPath()
+                + ").", e );
+        }
+
+        log.debug( "Staging TeX source directory (" + texDirectory.getPath() + ") to temporary directory ("
+            + tempDirectory + ")" );
+        String basePath = texDirectory.getAbsolutePath();
+        Collection files = FileUtils.listFiles( texDirectory, TrueFileFilter.INSTANCE, TrueFileFilter.INSTANCE );
+        for ( Iterator iterator = files.iterator(); iterator.hasNext(); )
+        {
+            File file = (File) iterator.next();
+            stageFile( file, new File( tempDirectory, file.getAbsolutePath().substring( basePath.length() + 1 ) ) );
+        }
+    }
+
+    /**
+     * Creates the directories of the tex directory in the temporary directory without copying any file, for compiling
+     * in place: LaTeX writes the auxiliary files of included files to the corresponding directories.
+     */
+    public void mirrorDirectories( File texDirectory, File tempDirectory )
+        throws MojoExecutionException
+    {
+        log.debug( "Creating the directories of the TeX source directory (" + texDirectory.getPath()
+            + ") in the temporary directory (" + tempDirectory + ")" );
+        mirrorDirectory( texDirectory, tempDirectory );
+    }
+
+    private void mirrorDirectory( File directory, File targetDirectory )
+        throws MojoExecutionException
+    {
+        if ( !targetDirectory.isDirectory() && !targetDirectory.mkdirs() )
+        {
+            throw new MojoExecutionException( "Cannot create the directory " + targetDirectory );
+        }
+        File[] children = directory.listFiles();
+        if ( children == null )
+        {
+            return;
+        }
+        for ( int i = 0; i < children.length; i++ )
+        {
+            if ( children[i].isDirectory() )
+            {
+                mirrorDirectory( children[i], new File( targetDirectory, children[i].getName() ) );
+            }
+        }
+    }
+
+    /**
+     * @param compareContent if true, a file whose size or modification time changed is only copied if its content
+     *            changed as well
+     */
+    public void sync( File texDirectory, File tempDirectory, boolean compareContent )
+        throws MojoExecutionException
+    {
+        File manifestFile = new File( tempDirectory, MANIFEST_FILE );
+        Properties previous = loadManifest( manifestFile );
+        boolean sameLinking = linking.equals( previous.getProperty( MANIFEST_LINKING, LINKING_NONE ) );
+        previous.remove( MANIFEST_LINKING );
+        Properties current = new Properties();
+        current.setProperty( MANIFEST_LINKING, linking );
+        Set sourcePaths = new HashSet();
+        int copied = 0;
+
+        String basePath = texDirectory.getAbsolutePath();
+        Collection files = FileUtils.listFiles( texDirectory, TrueFileFilter.INSTANCE, TrueFileFilter.INSTANCE );
+        for ( Iterator iterator = files.iterator(); iterator.hasNext(); )
+        {
+            File file = (File) iterator.next();
+            String relativePath = file.getAbsolutePath().substring( basePath.length() + 1 );
+            sourcePaths.add( relativePath );
+            File target = new File( tempDirectory, relativePath );
+
+            String stamp = file.length() + ":" + file.lastModified();
+            String entry = previous.getProperty( relativePath );
+            if ( sameLinking && entry != null && target.isFile()
+                && ( entry.equals( stamp ) || entry.startsWith( stamp + ":" ) ) )
+            {
+                current.setProperty( relativePath, entry );
+                continue;
+            }
+
+            String digest = compareContent ? FileDigests.computeDigest( file ) : null;
+            if ( sameLinking && digest != null && entry != null && target.isFile() && entry.endsWith( ":" + digest ) )
+            {
+                log.debug( "Content of " + relativePath + " is unchanged" );
+            }
+            else
+            {
+                stageFile( file, target );
+                copied++;
+            }
+            current.setProperty( relativePath, digest == null ? stamp : stamp + ":" + digest );
+        }
+
+        int deleted = 0;
+        for ( Iterator iterator = previous.keySet().iterator(); iterator.hasNext(); )
+        {
+            String relativePath = (String) iterator.next();
+            if ( !sourcePaths.contains( relativePath ) )
+            {
+                File target = new File( tempDirectory, relativePath );
+                log.debug( "Deleting " + target + ", it was removed from the tex directory" );
+                target.delete();
+                deleted++;
+            }
+        }
+
+        saveManifest( manifestFile, current );
+        log.info( "Synchronized TeX source directory (" + texDirectory.getPath() + ") with temporary directory ("
+            + tempDirectory + "): " + copied + " copied, " + deleted + " deleted, " + ( sourcePaths.size() - copied )
+            + " unchanged" );
+    }
+
+    /**
+     * Copies or links the given file. An existing target is removed first, as writing to it could modify the source
+     * if it is a link.
+     */
+    private void stageFile( File file, File target )
+        throws MojoExecutionException
+    {
+        try
+        {
+            Path targetPath = target.toPath();
+            Files.deleteIfExists( targetPath );
+            if ( isLinked( file ) && link( file.toPath(), targetPath ) )
+            {
+                return;
+            }
+            log.debug( "Copying " + file + " to " + target );
+            FileUtils.copyFile( file, target );
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "Error staging file " + file + " to " + target, e );
+        }
+    }
+
+    private boolean isLinked( File file )
+    {
+        if ( !linkingSupported || LINKING_NONE.equals( linking ) )
+        {
+            return false;
+        }
+        String name = file.getName();
+        for ( int i = 0; i < COPIED_SUFFIXES.length; i++ )
+        {
+            if ( name.endsWith( COPIED_SUFFIXES[i] ) )
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return false if the file system does not support links, the file must be copied then
+     */
+    private boolean link( Path file, Path target )
+        throws IOException
+    {
+        Files.createDirectories( target.getParent() );
+        try
+        {
+            if ( LINKING_SYMLINK.equals( linking ) )
+            {
+                Files.createSymbolicLink( target, file.toAbsolutePath() );
+            }
+            else
+            {
+                Files.createLink( target, file );
+            }
+            log.debug( "Linked " + file + " to " + target );
+            return true;
+        }
+        catch ( UnsupportedOperationException e )
+        {
+            return fallBackToCopying( e );
+        }
+        catch ( IOException e )
+        {
+            // e.g. hard links across file systems or missing privileges for symbolic links
+            return fallBackToCopying( e );
+        }
+    }
+
+    private synchronized boolean fallBackToCopying( Exception e )
+    {
+        if ( linkingSupported )
+        {
+            log.warn( "Cannot create " + linking + "s in the temporary directory, copying files instead: " + e );
+            linkingSupported = false;
+        }
+        return false;
+    }
+
+    private Properties loadManifest( File manifestFile )
+    {
+        Properties manifest = new Properties();
+        if ( !manifestFile.exists() )
+        {
+            return manifest;
+        }
+        InputStream in = null;
+        try
+        {
+            in = new FileInputStream( manifestFile );
+            manifest.load( in );
+        }
+        catch ( IOException e )
+        {
+            log.warn( "Cannot read the staging manifest '" + manifestFile.getPath() + "', copying all files.", e );
+            manifest.clear();
+        }
+        finally
+        {
+            IOUtils.closeQuietly( in );
+        }
+        return manifest;
+    }
+
+    private void saveManifest( File manifestFile, Properties manifest )
+        throws MojoExecutionException
+    {
+        manifestFile.getParentFile().mkdirs();
+        OutputStream out = null;
+        try
+        {
+            out = new FileOutputStream( manifestFile );
+            manifest.store( out, "maven-latex-plugin staged files" );
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "Error writing the staging manifest " + manifestFile.getPath(), e );
+        }
+        finally
+        {
+            IOUtils.closeQuietly( out );
+        }
+    }
+}
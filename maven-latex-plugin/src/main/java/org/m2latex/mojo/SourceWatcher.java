@@ -0,0 +1,192 @@
+/*
+ * The akquinet maven-latex-plugin project
+ *
+ * Copyright (c) 2011 by akquinet tech@spree GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.m2latex.mojo;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Watches a directory tree for changed files. A burst of changes, like an editor saving several files, is reported
+ * as a single set of changes once the tree has been quiet for a while.
+ */
+public class SourceWatcher
+{
+    /**
+     * Reported instead of the changed files if changes were lost, all files must be considered changed.
+     */
+    static final String ALL_FILES = "*";
+
+    private final File directory;
+
+    private final long delay;
+
+    private final Log log;
+
+    private final WatchService watchService;
+
+    /**
+     * Maps the keys of the watched directories to the directories.
+     */
+    private final Map directories = new HashMap();
+
+    /**
+     * @param delay the number of milliseconds without changes after which a burst of changes is reported
+     */
+    public SourceWatcher( File directory, long delay, Log log )
+        throws IOException
+    {
+        this.directory = directory;
+        this.delay = delay;
+        this.log = log;
+        this.watchService = directory.toPath().getFileSystem().newWatchService();
+        register( directory, null );
+    }
+
+    /**
+     * Waits for changes and returns when no further change has happened for the configured delay.
+     * 
+     * @return the sorted paths of the new, changed and deleted files relative to the directory, using '/' as
+     *         separator, or {@link #ALL_FILES}
+     */
+    public Set awaitChanges()
+        throws InterruptedException
+    {
+        Set changes = new TreeSet();
+        WatchKey key = watchService.take();
+        while ( key != null )
+        {
+            collectChanges( key, changes );
+            key = watchService.poll( delay, TimeUnit.MILLISECONDS );
+        }
+        return changes;
+    }
+
+    public void close()
+    {
+        try
+        {
+            watchService.close();
+        }
+        catch ( IOException e )
+        {
+            log.debug( "Error closing the watch service: " + e );
+        }
+    }
+
+    private void collectChanges( WatchKey key, Set changes )
+    {
+        Path parent = (Path) directories.get( key );
+        for ( Iterator iterator = key.pollEvents().iterator(); iterator.hasNext(); )
+        {
+            WatchEvent event = (WatchEvent) iterator.next();
+            if ( event.kind() == StandardWatchEventKinds.OVERFLOW || parent == null )
+            {
+                log.debug( "Lost track of the changes in " + directory );
+                changes.add( ALL_FILES );
+                continue;
+            }
+            File file = parent.resolve( (Path) event.context() ).toFile();
+            if ( isIgnored( file ) )
+            {
+                continue;
+            }
+            if ( event.kind() == StandardWatchEventKinds.ENTRY_CREATE && file.isDirectory() )
+            {
+                // the files of a directory moved or copied into the tree do not cause events of their own
+                register( file, changes );
+            }
+            else
+            {
+                changes.add( getRelativePath( file ) );
+            }
+        }
+        if ( !key.reset() )
+        {
+            directories.remove( key );
+        }
+    }
+
+    /**
+     * Watches the given directory and its subdirectories.
+     * 
+     * @param changes the set to add the files found in the directories to, or null
+     */
+    private void register( File dir, Set changes )
+    {
+        try
+        {
+            Path path = dir.toPath();
+            WatchKey key = path.register( watchService, new WatchEvent.Kind[] {
+                StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_DELETE,
+                StandardWatchEventKinds.ENTRY_MODIFY } );
+            directories.put( key, path );
+        }
+        catch ( IOException e )
+        {
+            log.warn( "Cannot watch the directory " + dir + ": " + e.getMessage() );
+            return;
+        }
+        File[] files = dir.listFiles();
+        for ( int i = 0; files != null && i < files.length; i++ )
+        {
+            if ( isIgnored( files[i] ) )
+            {
+                continue;
+            }
+            if ( files[i].isDirectory() )
+            {
+                register( files[i], changes );
+            }
+            else if ( changes != null )
+            {
+                changes.add( getRelativePath( files[i] ) );
+            }
+        }
+    }
+
+    /**
+     * @return true for hidden files and editor backups
+     */
+    private boolean isIgnored( File file )
+    {
+        String name = file.getName();
+        return name.startsWith( "." ) || name.endsWith( "~" );
+    }
+
+    private String getRelativePath( File file )
+    {
+        String path = file.getAbsolutePath().substring( directory.getAbsolutePath().length() + 1 );
+        return path.replace( File.separatorChar, '/' );
+    }
+}
@@ -19,11 +19,12 @@
 package org.m2latex.mojo;
 
 import java.io.File;
-import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.logging.Log;
 import org.codehaus.plexus.util.cli.CommandLineException;
 
 /**
@@ -52,21 +53,15 @@ public class Tex4HtMojo
 
         try
         {
-            fileUtils.copyLatexSrcToTempDir( texDirectory, settings.getTempDirectory() );
-            List latexMainFiles = fileUtils.getLatexMainDocuments( settings.getTempDirectory() );
-            for ( Iterator iterator = latexMainFiles.iterator(); iterator.hasNext(); )
+            List latexMainFiles = findLatexMainDocuments();
+            List outdatedFiles = restoreCachedOutputs( getOutdatedDocuments( latexMainFiles ) );
+            if ( outdatedFiles.isEmpty() )
             {
-                File texFile = (File) iterator.next();
-                latexProcessor.processTex4ht( texFile );
-                // TODO move to Settings
-                File tex4htOutputDir = new File( settings.getTempDirectory(), TexFileUtils.TEX4HT_OUTPUT_DIR );
-                fileUtils.copyTex4htOutputToOutputFolder( texFile, settings.getTempDirectory(), tex4htOutputDir,
-                                                          settings.getOutputDirectory() );
+                log.info( "All LaTeX documents are up to date - skipping LaTeX processing" );
+                return;
             }
-        }
-        catch ( CommandLineException e )
-        {
-            throw new MojoExecutionException( "Error executing command", e );
+            stageSources();
+            processDocuments( outdatedFiles );
         }
         finally
         {
@@ -74,6 +69,62 @@ public class Tex4HtMojo
             {
                 cleanUp();
             }
+            reportMetrics();
+        }
+    }
+
+    protected void processDocument( File texFile, LatexProcessor processor, TexFileUtils texFileUtils,
+                                    Log documentLog )
+        throws CommandLineException, MojoExecutionException, MojoFailureException
+    {
+        processor.processTex4ht( texFile );
+    }
+
+    protected void publishDocument( File texFile, TexFileUtils texFileUtils, Log stageLog )
+        throws MojoExecutionException, MojoFailureException
+    {
+        File tex4htOutputDir = texFileUtils.getTex4htOutputDir( texFile );
+        BuildMetrics.Timing timing = metrics.start( texFile, BuildMetrics.STAGE_PUBLISHING );
+        try
+        {
+            texFileUtils.copyTex4htOutputToOutputFolder( texFile, settings.getTempDirectory(), tex4htOutputDir,
+                                                         settings.getOutputDirectory() );
+        }
+        finally
+        {
+            timing.stop();
+        }
+    }
+
+    protected File[] getOutputFiles( File texFile, TexFileUtils texFileUtils )
+    {
+        File[] files = texFileUtils.getTex4htOutputDir( texFile ).listFiles();
+        return files == null ? new File[0] : files;
+    }
+
+    protected String getGoal()
+    {
+        return "tex4ht";
+    }
+
+    protected boolean hasOutput( File texFile )
+        throws MojoExecutionException, MojoFailureException
+    {
+        return fileUtils.hasTex4htOutput( texFile, settings.getTexDirectory(), settings.getOutputDirectory() );
+    }
+
+    /**
+     * The TeX4ht configuration next to the document is a source as well.
+     */
+    protected Set getScannedSourceFiles( File texFile )
+        throws MojoExecutionException
+    {
+        Set files = super.getScannedSourceFiles( texFile );
+        File configFile = new File( texFile.getParentFile(), "tex4ht.cfg" );
+        if ( configFile.exists() )
+        {
+            files.add( configFile );
         }
+        return files;
     }
 }
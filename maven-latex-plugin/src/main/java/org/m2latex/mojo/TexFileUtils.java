@@ -41,6 +41,21 @@ public interface TexFileUtils
 
     File getCorrespondingAuxFile( File texFile );
 
+    /**
+     * @return a digest over the current content of the auxiliary files LaTeX reads and writes for the given main
+     *         document (aux, toc, lof, lot, out, ... including the aux files of included documents). Two LaTeX runs
+     *         producing the same digest have reached a fixpoint.
+     */
+    String getAuxiliaryFilesDigest( File texFile )
+        throws MojoExecutionException;
+
+    /**
+     * @return the existing auxiliary files of the given main document, those {@link #getAuxiliaryFilesDigest(File)}
+     *         is computed over
+     */
+    List getAuxiliaryFiles( File texFile )
+        throws MojoExecutionException;
+
     File getCorrespondingDviFile( File texFile );
 
     File getCorrespondingLogFile( File texFile );
@@ -49,6 +64,34 @@ public interface TexFileUtils
 
     String getFileNameWithoutSuffix( File texFile );
 
+    /**
+     * E.g. file /tmp/adir/afile, baseDirectory /tmp returns adir/afile
+     */
+    String getRelativePath( File file, File baseDirectory );
+
+    /**
+     * E.g. sourceFile /tmp/adir/afile, sourceBaseDir /tmp, targetBaseDir /home returns /home/adir/
+     */
+    File getTargetDirectory( File sourceFile, File sourceBaseDir, File targetBaseDir )
+        throws MojoExecutionException, MojoFailureException;
+
+    /**
+     * @return the PDF, DVI and PS files LaTeX created for the given main document
+     */
+    File[] getLatexOutputFiles( File texFile );
+
+    /**
+     * @return true if the PDF, DVI or PS file of the given LaTeX main document exists in the output folder
+     */
+    boolean hasLatexOutput( File texFile, File texDirectory, File outputDirectory )
+        throws MojoExecutionException, MojoFailureException;
+
+    /**
+     * @return true if the HTML file of the given LaTeX main document exists in the output folder
+     */
+    boolean hasTex4htOutput( File texFile, File texDirectory, File outputDirectory )
+        throws MojoExecutionException, MojoFailureException;
+
     /*
      * @param tempDir
      * 
@@ -62,5 +105,28 @@ public interface TexFileUtils
     boolean matchInCorrespondingLogFile( File texFile, String pattern )
         throws MojoExecutionException;
 
-    File createTex4htOutputDir( File tempDir ) throws MojoExecutionException;
+    /**
+     * Reads the log file of the given LaTeX main document once and checks whether bibtex or another LaTeX run is
+     * needed and which errors occurred.
+     */
+    LogAnalysis analyzeCorrespondingLogFile( File texFile )
+        throws MojoExecutionException;
+
+    /**
+     * Like {@link #analyzeCorrespondingLogFile(File)}, additionally looking for the given regular expressions in the
+     * same pass, see {@link LogAnalysis#matches(String)}.
+     */
+    LogAnalysis analyzeCorrespondingLogFile( File texFile, String[] patterns )
+        throws MojoExecutionException;
+
+    /**
+     * @return the directory TeX4ht writes the output of the given LaTeX main document to. Each document has its own
+     *         directory, so documents may be processed in parallel.
+     */
+    File getTex4htOutputDir( File texFile );
+
+    /**
+     * Creates an empty {@link #getTex4htOutputDir(File)} for the given LaTeX main document.
+     */
+    File createTex4htOutputDir( File texFile ) throws MojoExecutionException;
 }
\ No newline at end of file
@@ -20,19 +20,18 @@ package org.m2latex.mojo;
 
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileFilter;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.filefilter.FileFilterUtils;
-import org.apache.commons.io.filefilter.IOFileFilter;
-import org.apache.commons.io.filefilter.TrueFileFilter;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.io.filefilter.WildcardFileFilter;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
@@ -43,11 +42,42 @@ public class TexFileUtilsImpl
 {
     private static final String[] LATEX_OUTPUT_FILES = new String[] { "%n.pdf", "%n.dvi", "%n.ps" };
 
+    private static final String[] AUXILIARY_FILE_SUFFIXES = new String[] {
+        "4tc",
+        "aux",
+        "bbl",
+        "ind",
+        "lof",
+        "lot",
+        "nav",
+        "out",
+        "snm",
+        "toc",
+        "vrb",
+        "xref" };
+
+    private static final Pattern PATTERN_AUX_INPUT = Pattern.compile( "\\\\@input\\{([^}]+)\\}" );
+
+    private static final String[] TEX4HT_OUTPUT_FILES = new String[] { "%n.html" };
+
     private final Log log;
 
+    private final LogAnalyzer logAnalyzer = new LogAnalyzer();
+
+    private final MainDocumentDetector mainDocumentDetector;
+
+    private final OutputPublisher outputPublisher;
+
     public TexFileUtilsImpl( Log log )
+    {
+        this( log, new MainDocumentDetector( log, null, 1 ), new OutputPublisher( log, 1 ) );
+    }
+
+    public TexFileUtilsImpl( Log log, MainDocumentDetector mainDocumentDetector, OutputPublisher outputPublisher )
     {
         this.log = log;
+        this.mainDocumentDetector = mainDocumentDetector;
+        this.outputPublisher = outputPublisher;
     }
 
     /*
@@ -57,9 +87,21 @@ public class TexFileUtilsImpl
      */
     public void copyLatexOutputToOutputFolder( File texFile, File tempDirectory, File outputDirectory )
         throws MojoExecutionException, MojoFailureException
+    {
+        File targetDir = getTargetDirectory( texFile, tempDirectory, outputDirectory );
+        outputPublisher.publish( getLatexOutputFiles( texFile ), targetDir );
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see org.m2latex.mojo.TexFileUtils#getLatexOutputFiles(java.io.File)
+     */
+    public File[] getLatexOutputFiles( File texFile )
     {
         WildcardFileFilter fileFilter = new WildcardFileFilter( getFilesToCopy( texFile, LATEX_OUTPUT_FILES ) );
-        copyLatexOutputToOutputFolder( texFile, tempDirectory, outputDirectory, fileFilter );
+        File[] files = texFile.getParentFile().listFiles( (FileFilter) fileFilter );
+        return files == null ? new File[0] : files;
     }
 
     /*
@@ -80,54 +122,16 @@ public class TexFileUtilsImpl
         else
         {
             File targetDirectory = getTargetDirectory( texFile, tempDirectory, outputDirectory );
-            copyFilesToDirectory( outputFiles, targetDirectory );
+            outputPublisher.publish( outputFiles, targetDirectory );
         }
     }
 
-    private void copyFilesToDirectory( File[] files, File targetDirectory )
-        throws MojoExecutionException
-    {
-        for ( int i = 0; i < files.length; i++ )
-        {
-            try
-            {
-                FileUtils.copyFileToDirectory( files[i], targetDirectory );
-            }
-            catch ( IOException e )
-            {
-                throw new MojoExecutionException(
-                                                  "Error copying file " + files[i] + " to directory " + targetDirectory,
-                                                  e );
-            }
-        }
-    }
-
-    private void copyLatexOutputToOutputFolder( File texFile, File tempDirectory, File outputDirectory,
-                                                IOFileFilter fileFilter )
-        throws MojoFailureException, MojoExecutionException
-    {
-        File targetDir = getTargetDirectory( texFile, tempDirectory, outputDirectory );
-        try
-        {
-            Collection filesToCopy = FileUtils.listFiles( texFile.getParentFile(), fileFilter, null );
-            for ( Iterator iterator = filesToCopy.iterator(); iterator.hasNext(); )
-            {
-                File file = (File) iterator.next();
-                copyFileToDirectory( file, targetDir );
-
-            }
-        }
-        catch ( IOException e )
-        {
-            throw new MojoExecutionException( "File " + texFile + " could not be copied to the target directory: "
-                + targetDir, e );
-        }
-    }
-
-    /**
-     * E.g. sourceFile /tmp/adir/afile, sourceBaseDir /tmp, targetBaseDir /home returns /home/adir/
+    /*
+     * (non-Javadoc)
+     * 
+     * @see org.m2latex.mojo.TexFileUtils#getTargetDirectory(java.io.File, java.io.File, java.io.File)
      */
-    File getTargetDirectory( File sourceFile, File sourceBaseDir, File targetBaseDir )
+    public File getTargetDirectory( File sourceFile, File sourceBaseDir, File targetBaseDir )
         throws MojoExecutionException, MojoFailureException
     {
         String filePath;
@@ -200,6 +204,91 @@ public class TexFileUtilsImpl
         return getFileWithDifferentSuffix( texFile, "aux" );
     }
 
+    /*
+     * (non-Javadoc)
+     * 
+     * @see org.m2latex.mojo.TexFileUtils#getAuxiliaryFilesDigest(java.io.File)
+     */
+    public String getAuxiliaryFilesDigest( File texFile )
+        throws MojoExecutionException
+    {
+        StringBuffer digests = new StringBuffer();
+        for ( Iterator iterator = getAuxiliaryFileCandidates( texFile ).iterator(); iterator.hasNext(); )
+        {
+            File file = (File) iterator.next();
+            digests.append( file.getName() ).append( '=' );
+            digests.append( file.isFile() ? FileDigests.computeDigest( file ) : "-" ).append( ';' );
+        }
+        return digests.toString();
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see org.m2latex.mojo.TexFileUtils#getAuxiliaryFiles(java.io.File)
+     */
+    public List getAuxiliaryFiles( File texFile )
+        throws MojoExecutionException
+    {
+        List files = new ArrayList();
+        for ( Iterator iterator = getAuxiliaryFileCandidates( texFile ).iterator(); iterator.hasNext(); )
+        {
+            File file = (File) iterator.next();
+            if ( file.isFile() )
+            {
+                files.add( file );
+            }
+        }
+        return files;
+    }
+
+    private List getAuxiliaryFileCandidates( File texFile )
+        throws MojoExecutionException
+    {
+        List files = new ArrayList();
+        for ( int i = 0; i < AUXILIARY_FILE_SUFFIXES.length; i++ )
+        {
+            files.add( getFileWithDifferentSuffix( texFile, AUXILIARY_FILE_SUFFIXES[i] ) );
+        }
+        files.addAll( getIncludedAuxFiles( getCorrespondingAuxFile( texFile ) ) );
+        return files;
+    }
+
+    /**
+     * @return the aux files of documents included via \include, as listed by \@input in the given aux file
+     */
+    private List getIncludedAuxFiles( File auxFile )
+        throws MojoExecutionException
+    {
+        List auxFiles = new ArrayList();
+        if ( !auxFile.isFile() )
+        {
+            return auxFiles;
+        }
+        BufferedReader reader = null;
+        try
+        {
+            reader = new BufferedReader( new FileReader( auxFile ) );
+            Matcher matcher = PATTERN_AUX_INPUT.matcher( "" );
+            for ( String line = reader.readLine(); line != null; line = reader.readLine() )
+            {
+                if ( matcher.reset( line ).find() )
+                {
+                    auxFiles.add( new File( auxFile.getParentFile(), matcher.group( 1 ) ) );
+                }
+            }
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "Error reading file " + auxFile.getPath(), e );
+        }
+        finally
+        {
+            IOUtils.closeQuietly( reader );
+        }
+        return auxFiles;
+    }
+
     /*
      * (non-Javadoc)
      * 
@@ -242,6 +331,58 @@ public class TexFileUtilsImpl
         return namePrefixTexFile;
     }
 
+    /*
+     * (non-Javadoc)
+     * 
+     * @see org.m2latex.mojo.TexFileUtils#getRelativePath(java.io.File, java.io.File)
+     */
+    public String getRelativePath( File file, File baseDirectory )
+    {
+        String filePath = file.getAbsolutePath();
+        String basePath = baseDirectory.getAbsolutePath();
+        if ( filePath.startsWith( basePath + File.separatorChar ) )
+        {
+            filePath = filePath.substring( basePath.length() + 1 );
+        }
+        return filePath.replace( File.separatorChar, '/' );
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see org.m2latex.mojo.TexFileUtils#hasLatexOutput(java.io.File, java.io.File, java.io.File)
+     */
+    public boolean hasLatexOutput( File texFile, File texDirectory, File outputDirectory )
+        throws MojoExecutionException, MojoFailureException
+    {
+        return hasOutput( texFile, texDirectory, outputDirectory, getFilesToCopy( texFile, LATEX_OUTPUT_FILES ) );
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see org.m2latex.mojo.TexFileUtils#hasTex4htOutput(java.io.File, java.io.File, java.io.File)
+     */
+    public boolean hasTex4htOutput( File texFile, File texDirectory, File outputDirectory )
+        throws MojoExecutionException, MojoFailureException
+    {
+        return hasOutput( texFile, texDirectory, outputDirectory, getFilesToCopy( texFile, TEX4HT_OUTPUT_FILES ) );
+    }
+
+    private boolean hasOutput( File texFile, File texDirectory, File outputDirectory, String[] fileNames )
+        throws MojoExecutionException, MojoFailureException
+    {
+        File targetDir = getTargetDirectory( texFile, texDirectory, outputDirectory );
+        for ( int i = 0; i < fileNames.length; i++ )
+        {
+            if ( new File( targetDir, fileNames[i] ).isFile() )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /*
      * 
      * @param tempDir
@@ -258,19 +399,7 @@ public class TexFileUtilsImpl
     public List getLatexMainDocuments( File directory )
         throws MojoExecutionException
     {
-        ArrayList mainFiles = new ArrayList();
-
-        Collection texFiles = FileUtils.listFiles( directory, FileFilterUtils.suffixFileFilter( ".tex" ),
-                                                   TrueFileFilter.INSTANCE );
-        for ( Iterator iterator = texFiles.iterator(); iterator.hasNext(); )
-        {
-            File file = (File) iterator.next();
-            if ( isTexMainFile( file ) )
-            {
-                mainFiles.add( file );
-            }
-        }
-        return mainFiles;
+        return mainDocumentDetector.findMainDocuments( directory );
     }
 
     /*
@@ -304,9 +433,43 @@ public class TexFileUtilsImpl
         }
     }
 
-    public File createTex4htOutputDir( File tempDir ) throws MojoExecutionException
+    /*
+     * (non-Javadoc)
+     * 
+     * @see org.m2latex.mojo.TexFileUtils#getTex4htOutputDir(java.io.File)
+     */
+    public File getTex4htOutputDir( File texFile )
+    {
+        File tex4htBaseDir = new File( texFile.getParentFile(), TEX4HT_OUTPUT_DIR );
+        return new File( tex4htBaseDir, getFileNameWithoutSuffix( texFile ) );
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see org.m2latex.mojo.TexFileUtils#analyzeCorrespondingLogFile(java.io.File)
+     */
+    public LogAnalysis analyzeCorrespondingLogFile( File texFile )
+        throws MojoExecutionException
+    {
+        return logAnalyzer.analyze( getCorrespondingLogFile( texFile ), getFileNameWithoutSuffix( texFile ) );
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see org.m2latex.mojo.TexFileUtils#analyzeCorrespondingLogFile(java.io.File, java.lang.String[])
+     */
+    public LogAnalysis analyzeCorrespondingLogFile( File texFile, String[] patterns )
+        throws MojoExecutionException
+    {
+        return logAnalyzer.analyze( getCorrespondingLogFile( texFile ), getFileNameWithoutSuffix( texFile ),
+                                    patterns );
+    }
+
+    public File createTex4htOutputDir( File texFile ) throws MojoExecutionException
     {
-        File tex4htOutdir = new File( tempDir, TEX4HT_OUTPUT_DIR );
+        File tex4htOutdir = getTex4htOutputDir( texFile );
         if ( tex4htOutdir.exists() )
         {
             try
@@ -325,13 +488,6 @@ public class TexFileUtilsImpl
         return tex4htOutdir;
     }
 
-    private void copyFileToDirectory( File file, File targetDir )
-        throws IOException
-    {
-        log.info( "Copying " + file.getName() + " to " + targetDir );
-        FileUtils.copyFileToDirectory( file, targetDir );
-    }
-
     private boolean fileContainsPattern( File file, String regex )
         throws FileNotFoundException, IOException
     {
@@ -368,26 +524,4 @@ public class TexFileUtilsImpl
     {
         return new File( file.getParentFile(), getFileNameWithoutSuffix( file ) + "." + suffix );
     }
-
-    private boolean isTexMainFile( File file )
-        throws MojoExecutionException
-    {
-        String pattern = ".*\\\\begin\\s*\\{document\\}.*";
-
-        try
-        {
-            return fileContainsPattern( file, pattern );
-
-        }
-        catch ( FileNotFoundException e )
-        {
-            throw new MojoExecutionException( "The TeX file '" + file.getPath()
-                + "' was removed while running this goal", e );
-        }
-        catch ( IOException e )
-        {
-            throw new MojoExecutionException( "Problems reading the file '" + file.getPath()
-                + "' while checking if it is a TeX main file", e );
-        }
-    }
 }
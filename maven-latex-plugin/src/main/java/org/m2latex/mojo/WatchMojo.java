@@ -0,0 +1,161 @@
+/*
+ * The akquinet maven-latex-plugin project
+ *
+ * Copyright (c) 2011 by akquinet tech@spree GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.m2latex.mojo;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+
+/**
+ * Build PDF or DVI documents from LaTeX sources, then watch the tex directory and rebuild the documents affected by
+ * each change until the build is interrupted. The temporary directory is kept and synchronized, so LaTeX continues
+ * from the state of the previous run.
+ * 
+ * @goal watch
+ */
+public class WatchMojo
+    extends LatexMojo
+{
+    public void execute()
+        throws MojoExecutionException, MojoFailureException
+    {
+        initialize();
+
+        File texDirectory = settings.getTexDirectory();
+
+        if ( !texDirectory.exists() )
+        {
+            log.info( "No tex directory - skipping LaTeX processing" );
+            return;
+        }
+        if ( !SourceStager.STAGING_SYNC.equals( settings.getStaging() ) && !isCompilingInPlace() )
+        {
+            log.info( "Using sync staging to keep the temporary directory between rebuilds" );
+            settings.setStaging( SourceStager.STAGING_SYNC );
+        }
+        settings.setCleanUp( false );
+
+        SourceWatcher watcher;
+        try
+        {
+            watcher = new SourceWatcher( texDirectory, settings.getWatchDelay(), log );
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "Cannot watch the tex directory " + texDirectory, e );
+        }
+        try
+        {
+            List mainDocuments = findLatexMainDocuments();
+            DependencyGraph dependencyGraph = loadDependencyGraph();
+            rebuild( getOutdatedDocuments( mainDocuments ) );
+            while ( true )
+            {
+                log.info( "Watching " + texDirectory + " for changes, press Ctrl+C to stop" );
+                Set changes = watcher.awaitChanges();
+                log.debug( "Changed files: " + changes );
+                metrics = new BuildMetrics( settings.getTempDirectory() );
+                List currentDocuments = findLatexMainDocuments();
+                rebuild( getAffectedDocuments( changes, mainDocuments, currentDocuments, dependencyGraph ) );
+                mainDocuments = currentDocuments;
+            }
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            log.info( "Stopped watching " + texDirectory );
+        }
+        finally
+        {
+            watcher.close();
+        }
+    }
+
+    /**
+     * @param changes the changed files as reported by {@link SourceWatcher#awaitChanges()}
+     * @param previousDocuments the main documents before the changes
+     * @param currentDocuments the main documents after the changes
+     * @return the main documents which depend on one of the changed files, are new or whose dependencies are unknown
+     */
+    private List getAffectedDocuments( Set changes, List previousDocuments, List currentDocuments,
+                                       DependencyGraph dependencyGraph )
+    {
+        if ( changes.contains( SourceWatcher.ALL_FILES ) )
+        {
+            return currentDocuments;
+        }
+        Set affectedKeys = new TreeSet();
+        for ( Iterator iterator = changes.iterator(); iterator.hasNext(); )
+        {
+            affectedKeys.addAll( dependencyGraph.getDocumentsDependingOn( (String) iterator.next() ) );
+        }
+        List affectedDocuments = new ArrayList();
+        for ( Iterator iterator = currentDocuments.iterator(); iterator.hasNext(); )
+        {
+            File texFile = (File) iterator.next();
+            String key = getDocumentKey( texFile );
+            if ( affectedKeys.contains( key ) || !previousDocuments.contains( texFile )
+                || dependencyGraph.getDependencies( key ).isEmpty() )
+            {
+                affectedDocuments.add( texFile );
+            }
+        }
+        return affectedDocuments;
+    }
+
+    /**
+     * Stages the changed sources and processes the given documents. Failures are logged, so watching goes on.
+     */
+    private void rebuild( List texFiles )
+    {
+        if ( texFiles.isEmpty() )
+        {
+            log.info( "No LaTeX document is affected by the changes" );
+            return;
+        }
+        // the fingerprints and cache keys of the rebuilt documents must reflect the changed sources
+        forgetFileDigests();
+        try
+        {
+            stageSources();
+            processDocuments( texFiles );
+            log.info( "Rebuilt " + texFiles.size() + " LaTeX documents" );
+        }
+        catch ( MojoExecutionException e )
+        {
+            log.error( "Rebuilding failed: " + e.getMessage(), e );
+        }
+        catch ( MojoFailureException e )
+        {
+            log.error( "Rebuilding failed: " + e.getMessage(), e );
+        }
+        finally
+        {
+            reportMetrics();
+        }
+    }
+}
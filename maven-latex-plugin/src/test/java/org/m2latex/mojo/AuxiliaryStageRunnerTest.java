@@ -0,0 +1,141 @@
+/*
+ * The akquinet maven-latex-plugin project
+ *
+ * Copyright (c) 2011 by akquinet tech@spree GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.m2latex.mojo;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+
+public class AuxiliaryStageRunnerTest
+    extends TestCase
+{
+    private File directory = new File( System.getProperty( "java.io.tmpdir" ), "m2latex-stages-test" );
+
+    private File texFile = new File( directory, "Doc.tex" );
+
+    private File idxFile = new File( directory, "Doc.idx" );
+
+    private File indFile = new File( directory, "Doc.ind" );
+
+    private Log log = new SystemStreamLog();
+
+    private AuxiliaryStage stage =
+        new AuxiliaryStage( "index", "sh", new String[] { "-c", "cp %n.idx %n.ind" }, "idx", "ind" );
+
+    private AuxiliaryStageRunner runner;
+
+    private LogAnalysis clean = new LogAnalysis( false, false, Collections.EMPTY_LIST );
+
+    protected void setUp()
+        throws Exception
+    {
+        FileUtils.deleteDirectory( directory );
+        FileUtils.writeStringToFile( texFile, "\\documentclass{article}" );
+        Settings settings = new Settings().setAuxiliaryStages( new AuxiliaryStage[] { stage } );
+        runner = new AuxiliaryStageRunner( settings, new CommandExecutorImpl( log ), new TexFileUtilsImpl( log ),
+                                           new BuildMetrics( null ), log );
+    }
+
+    protected void tearDown()
+        throws Exception
+    {
+        FileUtils.deleteDirectory( directory );
+    }
+
+    public void testRunsOnlyWhenInputChanges()
+        throws Exception
+    {
+        assertEquals( Collections.EMPTY_LIST, runner.getTriggeredStages( texFile, clean ) );
+
+        FileUtils.writeStringToFile( idxFile, "\\indexentry{TeX}{1}" );
+        assertEquals( Collections.singletonList( stage ), runner.getTriggeredStages( texFile, clean ) );
+        assertTrue( runner.run( texFile, stage ) );
+        assertEquals( "\\indexentry{TeX}{1}", FileUtils.readFileToString( indFile ) );
+        assertEquals( Collections.EMPTY_LIST, runner.getTriggeredStages( texFile, clean ) );
+
+        FileUtils.writeStringToFile( idxFile, "\\indexentry{TeX}{2}" );
+        assertEquals( Collections.singletonList( stage ), runner.getTriggeredStages( texFile, clean ) );
+        assertTrue( runner.run( texFile, stage ) );
+
+        indFile.delete();
+        assertEquals( Collections.singletonList( stage ), runner.getTriggeredStages( texFile, clean ) );
+        assertTrue( runner.run( texFile, stage ) );
+        assertFalse( "same output", runner.run( texFile, stage ) );
+    }
+
+    public void testFailedStageRunsAgain()
+        throws Exception
+    {
+        FileUtils.writeStringToFile( idxFile, "\\indexentry{TeX}{1}" );
+        FileUtils.writeStringToFile( indFile, "stale" );
+        AuxiliaryStage failing =
+            new AuxiliaryStage( "index", "sh", new String[] { "-c", "exit 1" }, "idx", "ind" );
+        assertEquals( Collections.singletonList( stage ), runner.getTriggeredStages( texFile, clean ) );
+        runner.run( texFile, failing );
+        assertEquals( Collections.singletonList( stage ), runner.getTriggeredStages( texFile, clean ) );
+        runner.run( texFile, stage );
+        assertEquals( Collections.EMPTY_LIST, runner.getTriggeredStages( texFile, clean ) );
+    }
+
+    public void testLogPattern()
+        throws Exception
+    {
+        AuxiliaryStage glossary =
+            new AuxiliaryStage( "glossary", "sh", new String[] { "-c", "true" }, null, null ).setLogPattern( "glo" );
+        Settings settings = new Settings().setAuxiliaryStages( new AuxiliaryStage[] { stage, glossary } );
+        runner = new AuxiliaryStageRunner( settings, new CommandExecutorImpl( log ), new TexFileUtilsImpl( log ),
+                                           new BuildMetrics( null ), log );
+        assertTrue( Arrays.equals( new String[] { "glo" }, runner.getLogPatterns() ) );
+
+        LogAnalysis matching = new LogAnalysis( false, false, Collections.EMPTY_LIST, Collections.EMPTY_LIST,
+                                                Collections.singleton( "glo" ) );
+        assertEquals( Collections.singletonList( glossary ), runner.getTriggeredStages( texFile, matching ) );
+        assertEquals( Collections.EMPTY_LIST, runner.getTriggeredStages( texFile, clean ) );
+    }
+
+    public void testRunConcurrently()
+        throws Exception
+    {
+        FileUtils.writeStringToFile( idxFile, "\\indexentry{TeX}{1}" );
+        AuxiliaryStage other = new AuxiliaryStage( "other", "sh", new String[] { "-c", "true" }, null, null );
+        List tasks = new ArrayList();
+        tasks.add( runner.newTask( texFile, stage ) );
+        tasks.add( runner.newTask( texFile, other ) );
+        assertTrue( AuxiliaryStageRunner.runConcurrently( tasks ) );
+        assertTrue( indFile.exists() );
+    }
+
+    public void testPredefinedStages()
+    {
+        AuxiliaryStage makeindex = new AuxiliaryStage( AuxiliaryStage.MAKEINDEX, null, null, null, null );
+        assertEquals( "makeindex", makeindex.getCommand() );
+        assertEquals( "idx", makeindex.getInputSuffix() );
+        assertEquals( "ind", makeindex.getOutputSuffix() );
+        assertEquals( "bcf", AuxiliaryStage.getPredefinedStage( AuxiliaryStage.BIBER ).getInputSuffix() );
+    }
+}
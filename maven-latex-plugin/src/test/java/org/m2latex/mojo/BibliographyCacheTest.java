@@ -0,0 +1,102 @@
+/*
+ * The akquinet maven-latex-plugin project
+ *
+ * Copyright (c) 2011 by akquinet tech@spree GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.m2latex.mojo;
+
+import java.io.File;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+
+public class BibliographyCacheTest
+    extends TestCase
+{
+    private File directory = new File( System.getProperty( "java.io.tmpdir" ), "m2latex-bibliography-test" );
+
+    private File texFile = new File( directory, "Doc.tex" );
+
+    private File auxFile = new File( directory, "Doc.aux" );
+
+    private File bibFile = new File( directory, "refs.bib" );
+
+    private BibliographyCache cache;
+
+    protected void setUp()
+        throws Exception
+    {
+        FileUtils.deleteDirectory( directory );
+        FileUtils.writeStringToFile( auxFile, "\\relax\n\\citation{knuth84}\n\\bibstyle{plain}\n\\bibdata{refs}\n"
+            + "\\@input{chapter.aux}\n\\newlabel{intro}{{1}{1}}\n" );
+        FileUtils.writeStringToFile( new File( directory, "chapter.aux" ), "\\relax\n\\citation{lamport94}\n" );
+        FileUtils.writeStringToFile( bibFile, "@book{knuth84}" );
+        Settings settings = new Settings().setBibliographyCacheDirectory( new File( directory, "cache" ) );
+        cache = new BibliographyCache( settings, new SystemStreamLog() );
+    }
+
+    protected void tearDown()
+        throws Exception
+    {
+        FileUtils.deleteDirectory( directory );
+    }
+
+    public void testInputsDigest()
+        throws Exception
+    {
+        String digest = cache.getInputsDigest( texFile );
+        assertNotNull( digest );
+
+        FileUtils.writeStringToFile( auxFile, FileUtils.readFileToString( auxFile ) + "\\newlabel{end}{{2}{3}}\n" );
+        assertEquals( "other aux entries do not matter", digest, cache.getInputsDigest( texFile ) );
+
+        FileUtils.writeStringToFile( new File( directory, "chapter.aux" ), "\\relax\n\\citation{lamport86}\n" );
+        String changedCitations = cache.getInputsDigest( texFile );
+        assertFalse( digest.equals( changedCitations ) );
+
+        FileUtils.writeStringToFile( bibFile, "@book{knuth84, title={The TeXbook}}" );
+        assertFalse( changedCitations.equals( cache.getInputsDigest( texFile ) ) );
+    }
+
+    public void testNoBibliography()
+        throws Exception
+    {
+        FileUtils.writeStringToFile( auxFile, "\\relax\n\\newlabel{intro}{{1}{1}}\n" );
+        assertNull( cache.getInputsDigest( texFile ) );
+        auxFile.delete();
+        assertNull( cache.getInputsDigest( texFile ) );
+    }
+
+    public void testStoreAndRestore()
+        throws Exception
+    {
+        String digest = cache.getInputsDigest( texFile );
+        File bblFile = cache.getBblFile( texFile );
+        assertFalse( cache.contains( digest ) );
+
+        FileUtils.writeStringToFile( bblFile, "\\begin{thebibliography}{1}" );
+        cache.store( digest, bblFile );
+        assertTrue( cache.contains( digest ) );
+        assertFalse( cache.restore( digest, bblFile ) );
+
+        bblFile.delete();
+        assertTrue( cache.restore( digest, bblFile ) );
+        assertEquals( "\\begin{thebibliography}{1}", FileUtils.readFileToString( bblFile ) );
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * The akquinet maven-latex-plugin project
+ *
+ * Copyright (c) 2011 by akquinet tech@spree GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.m2latex.mojo;
+
+import java.io.File;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+
+public class BuildMetricsTest
+    extends TestCase
+{
+    private File directory = new File( System.getProperty( "java.io.tmpdir" ), "m2latex-metrics-test" );
+
+    private BuildMetrics metrics = new BuildMetrics( directory );
+
+    protected void tearDown()
+        throws Exception
+    {
+        FileUtils.deleteDirectory( directory );
+    }
+
+    public void testRecordsStagesPerDocument()
+        throws Exception
+    {
+        File texFile = new File( directory, "sub/doc.tex" );
+        metrics.startExternal( texFile, BuildMetrics.STAGE_LATEX ).stop();
+        metrics.startExternal( texFile, BuildMetrics.STAGE_LATEX ).stop();
+        metrics.start( null, BuildMetrics.STAGE_STAGING ).stop();
+
+        assertEquals( 2, metrics.getStageMetrics( texFile, BuildMetrics.STAGE_LATEX ).getRuns() );
+        assertEquals( 1, metrics.getStageMetrics( null, BuildMetrics.STAGE_STAGING ).getRuns() );
+        assertTrue( metrics.getStageMetrics( texFile, BuildMetrics.STAGE_LATEX ).isExternal() );
+        assertFalse( metrics.getStageMetrics( null, BuildMetrics.STAGE_STAGING ).isExternal() );
+        assertNull( metrics.getStageMetrics( texFile, BuildMetrics.STAGE_BIBTEX ) );
+        metrics.logSummary( new SystemStreamLog() );
+
+        File reportFile = new File( directory, "report.json" );
+        metrics.writeReport( reportFile );
+        String report = FileUtils.readFileToString( reportFile );
+        assertTrue( report.indexOf( "\"document\": \"sub" + File.separator + "doc.tex\"" ) >= 0 );
+        assertTrue( report.indexOf( "{ \"stage\": \"latex\", \"runs\": 2, \"wallMillis\": " ) >= 0 );
+        assertTrue( report.indexOf( "\"cpuMillis\": " ) > report.indexOf( "\"stage\": \"staging\"" ) );
+        assertTrue( report.indexOf( "\"document\": \"(all)\"" ) >= 0 );
+    }
+
+    public void testRecordsWaitsForProcessSlots()
+        throws Exception
+    {
+        File texFile = new File( directory, "doc.tex" );
+        BuildMetrics.Timing timing = metrics.startExternal( texFile, BuildMetrics.STAGE_LATEX );
+        metrics.recordWait( 60000 );
+        timing.stop();
+        metrics.recordWait( 1000 );
+
+        assertTrue( metrics.getStageMetrics( texFile, BuildMetrics.STAGE_LATEX ).getWallMillis() < 60000 );
+        assertEquals( 60000, metrics.getWaitMillis( texFile ) );
+        assertEquals( 1, metrics.getStageMetrics( texFile, BuildMetrics.STAGE_WAITING ).getRuns() );
+        assertEquals( 1000, metrics.getWaitMillis( null ) );
+
+        File reportFile = new File( directory, "report.json" );
+        metrics.writeReport( reportFile );
+        String report = FileUtils.readFileToString( reportFile );
+        assertTrue( report.indexOf( "{ \"stage\": \"waiting\", \"runs\": 1, \"wallMillis\": 60000 }" ) >= 0 );
+    }
+}
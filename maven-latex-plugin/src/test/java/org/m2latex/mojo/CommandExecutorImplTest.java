@@ -19,10 +19,13 @@
 package org.m2latex.mojo;
 
 import java.io.File;
+import java.util.Collections;
 
 import junit.framework.TestCase;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.codehaus.plexus.util.cli.CommandLineException;
 
 public class CommandExecutorImplTest
     extends TestCase
@@ -35,4 +38,96 @@ public class CommandExecutorImplTest
         String output = executor.execute( new File( "." ), null, "echo", new String[] { echoText } );
         assertEquals( echoText, output.subSequence( 0, echoText.length() ) );
     }
+
+    public void testExecuteWritesTranscript()
+        throws Exception
+    {
+        File transcriptFile = new File( System.getProperty( "java.io.tmpdir" ), "m2latex-transcript-test.log" );
+        transcriptFile.delete();
+        CommandExecutorImpl executor = new CommandExecutorImpl( new SystemStreamLog(), transcriptFile );
+        executor.execute( new File( "." ), null, "echo", new String[] { "first" } );
+        executor.execute( new File( "." ), null, "echo", new String[] { "second" } );
+        String transcript = FileUtils.readFileToString( transcriptFile );
+        transcriptFile.delete();
+        assertEquals( "> echo first\nfirst\n> echo second\nsecond\n", transcript );
+    }
+
+    public void testExecuteSetsEnvironment()
+        throws Exception
+    {
+        CommandExecutorImpl executor =
+            new CommandExecutorImpl( new SystemStreamLog(), null, Collections.singletonMap( "TEXINPUTS", "/src:" ) );
+        String output = executor.execute( new File( "." ), null, "sh", new String[] { "-c", "echo $TEXINPUTS" } );
+        assertEquals( "/src:", output.trim() );
+    }
+
+    public void testExecuteKillsCommandAfterTimeout()
+        throws Exception
+    {
+        CommandExecutorImpl executor = new CommandExecutorImpl( new SystemStreamLog() );
+        long start = System.currentTimeMillis();
+        try
+        {
+            executor.execute( new File( "." ), null, "sh", new String[] { "-c", "echo started; sleep 30" }, 1 );
+            fail( "CommandLineException expected" );
+        }
+        catch ( CommandLineException e )
+        {
+            assertTrue( e.getMessage().indexOf( "did not finish within 1 seconds" ) >= 0 );
+            assertTrue( e.getMessage().indexOf( "started" ) >= 0 );
+        }
+        assertTrue( System.currentTimeMillis() - start < 10000 );
+    }
+
+    public void testExecuteKillsChildProcessesAfterTimeout()
+        throws Exception
+    {
+        CommandExecutorImpl executor = new CommandExecutorImpl( new SystemStreamLog() );
+        String message = null;
+        try
+        {
+            String script = "sleep 30 & echo child $!; wait";
+            executor.execute( new File( "." ), null, "sh", new String[] { "-c", script }, 1 );
+            fail( "CommandLineException expected" );
+        }
+        catch ( CommandLineException e )
+        {
+            message = e.getMessage();
+        }
+        int start = message.indexOf( "child " ) + "child ".length();
+        String pid = message.substring( start ).trim();
+        // a killed process lingers until its new parent has reaped it
+        long deadline = System.currentTimeMillis() + 5000;
+        while ( Runtime.getRuntime().exec( new String[] { "kill", "-0", pid } ).waitFor() == 0 )
+        {
+            assertTrue( "process " + pid + " still running", System.currentTimeMillis() < deadline );
+            Thread.sleep( 100 );
+        }
+    }
+
+    public void testExecuteDoesNotWaitForChildrenKeepingTheOutputOpen()
+        throws Exception
+    {
+        CommandExecutorImpl executor = new CommandExecutorImpl( new SystemStreamLog() );
+        long start = System.currentTimeMillis();
+        String output = executor.execute( new File( "." ), null, "sh", new String[] { "-c", "sleep 15 & echo done" } );
+        assertEquals( "done", output.trim() );
+        assertTrue( System.currentTimeMillis() - start < 10000 );
+    }
+
+    public void testExecuteAbortsOnFatalError()
+        throws Exception
+    {
+        CommandExecutorImpl executor = new CommandExecutorImpl( new SystemStreamLog() );
+        try
+        {
+            String script = "echo '! Emergency stop.'; sleep 30; true";
+            executor.execute( new File( "." ), null, "sh", new String[] { "-c", script }, 0 );
+            fail( "CommandLineException expected" );
+        }
+        catch ( CommandLineException e )
+        {
+            assertTrue( e.getMessage().indexOf( "! Emergency stop." ) >= 0 );
+        }
+    }
 }
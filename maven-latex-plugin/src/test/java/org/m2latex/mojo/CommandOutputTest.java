@@ -0,0 +1,44 @@
+/*
+ * The akquinet maven-latex-plugin project
+ *
+ * Copyright (c) 2011 by akquinet tech@spree GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.m2latex.mojo;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+
+public class CommandOutputTest
+    extends TestCase
+{
+    public void testKeepsLastLines()
+    {
+        CommandOutput output = new CommandOutput( new SystemStreamLog(), 3, null );
+        output.consumeLine( "1" );
+        output.consumeLine( "2" );
+        assertEquals( Arrays.asList( new String[] { "1", "2" } ), output.getLines() );
+
+        output.consumeLine( "3" );
+        output.consumeLine( "4" );
+        output.consumeLine( "5" );
+        assertEquals( Arrays.asList( new String[] { "3", "4", "5" } ), output.getLines() );
+        assertEquals( "3\n4\n5", output.toString() );
+        assertEquals( Arrays.asList( new String[] { "4", "5" } ), output.getLines( 2 ) );
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * The akquinet maven-latex-plugin project
+ *
+ * Copyright (c) 2011 by akquinet tech@spree GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.m2latex.mojo;
+
+import java.io.File;
+import java.util.Set;
+import java.util.TreeSet;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+
+public class DependencyScannerTest
+    extends TestCase
+{
+    private File directory = new File( System.getProperty( "java.io.tmpdir" ), "m2latex-dependencies-test" )
+        .getAbsoluteFile();
+
+    private DependencyScanner scanner = new DependencyScanner();
+
+    protected void setUp()
+        throws Exception
+    {
+        FileUtils.deleteDirectory( directory );
+        FileUtils.writeStringToFile( new File( directory, "Doc1.tex" ), "\\documentclass{article}\n"
+            + "\\begin{document}\n" + "\\input{subfolder/Doc3}\n" + "% \\input{Unused}\n"
+            + "\\includegraphics[width=2cm]{subfolder/hedgehog}\n" + "\\bibliography{Biblio}\n" + "\\end{document}" );
+        FileUtils.writeStringToFile( new File( directory, "subfolder/Doc3.tex" ), "\\include{Doc1}" );
+        FileUtils.writeStringToFile( new File( directory, "subfolder/hedgehog.jpg" ), "jpg" );
+        FileUtils.writeStringToFile( new File( directory, "Biblio.bib" ), "@book{}" );
+        FileUtils.writeStringToFile( new File( directory, "Unused.tex" ), "" );
+    }
+
+    protected void tearDown()
+        throws Exception
+    {
+        FileUtils.deleteDirectory( directory );
+    }
+
+    public void testScan()
+        throws Exception
+    {
+        Set expected = new TreeSet();
+        expected.add( new File( directory, "Doc1.tex" ).getCanonicalFile() );
+        expected.add( new File( directory, "subfolder/Doc3.tex" ).getCanonicalFile() );
+        expected.add( new File( directory, "subfolder/hedgehog.jpg" ).getCanonicalFile() );
+        expected.add( new File( directory, "Biblio.bib" ).getCanonicalFile() );
+
+        assertEquals( expected, scanner.scan( new File( directory, "Doc1.tex" ) ) );
+    }
+
+    public void testScanPreamble()
+        throws Exception
+    {
+        File texFile = new File( directory, "Doc2.tex" );
+        FileUtils.writeStringToFile( texFile, "\\documentclass{article}\n" + "\\input{Unused}\\begin{document}\n"
+            + "\\input{subfolder/Doc3}\n" + "\\end{document}" );
+
+        Set expected = new TreeSet();
+        expected.add( texFile.getCanonicalFile() );
+        expected.add( new File( directory, "Unused.tex" ).getCanonicalFile() );
+
+        assertEquals( expected, scanner.scanPreamble( texFile ) );
+    }
+
+    public void testScanIncludes()
+        throws Exception
+    {
+        File texFile = new File( directory, "Doc2.tex" );
+        FileUtils.writeStringToFile( texFile, "\\documentclass{article}\n" + "\\begin{document}\n"
+            + "\\input{subfolder/Doc3}\n" + "\\include{Unused}\n" + "\\end{document}" );
+
+        Set expected = new TreeSet();
+        expected.add( new File( directory, "Doc1.tex" ).getCanonicalFile() );
+        expected.add( new File( directory, "Unused.tex" ).getCanonicalFile() );
+
+        assertEquals( expected, scanner.scanIncludes( texFile ) );
+    }
+
+    public void testParseRecorderFile()
+        throws Exception
+    {
+        File recorderFile = new File( directory, "Doc1.fls" );
+        FileUtils.writeStringToFile( recorderFile, "PWD " + directory.getCanonicalPath() + "\n"
+            + "INPUT /usr/share/texmf/tex/latex/base/article.cls\n" + "INPUT Doc1.tex\n" + "OUTPUT Doc1.log\n"
+            + "INPUT Doc1.aux\n" + "OUTPUT Doc1.aux\n" + "INPUT ./subfolder/Doc3.tex\n" );
+
+        Set expected = new TreeSet();
+        expected.add( "Doc1.tex" );
+        expected.add( "subfolder/Doc3.tex" );
+
+        assertEquals( expected, scanner.parseRecorderFile( recorderFile, directory ) );
+    }
+}
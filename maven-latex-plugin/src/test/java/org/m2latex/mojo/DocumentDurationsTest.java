@@ -0,0 +1,86 @@
+/*
+ * The akquinet maven-latex-plugin project
+ *
+ * Copyright (c) 2011 by akquinet tech@spree GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.m2latex.mojo;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+
+public class DocumentDurationsTest
+    extends TestCase
+{
+    private File directory = new File( System.getProperty( "java.io.tmpdir" ), "m2latex-durations-test" );
+
+    private File storeFile = new File( directory, "durations.properties" );
+
+    private File handbook = new File( directory, "Handbook.tex" );
+
+    private File letter = new File( directory, "Letter.tex" );
+
+    private File report = new File( directory, "Report.tex" );
+
+    protected void setUp()
+        throws Exception
+    {
+        FileUtils.deleteDirectory( directory );
+        FileUtils.writeStringToFile( handbook, "0123456789" );
+        FileUtils.writeStringToFile( letter, "01234" );
+        FileUtils.writeStringToFile( report, "0123456789012345678901234567890123456789" );
+    }
+
+    protected void tearDown()
+        throws Exception
+    {
+        FileUtils.deleteDirectory( directory );
+    }
+
+    public void testUnknownDocumentsBySize()
+    {
+        DocumentDurations durations = new DocumentDurations( storeFile, new SystemStreamLog() );
+        durations.load();
+        List sorted = durations.sortLongestFirst( Arrays.asList( new File[] { handbook, letter, report } ),
+                                                  Arrays.asList( new String[] { "Handbook.tex", "Letter.tex",
+                                                      "Report.tex" } ) );
+        assertEquals( Arrays.asList( new File[] { report, handbook, letter } ), sorted );
+    }
+
+    public void testRecordedDurationsFirst()
+    {
+        DocumentDurations durations = new DocumentDurations( storeFile, new SystemStreamLog() );
+        durations.record( "Handbook.tex", 60000 );
+        durations.record( "Letter.tex", 500 );
+        durations.save();
+
+        DocumentDurations loaded = new DocumentDurations( storeFile, new SystemStreamLog() );
+        loaded.load();
+        assertEquals( 60000, loaded.getDuration( "Handbook.tex" ) );
+        assertEquals( -1, loaded.getDuration( "Report.tex" ) );
+        // the report is estimated at 4 times the time per byte of the handbook and the letter
+        List sorted = loaded.sortLongestFirst( Arrays.asList( new File[] { letter, report, handbook } ),
+                                               Arrays.asList( new String[] { "Letter.tex", "Report.tex",
+                                                   "Handbook.tex" } ) );
+        assertEquals( Arrays.asList( new File[] { report, handbook, letter } ), sorted );
+    }
+}
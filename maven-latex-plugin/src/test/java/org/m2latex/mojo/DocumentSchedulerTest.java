@@ -0,0 +1,330 @@
+/*
+ * The akquinet maven-latex-plugin project
+ *
+ * Copyright (c) 2011 by akquinet tech@spree GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.m2latex.mojo;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.codehaus.plexus.util.cli.CommandLineException;
+
+public class DocumentSchedulerTest
+    extends TestCase
+{
+    private final List messages = new ArrayList();
+
+    private final Log log = new SystemStreamLog()
+    {
+        public void info( CharSequence content )
+        {
+            messages.add( content.toString() );
+        }
+    };
+
+    private final List texFiles = Arrays.asList( new File[] {
+        new File( "doc1.tex" ),
+        new File( "doc2.tex" ),
+        new File( "doc3.tex" ) } );
+
+    public void testLogOutputIsInDocumentOrder()
+        throws Exception
+    {
+        DocumentScheduler scheduler = new DocumentScheduler( 3, log );
+        scheduler.processAll( texFiles, new DocumentScheduler.DocumentTask()
+        {
+            public void process( File texFile, Log documentLog )
+            {
+                if ( texFile.getName().equals( "doc1.tex" ) )
+                {
+                    sleep( 200 );
+                }
+                documentLog.info( texFile.getName() + " start" );
+                documentLog.info( texFile.getName() + " end" );
+            }
+        } );
+
+        assertEquals( Arrays.asList( new String[] {
+            "doc1.tex start",
+            "doc1.tex end",
+            "doc2.tex start",
+            "doc2.tex end",
+            "doc3.tex start",
+            "doc3.tex end" } ), messages );
+    }
+
+    public void testDebugOutputIsNotBuffered()
+        throws Exception
+    {
+        final List debugMessages = new ArrayList();
+        Log debugLog = new SystemStreamLog()
+        {
+            public boolean isDebugEnabled()
+            {
+                return true;
+            }
+
+            public void debug( CharSequence content )
+            {
+                add( debugMessages, content.toString() );
+            }
+        };
+        DocumentScheduler scheduler = new DocumentScheduler( 2, debugLog );
+        scheduler.processAll( texFiles.subList( 0, 2 ), new DocumentScheduler.DocumentTask()
+        {
+            public void process( File texFile, Log documentLog )
+            {
+                documentLog.debug( texFile.getName() + " output" );
+                synchronized ( debugMessages )
+                {
+                    assertTrue( debugMessages.contains( texFile.getName() + " output" ) );
+                }
+            }
+        } );
+    }
+
+    public void testDocumentsOfAUnitAreProcessedOneAfterAnother()
+        throws Exception
+    {
+        final List events = new ArrayList();
+        Map units = new HashMap();
+        units.put( texFiles.get( 0 ), "unit" );
+        units.put( texFiles.get( 2 ), "unit" );
+        DocumentScheduler scheduler = new DocumentScheduler( 3, log );
+        scheduler.setUnits( units );
+        scheduler.processAll( texFiles, new DocumentScheduler.DocumentTask()
+        {
+            public void process( File texFile, Log documentLog )
+            {
+                add( events, "start " + texFile.getName() );
+                sleep( 100 );
+                add( events, "end " + texFile.getName() );
+            }
+        } );
+
+        assertTrue( events.indexOf( "end doc1.tex" ) < events.indexOf( "start doc3.tex" ) );
+        assertTrue( events.indexOf( "start doc2.tex" ) < events.indexOf( "end doc1.tex" ) );
+    }
+
+    public void testFailuresAreAggregated()
+        throws Exception
+    {
+        final List processed = new ArrayList();
+        DocumentScheduler scheduler = new DocumentScheduler( 2, log );
+        try
+        {
+            scheduler.processAll( texFiles, new DocumentScheduler.DocumentTask()
+            {
+                public void process( File texFile, Log documentLog )
+                    throws CommandLineException, MojoExecutionException
+                {
+                    synchronized ( processed )
+                    {
+                        processed.add( texFile );
+                    }
+                    if ( !texFile.getName().equals( "doc2.tex" ) )
+                    {
+                        throw new MojoExecutionException( "failed " + texFile.getName() );
+                    }
+                }
+            } );
+            fail( "MojoExecutionException expected" );
+        }
+        catch ( MojoExecutionException e )
+        {
+            assertEquals( 3, processed.size() );
+            assertTrue( e.getMessage().indexOf( "failed doc1.tex" ) >= 0 );
+            assertTrue( e.getMessage().indexOf( "failed doc3.tex" ) >= 0 );
+        }
+    }
+
+    public void testSingleFailureIsRethrown()
+        throws Exception
+    {
+        final MojoFailureException failure = new MojoFailureException( "failed" );
+        DocumentScheduler scheduler = new DocumentScheduler( 1, log );
+        try
+        {
+            scheduler.processAll( texFiles.subList( 0, 1 ), new DocumentScheduler.DocumentTask()
+            {
+                public void process( File texFile, Log documentLog )
+                    throws MojoFailureException
+                {
+                    throw failure;
+                }
+            } );
+            fail( "MojoFailureException expected" );
+        }
+        catch ( MojoFailureException e )
+        {
+            assertSame( failure, e );
+        }
+    }
+
+    public void testPipelineStagesOverlapWithProcessing()
+        throws Exception
+    {
+        final List events = new ArrayList();
+        DocumentScheduler scheduler = new DocumentScheduler( 1, log );
+        DocumentScheduler.DocumentTask publish = new DocumentScheduler.DocumentTask()
+        {
+            public void process( File texFile, Log stageLog )
+                throws MojoExecutionException
+            {
+                if ( texFile.getName().equals( "doc1.tex" ) )
+                {
+                    sleep( 200 );
+                }
+                add( events, "publish " + texFile.getName() );
+                if ( texFile.getName().equals( "doc2.tex" ) )
+                {
+                    throw new MojoExecutionException( "failed publishing doc2.tex" );
+                }
+            }
+        };
+        DocumentScheduler.DocumentTask cleanUp = new DocumentScheduler.DocumentTask()
+        {
+            public void process( File texFile, Log stageLog )
+            {
+                add( events, "clean " + texFile.getName() );
+            }
+        };
+        try
+        {
+            scheduler.processAll( texFiles, new DocumentScheduler.DocumentTask()
+            {
+                public void process( File texFile, Log documentLog )
+                {
+                    add( events, "process " + texFile.getName() );
+                }
+            }, new DocumentScheduler.DocumentTask[] { publish, cleanUp } );
+            fail( "MojoExecutionException expected" );
+        }
+        catch ( MojoExecutionException e )
+        {
+            assertEquals( "failed publishing doc2.tex", e.getMessage() );
+        }
+
+        // the next documents are processed while the first one is still published
+        assertTrue( events.indexOf( "process doc2.tex" ) < events.indexOf( "publish doc1.tex" ) );
+        assertTrue( events.indexOf( "publish doc1.tex" ) < events.indexOf( "clean doc1.tex" ) );
+        assertTrue( events.contains( "publish doc2.tex" ) );
+        assertFalse( "failed documents skip the remaining stages", events.contains( "clean doc2.tex" ) );
+        assertTrue( events.contains( "clean doc3.tex" ) );
+    }
+
+    public void testPipelineSurvivesErrorsInStages()
+        throws Exception
+    {
+        final List published = new ArrayList();
+        DocumentScheduler scheduler = new DocumentScheduler( 1, log );
+        DocumentScheduler.DocumentTask publish = new DocumentScheduler.DocumentTask()
+        {
+            public void process( File texFile, Log stageLog )
+            {
+                if ( texFile.getName().equals( "doc1.tex" ) )
+                {
+                    throw new OutOfMemoryError( "publishing doc1.tex" );
+                }
+                add( published, texFile.getName() );
+            }
+        };
+        try
+        {
+            scheduler.processAll( texFiles, new DocumentScheduler.DocumentTask()
+            {
+                public void process( File texFile, Log documentLog )
+                {
+                }
+            }, new DocumentScheduler.DocumentTask[] { publish } );
+            fail( "MojoExecutionException expected" );
+        }
+        catch ( MojoExecutionException e )
+        {
+            assertTrue( e.getCause() instanceof OutOfMemoryError );
+        }
+        assertEquals( Arrays.asList( new String[] { "doc2.tex", "doc3.tex" } ), published );
+    }
+
+    public void testPipelineOutputIsInDocumentOrder()
+        throws Exception
+    {
+        DocumentScheduler scheduler = new DocumentScheduler( 3, log );
+        DocumentScheduler.DocumentTask publish = new DocumentScheduler.DocumentTask()
+        {
+            public void process( File texFile, Log stageLog )
+            {
+                stageLog.info( "publish " + texFile.getName() );
+            }
+        };
+        DocumentScheduler.DocumentTask cleanUp = new DocumentScheduler.DocumentTask()
+        {
+            public void process( File texFile, Log stageLog )
+            {
+                stageLog.info( "clean " + texFile.getName() );
+            }
+        };
+        scheduler.processAll( texFiles, new DocumentScheduler.DocumentTask()
+        {
+            public void process( File texFile, Log documentLog )
+            {
+                if ( texFile.getName().equals( "doc1.tex" ) )
+                {
+                    sleep( 200 );
+                }
+            }
+        }, new DocumentScheduler.DocumentTask[] { publish, cleanUp } );
+
+        assertEquals( Arrays.asList( new String[] {
+            "publish doc1.tex",
+            "clean doc1.tex",
+            "publish doc2.tex",
+            "clean doc2.tex",
+            "publish doc3.tex",
+            "clean doc3.tex" } ), messages );
+    }
+
+    private static void add( List events, String event )
+    {
+        synchronized ( events )
+        {
+            events.add( event );
+        }
+    }
+
+    private static void sleep( long millis )
+    {
+        try
+        {
+            Thread.sleep( millis );
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
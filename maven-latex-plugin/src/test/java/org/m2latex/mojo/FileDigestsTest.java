@@ -0,0 +1,67 @@
+/*
+ * The akquinet maven-latex-plugin project
+ *
+ * Copyright (c) 2011 by akquinet tech@spree GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.m2latex.mojo;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+
+public class FileDigestsTest
+    extends TestCase
+{
+    private File directory = new File( System.getProperty( "java.io.tmpdir" ), "m2latex-digests-test" );
+
+    private File texFile = new File( directory, "doc.tex" );
+
+    protected void setUp()
+        throws Exception
+    {
+        FileUtils.writeStringToFile( texFile, "\\begin{document}\\end{document}" );
+    }
+
+    protected void tearDown()
+        throws Exception
+    {
+        FileUtils.deleteDirectory( directory );
+    }
+
+    public void testFingerprintDependsOnParametersAndContent()
+        throws Exception
+    {
+        List files = Arrays.asList( new File[] { texFile } );
+        String fingerprint = new FileDigests().getFingerprint( new String[] { "pdflatex" }, files, directory );
+        assertEquals( fingerprint, new FileDigests().getFingerprint( new String[] { "pdflatex" }, files, directory ) );
+        assertFalse( fingerprint.equals( new FileDigests().getFingerprint( new String[] { "latex" }, files,
+                                                                           directory ) ) );
+
+        FileUtils.writeStringToFile( texFile, "\\begin{document}Changed\\end{document}" );
+        assertFalse( fingerprint.equals( new FileDigests().getFingerprint( new String[] { "pdflatex" }, files,
+                                                                           directory ) ) );
+    }
+
+    public void testMissingFileHasEmptyDigest()
+        throws Exception
+    {
+        assertEquals( "", new FileDigests().getDigest( new File( directory, "missing.tex" ) ) );
+    }
+}
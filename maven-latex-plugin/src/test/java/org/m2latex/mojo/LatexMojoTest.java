@@ -0,0 +1,97 @@
+/*
+ * The akquinet maven-latex-plugin project
+ *
+ * Copyright (c) 2011 by akquinet tech@spree GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.m2latex.mojo;
+
+import java.io.File;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+
+public class LatexMojoTest
+    extends TestCase
+{
+    private File directory = new File( System.getProperty( "java.io.tmpdir" ), "m2latex-mojo-test" );
+
+    private File texDirectory = new File( directory, "tex" );
+
+    private File cacheDirectory = new File( directory, "cache" );
+
+    private int compilations;
+
+    protected void setUp()
+        throws Exception
+    {
+        FileUtils.deleteDirectory( directory );
+        FileUtils.writeStringToFile( new File( texDirectory, "doc.tex" ),
+                                     "\\documentclass{article}\n\\begin{document}\nText\n\\end{document}\n" );
+        FileUtils.writeStringToFile( new File( texDirectory, "data.csv" ), "1,2" );
+    }
+
+    protected void tearDown()
+        throws Exception
+    {
+        FileUtils.deleteDirectory( directory );
+    }
+
+    public void testOutputCacheIgnoresRecordedDependencies()
+        throws Exception
+    {
+        createMojo( new File( directory, "module1" ) ).execute();
+        assertEquals( 1, compilations );
+        assertTrue( new File( directory, "module1/site/doc.pdf" ).exists() );
+
+        // a fresh module has not recorded the input data.csv, which only the recorder file of the first one lists
+        createMojo( new File( directory, "module2" ) ).execute();
+        assertEquals( 1, compilations );
+        assertEquals( "pdf", FileUtils.readFileToString( new File( directory, "module2/site/doc.pdf" ) ) );
+    }
+
+    private LatexMojo createMojo( File moduleDirectory )
+    {
+        LatexMojo mojo = new LatexMojo()
+        {
+            protected void processDocument( File texFile, LatexProcessor processor, TexFileUtils texFileUtils,
+                                            Log documentLog )
+                throws MojoExecutionException
+            {
+                compilations++;
+                try
+                {
+                    FileUtils.writeStringToFile( new File( texFile.getParentFile(), "doc.pdf" ), "pdf" );
+                    FileUtils.writeStringToFile( new File( texFile.getParentFile(), "doc.fls" ),
+                                                 "PWD " + texFile.getParent() + "\nINPUT doc.tex\nINPUT data.csv\n" );
+                }
+                catch ( IOException e )
+                {
+                    throw new MojoExecutionException( "Error writing the output", e );
+                }
+            }
+        };
+        mojo.baseDirectory = moduleDirectory;
+        mojo.targetDirectory = new File( moduleDirectory, "target" );
+        mojo.targetSiteDirectory = new File( moduleDirectory, "site" );
+        mojo.pluginVersion = "1.0";
+        mojo.settings = new Settings().setTexDirectory( texDirectory ).setOutputCacheDirectory( cacheDirectory );
+        return mojo;
+    }
+}
@@ -19,13 +19,16 @@
 package org.m2latex.mojo;
 
 import java.io.File;
+import java.util.ArrayList;
 
 import junit.framework.TestCase;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.logging.Log;
 import org.apache.maven.plugin.logging.SystemStreamLog;
 import org.codehaus.plexus.util.cli.CommandLineException;
+import org.easymock.AbstractMatcher;
 import org.easymock.MockControl;
 
 public class LatexProcessorTest
@@ -49,7 +52,7 @@ public class LatexProcessorTest
 
     private File auxFile = new File( System.getProperty( "tmp.dir" ), "test.aux" );
 
-    private File tex4htDir = new File( "m2latex", TexFileUtils.TEX4HT_OUTPUT_DIR );
+    private File tex4htDir = new File( new File( texFile.getParentFile(), TexFileUtils.TEX4HT_OUTPUT_DIR ), "test" );
 
     private String[] latexArgsExpected = new String[] { "-interaction=nonstopmode", "--src-specials", texFile.getName() };
 
@@ -63,9 +66,7 @@ public class LatexProcessorTest
     public void testProcessLatexSimple()
         throws Exception
     {
-        mockRunLatex();
-        mockNeedBibtexRun( false );
-        mockNeedAnotherLatexRun( false );
+        mockRunLatex( false, false );
 
         replay();
 
@@ -77,14 +78,86 @@ public class LatexProcessorTest
     public void testProcessLatexWithBibtex()
         throws Exception
     {
-        mockRunLatex();
-        mockNeedBibtexRun( true );
+        mockRunLatex( true, true );
         mockRunBibtex();
-        mockNeedAnotherLatexRun( true );
-        mockRunLatex();
-        mockNeedAnotherLatexRun( true );
-        mockRunLatex();
-        mockNeedAnotherLatexRun( false );
+        mockRunLatex( false, true );
+        mockRunLatex( false, false );
+
+        replay();
+
+        processor.processLatex( texFile );
+
+        verify();
+    }
+
+    public void testProcessLatexWithCachedBibliography()
+        throws Exception
+    {
+        File cacheDirectory = new File( texFile.getParentFile(), "m2latex-bibliographies-test" );
+        settings.setBibliographyCacheDirectory( cacheDirectory );
+        BibliographyCache bibliographyCache = new BibliographyCache( settings, log );
+        File bblFile = bibliographyCache.getBblFile( texFile );
+        try
+        {
+            FileUtils.writeStringToFile( auxFile, "\\citation{knuth84}\n\\bibdata{refs}\n" );
+            FileUtils.writeStringToFile( bblFile, "\\begin{thebibliography}{1}" );
+            bibliographyCache.store( bibliographyCache.getInputsDigest( texFile ), bblFile );
+            bblFile.delete();
+
+            // no BibTeX run, but a LaTeX run to read the restored bibliography
+            mockRunLatex( true, false );
+            mockRunLatex( false, false );
+
+            replay();
+
+            processor.processLatex( texFile );
+
+            verify();
+            assertTrue( bblFile.exists() );
+        }
+        finally
+        {
+            auxFile.delete();
+            bblFile.delete();
+            FileUtils.deleteDirectory( cacheDirectory );
+        }
+    }
+
+    public void testProcessLatexInPlace()
+        throws Exception
+    {
+        File sourceDirectory = new File( texFile.getParentFile(), "src" );
+        processor.setSourceDirectory( sourceDirectory );
+        String[] args = new String[] {
+            "-output-directory=" + texFile.getAbsoluteFile().getParentFile().getPath(),
+            "-interaction=nonstopmode",
+            "--src-specials",
+            texFile.getName() };
+        executor.execute( sourceDirectory, settings.getTexPath(), settings.getTexCommand(), args,
+                          settings.getLatexTimeout() );
+        executorCtrl.setMatcher( MockControl.ARRAY_MATCHER );
+        executorCtrl.setReturnValue( null );
+        fileUtils.analyzeCorrespondingLogFile( texFile );
+        fileUtilsCtrl.setReturnValue( new LogAnalysis( false, false, new ArrayList() ) );
+
+        replay();
+
+        processor.processLatex( texFile );
+
+        verify();
+    }
+
+    public void testProcessLatexUntilFixpoint()
+        throws Exception
+    {
+        settings.setRerunDetection( LatexProcessor.RERUN_DETECTION_FIXPOINT );
+        mockAuxiliaryFilesDigest( "" );
+        mockRunLatex( false, true );
+        mockAuxiliaryFilesDigest( "1" );
+        mockRunLatex( false, true );
+        mockAuxiliaryFilesDigest( "2" );
+        mockRunLatex( false, true );
+        mockAuxiliaryFilesDigest( "2" );
 
         replay();
 
@@ -96,9 +169,7 @@ public class LatexProcessorTest
     public void testProcessTex4ht()
         throws Exception
     {
-        mockRunLatex();
-        mockNeedBibtexRun( false );
-        mockNeedAnotherLatexRun( false );
+        mockRunLatex( false, false );
         mockRunTex4ht();
 
         replay();
@@ -108,21 +179,41 @@ public class LatexProcessorTest
         verify();
     }
 
-    private void mockNeedAnotherLatexRun( boolean returnValue )
-        throws MojoExecutionException
+    public void testProcessTex4htAfterLatex()
+        throws Exception
     {
-        fileUtils.matchInCorrespondingLogFile( texFile, LatexProcessor.PATTERN_NEED_ANOTHER_LATEX_RUN );
-        fileUtilsCtrl.setReturnValue( returnValue );
+        mockRunTex4ht();
+
+        replay();
+
+        processor.processTex4htAfterLatex( texFile );
+
+        verify();
     }
 
-    private void mockNeedBibtexRun( boolean returnValue )
-        throws MojoExecutionException
+    public void testProcessTex4htDirect()
+        throws Exception
     {
-        fileUtils.getFileNameWithoutSuffix( texFile );
-        fileUtilsCtrl.setReturnValue( texFile.getName().split( "\\." )[0] );
+        settings.setTex4htPipeline( LatexProcessor.TEX4HT_PIPELINE_DIRECT );
+        mockAuxiliaryFilesDigest( "" );
+        mockRunTex4htLatex();
+        mockAuxiliaryFilesDigest( "1" );
+        mockRunTex4htLatex();
+        mockAuxiliaryFilesDigest( "1" );
+        mockRunTex4htPostprocessors();
+
+        replay();
+
+        processor.processTex4ht( texFile );
+
+        verify();
+    }
 
-        fileUtils.matchInCorrespondingLogFile( texFile, "No file test.bbl" );
-        fileUtilsCtrl.setReturnValue( returnValue );
+    private void mockAuxiliaryFilesDigest( String digest )
+        throws MojoExecutionException
+    {
+        fileUtils.getAuxiliaryFilesDigest( texFile );
+        fileUtilsCtrl.setReturnValue( digest );
     }
 
     private void mockRunBibtex()
@@ -132,31 +223,98 @@ public class LatexProcessorTest
         fileUtilsCtrl.setReturnValue( auxFile );
 
         executor.execute( texFile.getParentFile(), settings.getTexPath(), settings.getBibtexCommand(),
-                          new String[] { auxFile.getPath() } );
+                          new String[] { auxFile.getPath() }, settings.getBibtexTimeout() );
         executorCtrl.setMatcher( MockControl.ARRAY_MATCHER );
         executorCtrl.setReturnValue( null );
     }
 
-    private void mockRunLatex()
-        throws CommandLineException
+    private void mockRunLatex( boolean needBibtexRun, boolean needAnotherLatexRun )
+        throws CommandLineException, MojoExecutionException
     {
-        executor.execute( texFile.getParentFile(), settings.getTexPath(), settings.getTexCommand(), latexArgsExpected );
+        executor.execute( texFile.getParentFile(), settings.getTexPath(), settings.getTexCommand(), latexArgsExpected,
+                          settings.getLatexTimeout() );
         executorCtrl.setMatcher( MockControl.ARRAY_MATCHER );
         executorCtrl.setReturnValue( null );
+
+        fileUtils.analyzeCorrespondingLogFile( texFile );
+        fileUtilsCtrl.setReturnValue( new LogAnalysis( needAnotherLatexRun, needBibtexRun, new ArrayList() ) );
     }
 
     private void mockRunTex4ht()
             throws CommandLineException, MojoExecutionException
     {
-        fileUtils.createTex4htOutputDir( tex4htDir.getParentFile() );
+        fileUtils.createTex4htOutputDir( texFile );
         fileUtilsCtrl.setReturnValue( tex4htDir );
 
         executor.execute( texFile.getParentFile(), settings.getTexPath(), settings.getTex4htCommand(),
-                          tex4htArgsExpected );
+                          tex4htArgsExpected, settings.getTex4htTimeout() );
+        executorCtrl.setMatcher( MockControl.ARRAY_MATCHER );
+        executorCtrl.setReturnValue( null );
+    }
+
+    private void mockRunTex4htLatex()
+        throws CommandLineException, MojoExecutionException
+    {
+        String[] args = new String[] { "-interaction=nonstopmode", "--src-specials", null };
+        executor.execute( texFile.getParentFile(), settings.getTexPath(), settings.getTex4htLatexCommand(), args,
+                          settings.getLatexTimeout() );
+        executorCtrl.setMatcher( new Tex4htLatexMatcher() );
+        executorCtrl.setReturnValue( null );
+
+        fileUtils.analyzeCorrespondingLogFile( texFile );
+        fileUtilsCtrl.setReturnValue( new LogAnalysis( false, false, new ArrayList() ) );
+    }
+
+    private void mockRunTex4htPostprocessors()
+        throws CommandLineException, MojoExecutionException
+    {
+        fileUtils.createTex4htOutputDir( texFile );
+        fileUtilsCtrl.setReturnValue( tex4htDir );
+
+        executor.execute( texFile.getParentFile(), settings.getTexPath(), LatexProcessor.TEX4HT_COMMAND,
+                          new String[] { texFile.getName() }, settings.getTex4htTimeout() );
+        executorCtrl.setMatcher( MockControl.ARRAY_MATCHER );
+        executorCtrl.setReturnValue( null );
+
+        executor.execute( texFile.getParentFile(), settings.getTexPath(), LatexProcessor.T4HT_COMMAND,
+                          new String[] { texFile.getName(), "-d" + tex4htDir.getAbsolutePath() + File.separatorChar },
+                          settings.getTex4htTimeout() );
         executorCtrl.setMatcher( MockControl.ARRAY_MATCHER );
         executorCtrl.setReturnValue( null );
     }
 
+    /**
+     * Matches the arguments of a LaTeX run with tex4ht loaded, whose last argument is the tex4ht hook inputting the
+     * document.
+     */
+    private class Tex4htLatexMatcher
+        extends AbstractMatcher
+    {
+        protected boolean argumentMatches( Object expected, Object actual )
+        {
+            if ( !( expected instanceof String[] ) )
+            {
+                return super.argumentMatches( expected, actual );
+            }
+            String[] expectedArgs = (String[]) expected;
+            String[] actualArgs = (String[]) actual;
+            if ( expectedArgs.length != actualArgs.length )
+            {
+                return false;
+            }
+            for ( int i = 0; i < expectedArgs.length - 1; i++ )
+            {
+                if ( !expectedArgs[i].equals( actualArgs[i] ) )
+                {
+                    return false;
+                }
+            }
+            String hook = actualArgs[actualArgs.length - 1];
+            return hook.indexOf( "\\RequirePackage[#1,html]{tex4ht}" ) >= 0
+                && hook.endsWith( "\\HCode html,2.a.b.c.\\input " + texFile.getName() );
+        }
+    }
+
     private void replay()
     {
         executorCtrl.replay();
@@ -0,0 +1,166 @@
+/*
+ * The akquinet maven-latex-plugin project
+ *
+ * Copyright (c) 2011 by akquinet tech@spree GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.m2latex.mojo;
+
+import java.io.File;
+import java.util.Date;
+
+import junit.framework.TestCase;
+
+import org.codehaus.plexus.util.cli.StreamConsumer;
+
+public class LimitedCommandExecutorTest
+    extends TestCase
+{
+    public void testLimitsConcurrentCommands()
+        throws Exception
+    {
+        final ConcurrencyRecorder recorder = new ConcurrencyRecorder();
+        final CommandExecutor executor = new LimitedCommandExecutor( recorder, new ProcessLimiter( 1 ) );
+        Thread[] threads = new Thread[3];
+        for ( int i = 0; i < threads.length; i++ )
+        {
+            threads[i] = new Thread()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        executor.execute( new File( "." ), null, "latex", new String[0] );
+                    }
+                    catch ( Exception e )
+                    {
+                        recorder.failed = true;
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for ( int i = 0; i < threads.length; i++ )
+        {
+            threads[i].join();
+        }
+        assertFalse( recorder.failed );
+        assertEquals( 3, recorder.executions );
+        assertEquals( 1, recorder.maxRunning );
+    }
+
+    public void testWaitIsNotCountedAsCommandTime()
+        throws Exception
+    {
+        final ProcessLimiter limiter = new ProcessLimiter( 1 );
+        BuildMetrics metrics = new BuildMetrics( null );
+        CommandExecutor executor = new LimitedCommandExecutor( new ConcurrencyRecorder(), limiter, metrics );
+        limiter.acquire( "latex" );
+        new Thread()
+        {
+            public void run()
+            {
+                try
+                {
+                    Thread.sleep( 500 );
+                }
+                catch ( InterruptedException e )
+                {
+                    // release right away
+                }
+                limiter.release();
+            }
+        }.start();
+
+        File texFile = new File( "doc.tex" );
+        BuildMetrics.Timing timing = metrics.startExternal( texFile, BuildMetrics.STAGE_LATEX );
+        executor.execute( new File( "." ), null, "latex", new String[0] );
+        timing.stop();
+        assertTrue( metrics.getWaitMillis( texFile ) >= 400 );
+        assertTrue( metrics.getStageMetrics( texFile, BuildMetrics.STAGE_LATEX ).getWallMillis() < 400 );
+    }
+
+    public void testSharedInstanceKeepsFirstLimit()
+    {
+        Date buildStartTime = new Date();
+        ProcessLimiter limiter = ProcessLimiter.getSharedInstance( buildStartTime, 2 );
+        assertSame( limiter, ProcessLimiter.getSharedInstance( buildStartTime, 3 ) );
+        assertEquals( 2, limiter.getMaxProcesses() );
+    }
+
+    public void testEachBuildHasItsOwnLimiter()
+    {
+        ProcessLimiter limiter = ProcessLimiter.getSharedInstance( new Date( 1000 ), 2 );
+        ProcessLimiter nextLimiter = ProcessLimiter.getSharedInstance( new Date( 2000 ), 3 );
+        assertNotSame( limiter, nextLimiter );
+        assertEquals( 3, nextLimiter.getMaxProcesses() );
+    }
+
+    private static class ConcurrencyRecorder
+        implements CommandExecutor
+    {
+        int running;
+
+        int maxRunning;
+
+        int executions;
+
+        volatile boolean failed;
+
+        public String execute( File workingDir, File pathToExecutable, String executable, String[] args )
+        {
+            return execute( workingDir, pathToExecutable, executable, args, 0 );
+        }
+
+        public String execute( File workingDir, File pathToExecutable, String executable, String[] args,
+                               int timeout )
+        {
+            synchronized ( this )
+            {
+                running++;
+                executions++;
+                maxRunning = Math.max( maxRunning, running );
+            }
+            try
+            {
+                Thread.sleep( 50 );
+            }
+            catch ( InterruptedException e )
+            {
+                failed = true;
+            }
+            synchronized ( this )
+            {
+                running--;
+            }
+            return "";
+        }
+
+        public int executeForExitCode( File workingDir, File pathToExecutable, String executable, String[] args,
+                                       int timeout )
+        {
+            execute( workingDir, pathToExecutable, executable, args, timeout );
+            return 0;
+        }
+
+        public int execute( File workingDir, File pathToExecutable, String executable, String[] args,
+                            StreamConsumer output, int timeout )
+        {
+            execute( workingDir, pathToExecutable, executable, args, timeout );
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * The akquinet maven-latex-plugin project
+ *
+ * Copyright (c) 2011 by akquinet tech@spree GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.m2latex.mojo;
+
+import java.io.File;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+
+public class LocalOutputStoreTest
+    extends TestCase
+{
+    private static final String KEY = "0123456789abcdef";
+
+    private File directory = new File( System.getProperty( "java.io.tmpdir" ), "m2latex-store-test" );
+
+    private LocalOutputStore store = new LocalOutputStore( new File( directory, "cache" ), new SystemStreamLog() );
+
+    protected void tearDown()
+        throws Exception
+    {
+        FileUtils.deleteDirectory( directory );
+    }
+
+    public void testStoreAndRestore()
+        throws Exception
+    {
+        File pdfFile = new File( directory, "temp/doc.pdf" );
+        FileUtils.writeStringToFile( pdfFile, "PDF" );
+        File targetDirectory = new File( directory, "site" );
+        assertFalse( store.restore( KEY, targetDirectory ) );
+
+        store.store( KEY, new File[] { pdfFile } );
+        FileUtils.writeStringToFile( pdfFile, "other PDF" );
+        store.store( KEY, new File[] { pdfFile } );
+
+        assertTrue( store.restore( KEY, targetDirectory ) );
+        assertEquals( "PDF", FileUtils.readFileToString( new File( targetDirectory, "doc.pdf" ) ) );
+        assertEquals( 1, new File( directory, "cache/01" ).list().length );
+    }
+
+    public void testMissingOutputIsNotStored()
+        throws Exception
+    {
+        File targetDirectory = new File( directory, "site" );
+        store.store( KEY, new File[] { new File( directory, "temp/doc.pdf" ) } );
+        assertFalse( new File( directory, "cache/01/" + KEY ).exists() );
+
+        // empty entries are misses
+        new File( directory, "cache/01/" + KEY ).mkdirs();
+        assertFalse( store.restore( KEY, targetDirectory ) );
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * The akquinet maven-latex-plugin project
+ *
+ * Copyright (c) 2011 by akquinet tech@spree GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.m2latex.mojo;
+
+import java.io.File;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.plugin.MojoExecutionException;
+
+public class LogAnalyzerTest
+    extends TestCase
+{
+    private File logFile = new File( System.getProperty( "java.io.tmpdir" ), "m2latex-analyzer-test.log" );
+
+    private LogAnalyzer analyzer = new LogAnalyzer();
+
+    protected void tearDown()
+        throws Exception
+    {
+        logFile.delete();
+    }
+
+    public void testAnalyze()
+        throws Exception
+    {
+        FileUtils.writeStringToFile( logFile, "This is pdfTeX\n" + "No file test.bbl.\n"
+            + "! Undefined control sequence.\n" + "l.12 \\foo\n"
+            + "LaTeX Warning: There were undefined references.\n" );
+
+        LogAnalysis analysis = analyzer.analyze( logFile, "test" );
+        assertTrue( analysis.isBibtexRunNeeded() );
+        assertTrue( analysis.isAnotherLatexRunNeeded() );
+        assertEquals( 1, analysis.getErrors().size() );
+        assertEquals( "! Undefined control sequence.", analysis.getErrors().get( 0 ) );
+    }
+
+    public void testAnalyzeCleanLog()
+        throws Exception
+    {
+        FileUtils.writeStringToFile( logFile, "This is pdfTeX\n" + "Output written on test.pdf\n" );
+
+        LogAnalysis analysis = analyzer.analyze( logFile, "test" );
+        assertFalse( analysis.isBibtexRunNeeded() );
+        assertFalse( analysis.isAnotherLatexRunNeeded() );
+        assertFalse( analysis.hasErrors() );
+    }
+
+    public void testDiagnostics()
+        throws Exception
+    {
+        FileUtils.writeStringToFile( logFile, "This is pdfTeX\n"
+            + "(./test.tex (/usr/share/texmf/tex/latex/base/article.cls (size10.clo))\n"
+            + "(./chapter.tex\n"
+            + "! Undefined control sequence.\n"
+            + "l.12 \\foo\n"
+            + "        (unbalanced) text\n"
+            + "Overfull \\hbox (12.0pt too wide) in paragraph at lines 20--22\n"
+            + "[]\\OT1/cmr/m/n/10 (some text) (./figure.tex)\n"
+            + "\n"
+            + ")\n"
+            + "LaTeX Warning: Reference `intro' on page 1 undefined on input line 5.\n"
+            + "\n"
+            + "Package hyperref Warning: Token not allowed in a PDF string,\n"
+            + "(hyperref)                removing `\\foo' on input line 7.\n"
+            + "\n"
+            + "[1] )\n" );
+
+        LogAnalysis analysis = analyzer.analyze( logFile, "test" );
+        List diagnostics = analysis.getDiagnostics();
+        assertEquals( 4, diagnostics.size() );
+        assertEquals( "chapter.tex:12: error: Undefined control sequence.", diagnostics.get( 0 ).toString() );
+        LogDiagnostic badBox = (LogDiagnostic) diagnostics.get( 1 );
+        assertEquals( LogDiagnostic.SEVERITY_BAD_BOX, badBox.getSeverity() );
+        assertEquals( "chapter.tex:20", badBox.getLocation() );
+        LogDiagnostic reference = (LogDiagnostic) diagnostics.get( 2 );
+        assertEquals( LogDiagnostic.SEVERITY_WARNING, reference.getSeverity() );
+        assertEquals( "test.tex:5", reference.getLocation() );
+        assertEquals( "Package hyperref Warning: Token not allowed in a PDF string, removing `\\foo' on input line 7.",
+                      ( (LogDiagnostic) diagnostics.get( 3 ) ).getMessage() );
+        assertEquals( 1, analysis.countDiagnostics( LogDiagnostic.SEVERITY_ERROR ) );
+    }
+
+    public void testWrappedLines()
+        throws Exception
+    {
+        // TeX breaks lines after 79 characters, even within file names and messages
+        String opened = "(./chapters/a-very-long-directory-name-that-does-not-fit-into-one-log-line/intro.tex";
+        String rerun = "Package rerunfilecheck Warning: File `appendix-long-name.out' has changed. Rerun LaTeX.";
+        String fileLineError = "./chapters/intro.tex:3: LaTeX Error: Environment foo undefined.";
+        FileUtils.writeStringToFile( logFile, opened.substring( 0, 79 ) + "\n" + opened.substring( 79 ) + "\n"
+            + rerun.substring( 0, 79 ) + "\n" + rerun.substring( 79 ) + "\n"
+            + "\n"
+            + fileLineError + "\n"
+            + "l.3 \\begin{foo}\n"
+            + ")\n" );
+
+        LogAnalysis analysis = analyzer.analyze( logFile, "test" );
+        assertTrue( analysis.isAnotherLatexRunNeeded() );
+        assertEquals( 1, analysis.getErrors().size() );
+        assertEquals( fileLineError, analysis.getErrors().get( 0 ) );
+        LogDiagnostic warning = (LogDiagnostic) analysis.getDiagnostics().get( 0 );
+        assertEquals( opened.substring( 3 ), warning.getFile() );
+        assertEquals( rerun, warning.getMessage() );
+        LogDiagnostic error = (LogDiagnostic) analysis.getDiagnostics().get( 1 );
+        assertEquals( "chapters/intro.tex:3", error.getLocation() );
+        assertEquals( "LaTeX Error: Environment foo undefined.", error.getMessage() );
+    }
+
+    public void testTriggersAndFilesAfterErrors()
+        throws Exception
+    {
+        FileUtils.writeStringToFile( logFile, "This is pdfTeX\n" + "(./test.tex\n"
+            + "! LaTeX Error: File `missing.sty' not found.\n" + "\n" + "(./chapter.tex\n" + "No file test.bbl.\n"
+            + "LaTeX Warning: There were undefined references.\n" + "! Undefined control sequence.\n"
+            + "l.3 \\foo\n" + "))\n" );
+
+        LogAnalysis analysis = analyzer.analyze( logFile, "test" );
+        assertTrue( analysis.isBibtexRunNeeded() );
+        assertTrue( analysis.isAnotherLatexRunNeeded() );
+        assertEquals( "test.tex", ( (LogDiagnostic) analysis.getDiagnostics().get( 0 ) ).getFile() );
+        assertEquals( "chapter.tex:3", ( (LogDiagnostic) analysis.getDiagnostics().get( 1 ) ).getLocation() );
+    }
+
+    public void testPatterns()
+        throws Exception
+    {
+        FileUtils.writeStringToFile( logFile, "This is pdfTeX\n" + "(./test.tex\n" + "! Undefined control sequence.\n"
+            + "l.3 \\foo\n" + "Package glossaries Warning: Glossary not up to date.\n" + ")\n" );
+
+        LogAnalysis analysis = analyzer.analyze( logFile, "test", new String[] { "glossar[a-z]+ Warning", "nomencl" } );
+        assertTrue( analysis.matches( "glossar[a-z]+ Warning" ) );
+        assertFalse( analysis.matches( "nomencl" ) );
+        assertFalse( analyzer.analyze( logFile, "test" ).matches( "glossar[a-z]+ Warning" ) );
+    }
+
+    public void testUnwrappedLinesOfMaximumLength()
+        throws Exception
+    {
+        String line = "Package foo Info: a message which happens to be exactly 79 characters long.....";
+        assertEquals( 79, line.length() );
+        FileUtils.writeStringToFile( logFile, line + "\n" + "! Undefined control sequence.\n" + "l.12 \\foo\n" );
+
+        LogAnalysis analysis = analyzer.analyze( logFile, "test" );
+        assertEquals( 1, analysis.getErrors().size() );
+        assertEquals( "! Undefined control sequence.", analysis.getErrors().get( 0 ) );
+    }
+
+    public void testMissingLogFile()
+    {
+        try
+        {
+            analyzer.analyze( logFile, "test" );
+            fail( "MojoExecutionException expected" );
+        }
+        catch ( MojoExecutionException e )
+        {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * The akquinet maven-latex-plugin project
+ *
+ * Copyright (c) 2011 by akquinet tech@spree GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.m2latex.mojo;
+
+import java.io.File;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+
+public class MainDocumentDetectorTest
+    extends TestCase
+{
+    private File directory = new File( System.getProperty( "java.io.tmpdir" ), "m2latex-detector-test" );
+
+    private File cacheFile = new File( directory, "cache.properties" );
+
+    private MainDocumentDetector detector = new MainDocumentDetector( new SystemStreamLog(), cacheFile, 2 );
+
+    protected void tearDown()
+        throws Exception
+    {
+        FileUtils.deleteDirectory( directory );
+    }
+
+    public void testIsMainDocument()
+        throws Exception
+    {
+        assertTrue( isMainDocument( "\\documentclass{article}\n\\begin {document}\nText\n\\end{document}" ) );
+        assertTrue( isMainDocument( "\\documentclass{article}\\begin{document}Text\\end{document}" ) );
+        assertFalse( isMainDocument( "% \\begin{document}\n\\section{Chapter}\nText" ) );
+        assertFalse( isMainDocument( "\\section{Chapter}\n\\begin{document}" ) );
+        assertFalse( isMainDocument( "50\\% \\begin{itemize}\\item \\end{itemize}" ) );
+        assertTrue( isMainDocument( "100\\% % comment\n\\begin{document}" ) );
+        assertTrue( isMainDocument( "\\begin{filecontents}{refs.bib}\n\\end{filecontents}\n"
+            + "\\documentclass[\n  a4paper\n]{article}\nText\n\\begin{document}" ) );
+        assertFalse( isMainDocument( "\\begin{figure}\\end{figure}\n\\begin{document}" ) );
+        assertFalse( isMainDocument( "\\label{intro}\nSome text\n\\begin{document}" ) );
+    }
+
+    public void testFindMainDocumentsUsesCache()
+        throws Exception
+    {
+        File main = new File( directory, "tex/Doc1.tex" );
+        File chapter = new File( directory, "tex/subfolder/Chapter.tex" );
+        FileUtils.writeStringToFile( main, "\\documentclass{article}\\begin{document}\\input{subfolder/Chapter}" );
+        FileUtils.writeStringToFile( chapter, "\\section{Chapter}" );
+
+        List mainFiles = detector.findMainDocuments( new File( directory, "tex" ) );
+        assertEquals( 1, mainFiles.size() );
+        assertEquals( main, mainFiles.get( 0 ) );
+        assertTrue( cacheFile.exists() );
+
+        // a cached result is used as long as size and modification time do not change
+        long lastModified = main.lastModified();
+        FileUtils.writeStringToFile( main, "\\documentclass{article}\\begin{documenX}\\input{subfolder/Chapter}" );
+        main.setLastModified( lastModified );
+        assertEquals( 1, detector.findMainDocuments( new File( directory, "tex" ) ).size() );
+    }
+
+    private boolean isMainDocument( String content )
+        throws Exception
+    {
+        File file = new File( directory, "test.tex" );
+        FileUtils.writeStringToFile( file, content );
+        return detector.isMainDocument( file );
+    }
+}
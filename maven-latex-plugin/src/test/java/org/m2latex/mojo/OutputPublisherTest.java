@@ -0,0 +1,68 @@
+/*
+ * The akquinet maven-latex-plugin project
+ *
+ * Copyright (c) 2011 by akquinet tech@spree GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.m2latex.mojo;
+
+import java.io.File;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+
+public class OutputPublisherTest
+    extends TestCase
+{
+    private File directory = new File( System.getProperty( "java.io.tmpdir" ), "m2latex-publisher-test" );
+
+    private File outputDirectory = new File( directory, "out" );
+
+    private File siteDirectory = new File( directory, "site" );
+
+    private OutputPublisher publisher = new OutputPublisher( new SystemStreamLog(), 2 );
+
+    protected void tearDown()
+        throws Exception
+    {
+        FileUtils.deleteDirectory( directory );
+    }
+
+    public void testPublishKeepsUnchangedFiles()
+        throws Exception
+    {
+        File page = new File( outputDirectory, "doc.html" );
+        File image = new File( outputDirectory, "images/doc0x.png" );
+        FileUtils.writeStringToFile( page, "<html/>" );
+        FileUtils.writeStringToFile( image, "PNG" );
+        page.setLastModified( 1000000000000L );
+
+        publisher.publish( outputDirectory.listFiles(), siteDirectory );
+        File publishedPage = new File( siteDirectory, "doc.html" );
+        assertEquals( "<html/>", FileUtils.readFileToString( publishedPage ) );
+        assertEquals( "PNG", FileUtils.readFileToString( new File( siteDirectory, "images/doc0x.png" ) ) );
+        assertEquals( page.lastModified(), publishedPage.lastModified() );
+
+        publishedPage.setLastModified( 1100000000000L );
+        publisher.publish( outputDirectory.listFiles(), siteDirectory );
+        assertEquals( 1100000000000L, publishedPage.lastModified() );
+
+        FileUtils.writeStringToFile( page, "<html></html>" );
+        publisher.publish( outputDirectory.listFiles(), siteDirectory );
+        assertEquals( "<html></html>", FileUtils.readFileToString( publishedPage ) );
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * The akquinet maven-latex-plugin project
+ *
+ * Copyright (c) 2011 by akquinet tech@spree GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.m2latex.mojo;
+
+import java.io.File;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.codehaus.plexus.util.cli.StreamConsumer;
+
+public class PreambleFormatCacheTest
+    extends TestCase
+{
+    private File directory = new File( System.getProperty( "java.io.tmpdir" ), "m2latex-format-test" );
+
+    private File texFile = new File( directory, "tex/test.tex" );
+
+    private Settings settings = new Settings().setTargetDirectory( new File( directory, "target" ) );
+
+    private int dumps;
+
+    private PreambleFormatCache formatCache =
+        new PreambleFormatCache( settings, new FormatExecutor(), new SystemStreamLog() );
+
+    protected void tearDown()
+        throws Exception
+    {
+        FileUtils.deleteDirectory( directory );
+    }
+
+    public void testPreambleKeyIgnoresBody()
+        throws Exception
+    {
+        String key = getPreambleKey( "\\documentclass{article}\n\\begin{document}\nText\n\\end{document}" );
+        assertEquals( key, getPreambleKey( "\\documentclass{article}\n\\begin{document}\nOther\n\\end{document}" ) );
+        assertFalse( key.equals( getPreambleKey( "\\documentclass{book}\n\\begin{document}\nText" ) ) );
+
+        FileUtils.writeStringToFile( new File( directory, "tex/local.sty" ), "\\def\\x{}" );
+        assertFalse( key.equals( getPreambleKey( "\\documentclass{article}\n\\begin{document}\nText" ) ) );
+    }
+
+    public void testPreambleKeyCoversInputFiles()
+        throws Exception
+    {
+        File macroFile = new File( directory, "tex/macros.tex" );
+        FileUtils.writeStringToFile( macroFile, "\\newcommand{\\x}{a}" );
+        String preamble = "\\documentclass{article}\n\\input{macros}\n\\begin{document}\n\\input{chapter}\n";
+        String key = getPreambleKey( preamble );
+
+        FileUtils.writeStringToFile( new File( directory, "tex/chapter.tex" ), "Text" );
+        assertEquals( key, getPreambleKey( preamble ) );
+
+        FileUtils.writeStringToFile( macroFile, "\\newcommand{\\x}{b}" );
+        assertFalse( key.equals( getPreambleKey( preamble ) ) );
+    }
+
+    public void testFormatIsDumpedOnce()
+        throws Exception
+    {
+        FileUtils.writeStringToFile( texFile, "\\documentclass{article}\n\\begin{document}\nText\n\\end{document}" );
+        File format = formatCache.getFormat( texFile );
+        assertEquals( settings.getFormatCacheDirectory(), format.getParentFile() );
+        assertTrue( new File( format.getPath() + ".fmt" ).exists() );
+        assertFalse( new File( texFile.getParentFile(), format.getName() + ".fmt" ).exists() );
+
+        assertEquals( format, formatCache.getFormat( texFile ) );
+        assertEquals( 1, dumps );
+    }
+
+    public void testPreambleKeyCoversToolchainVersion()
+        throws Exception
+    {
+        formatCache.setToolchainVersion( "pdfTeX 3.14" );
+        String key = getPreambleKey( "\\documentclass{article}\n\\begin{document}\nText" );
+        formatCache.setToolchainVersion( "pdfTeX 3.141" );
+        assertFalse( key.equals( getPreambleKey( "\\documentclass{article}\n\\begin{document}\nText" ) ) );
+    }
+
+    public void testDiscard()
+        throws Exception
+    {
+        FileUtils.writeStringToFile( texFile, "\\documentclass{article}\n\\begin{document}\nText\n\\end{document}" );
+        File format = formatCache.getFormat( texFile );
+        assertTrue( formatCache.exists( format ) );
+        formatCache.discard( format );
+        assertFalse( formatCache.exists( format ) );
+
+        assertEquals( format, formatCache.getFormat( texFile ) );
+        assertEquals( 2, dumps );
+    }
+
+    private String getPreambleKey( String content )
+        throws Exception
+    {
+        FileUtils.writeStringToFile( texFile, content );
+        return formatCache.getPreambleKey( texFile );
+    }
+
+    /**
+     * Writes the format file instead of running TeX.
+     */
+    private class FormatExecutor
+        implements CommandExecutor
+    {
+        public String execute( File workingDir, File pathToExecutable, String executable, String[] args )
+        {
+            return execute( workingDir, pathToExecutable, executable, args, 0 );
+        }
+
+        public String execute( File workingDir, File pathToExecutable, String executable, String[] args,
+                               int timeout )
+        {
+            dumps++;
+            String jobName = args[2].substring( "-jobname=".length() );
+            try
+            {
+                FileUtils.writeStringToFile( new File( workingDir, jobName + ".fmt" ), "format" );
+            }
+            catch ( IOException e )
+            {
+                throw new IllegalStateException( e.toString() );
+            }
+            return "";
+        }
+
+        public int executeForExitCode( File workingDir, File pathToExecutable, String executable, String[] args,
+                                       int timeout )
+        {
+            execute( workingDir, pathToExecutable, executable, args, timeout );
+            return 0;
+        }
+
+        public int execute( File workingDir, File pathToExecutable, String executable, String[] args,
+                            StreamConsumer output, int timeout )
+        {
+            execute( workingDir, pathToExecutable, executable, args, timeout );
+            return 0;
+        }
+    }
+}
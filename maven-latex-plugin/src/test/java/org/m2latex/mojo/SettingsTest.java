@@ -33,4 +33,16 @@ public class SettingsTest
         assertNotNull( settings.getBaseDirectory() );
 
     }
+
+    public void testOutputTargetArguments()
+        throws Exception
+    {
+        Settings settings = new Settings();
+        String[] args = new String[] { "html,1", "", "", "" };
+
+        assertSame( settings, new OutputTarget().applyTo( settings ) );
+        Settings targetSettings = new OutputTarget().setTex4htCommandArgs( args ).applyTo( settings );
+        assertSame( args, targetSettings.getTex4htCommandArgs() );
+        assertEquals( "html,2", settings.getTex4htCommandArgs()[0] );
+    }
 }
@@ -0,0 +1,135 @@
+/*
+ * The akquinet maven-latex-plugin project
+ *
+ * Copyright (c) 2011 by akquinet tech@spree GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.m2latex.mojo;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+
+public class SourceStagerTest
+    extends TestCase
+{
+    private File directory = new File( System.getProperty( "java.io.tmpdir" ), "m2latex-stager-test" );
+
+    private File texDirectory = new File( directory, "tex" );
+
+    private File tempDirectory = new File( directory, "m2latex" );
+
+    private SourceStager stager = new SourceStager( new SystemStreamLog() );
+
+    protected void setUp()
+        throws Exception
+    {
+        FileUtils.deleteDirectory( directory );
+        FileUtils.writeStringToFile( new File( texDirectory, "Doc1.tex" ), "doc1" );
+        FileUtils.writeStringToFile( new File( texDirectory, "subfolder/Doc3.tex" ), "doc3" );
+    }
+
+    protected void tearDown()
+        throws Exception
+    {
+        FileUtils.deleteDirectory( directory );
+    }
+
+    public void testSync()
+        throws Exception
+    {
+        stager.sync( texDirectory, tempDirectory, false );
+        assertEquals( "doc1", FileUtils.readFileToString( new File( tempDirectory, "Doc1.tex" ) ) );
+        assertEquals( "doc3", FileUtils.readFileToString( new File( tempDirectory, "subfolder/Doc3.tex" ) ) );
+
+        File auxFile = new File( tempDirectory, "Doc1.aux" );
+        FileUtils.writeStringToFile( auxFile, "aux" );
+        new File( texDirectory, "subfolder/Doc3.tex" ).delete();
+        File doc1 = new File( texDirectory, "Doc1.tex" );
+        FileUtils.writeStringToFile( doc1, "doc1 changed" );
+        doc1.setLastModified( doc1.lastModified() + 2000 );
+
+        stager.sync( texDirectory, tempDirectory, false );
+        assertEquals( "doc1 changed", FileUtils.readFileToString( new File( tempDirectory, "Doc1.tex" ) ) );
+        assertFalse( new File( tempDirectory, "subfolder/Doc3.tex" ).exists() );
+        assertTrue( auxFile.exists() );
+    }
+
+    public void testMirrorDirectories()
+        throws Exception
+    {
+        stager.mirrorDirectories( texDirectory, tempDirectory );
+        assertTrue( new File( tempDirectory, "subfolder" ).isDirectory() );
+        assertFalse( new File( tempDirectory, "Doc1.tex" ).exists() );
+        assertFalse( new File( tempDirectory, "subfolder/Doc3.tex" ).exists() );
+    }
+
+    public void testUnchangedFilesAreNotCopied()
+        throws Exception
+    {
+        stager.sync( texDirectory, tempDirectory, true );
+        File stagedFile = new File( tempDirectory, "Doc1.tex" );
+        long lastModified = stagedFile.lastModified() - 10000;
+        stagedFile.setLastModified( lastModified );
+
+        File doc1 = new File( texDirectory, "Doc1.tex" );
+        doc1.setLastModified( doc1.lastModified() + 2000 );
+        stager.sync( texDirectory, tempDirectory, true );
+
+        assertEquals( lastModified, stagedFile.lastModified() );
+    }
+
+    public void testStampsAreComparedExactly()
+        throws Exception
+    {
+        stager.sync( texDirectory, tempDirectory, false );
+        File doc1 = new File( texDirectory, "Doc1.tex" );
+        FileUtils.writeStringToFile( doc1, "doc2" );
+
+        // a recorded stamp starting with the current one, e.g. with a longer modification time
+        File manifestFile = new File( tempDirectory, SourceStager.MANIFEST_FILE );
+        Properties manifest = new Properties();
+        InputStream in = new FileInputStream( manifestFile );
+        manifest.load( in );
+        in.close();
+        manifest.setProperty( "Doc1.tex", doc1.length() + ":" + doc1.lastModified() + "1" );
+        OutputStream out = new FileOutputStream( manifestFile );
+        manifest.store( out, null );
+        out.close();
+
+        stager.sync( texDirectory, tempDirectory, false );
+        assertEquals( "doc2", FileUtils.readFileToString( new File( tempDirectory, "Doc1.tex" ) ) );
+    }
+
+    public void testAssetsAreLinked()
+        throws Exception
+    {
+        FileUtils.writeStringToFile( new File( texDirectory, "subfolder/hedgehog.jpg" ), "jpg" );
+        new SourceStager( new SystemStreamLog(), SourceStager.LINKING_SYMLINK ).copy( texDirectory, tempDirectory );
+
+        assertTrue( Files.isSymbolicLink( new File( tempDirectory, "subfolder/hedgehog.jpg" ).toPath() ) );
+        assertFalse( Files.isSymbolicLink( new File( tempDirectory, "subfolder/Doc3.tex" ).toPath() ) );
+        assertEquals( "jpg", FileUtils.readFileToString( new File( tempDirectory, "subfolder/hedgehog.jpg" ) ) );
+    }
+}
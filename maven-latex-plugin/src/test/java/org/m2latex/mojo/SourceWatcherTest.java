@@ -0,0 +1,80 @@
+/*
+ * The akquinet maven-latex-plugin project
+ *
+ * Copyright (c) 2011 by akquinet tech@spree GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.m2latex.mojo;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.TreeSet;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+
+public class SourceWatcherTest
+    extends TestCase
+{
+    private File directory = new File( System.getProperty( "java.io.tmpdir" ), "m2latex-watcher-test" );
+
+    private SourceWatcher watcher;
+
+    protected void setUp()
+        throws Exception
+    {
+        FileUtils.deleteDirectory( directory );
+        FileUtils.writeStringToFile( new File( directory, "Doc1.tex" ), "doc1" );
+        FileUtils.writeStringToFile( new File( directory, "chapters/Chapter1.tex" ), "chapter1" );
+        watcher = new SourceWatcher( directory, 200, new SystemStreamLog() );
+    }
+
+    protected void tearDown()
+        throws Exception
+    {
+        watcher.close();
+        FileUtils.deleteDirectory( directory );
+    }
+
+    public void testAwaitChanges()
+        throws Exception
+    {
+        FileUtils.writeStringToFile( new File( directory, "chapters/Chapter1.tex" ), "chapter1 changed" );
+        FileUtils.writeStringToFile( new File( directory, "Doc1.tex" ), "doc1 changed" );
+        FileUtils.writeStringToFile( new File( directory, ".Doc1.tex.swp" ), "swap" );
+
+        Set expected = new TreeSet( Arrays.asList( new String[] { "Doc1.tex", "chapters/Chapter1.tex" } ) );
+        assertEquals( expected, watcher.awaitChanges() );
+    }
+
+    public void testAwaitChangesInNewDirectory()
+        throws Exception
+    {
+        File newDirectory = new File( directory, "images" );
+        File stagingDirectory = new File( System.getProperty( "java.io.tmpdir" ), "m2latex-watcher-test-images" );
+        FileUtils.writeStringToFile( new File( stagingDirectory, "logo.png" ), "logo" );
+        assertTrue( stagingDirectory.renameTo( newDirectory ) );
+
+        Set expected = new TreeSet( Arrays.asList( new String[] { "images/logo.png" } ) );
+        assertEquals( expected, watcher.awaitChanges() );
+
+        FileUtils.writeStringToFile( new File( newDirectory, "logo.png" ), "new logo" );
+        assertEquals( expected, watcher.awaitChanges() );
+    }
+}
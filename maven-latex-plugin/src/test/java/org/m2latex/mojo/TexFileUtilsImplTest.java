@@ -37,4 +37,11 @@ public class TexFileUtilsImplTest
                                                 new File( "/dir2" ) );
         assertEquals( expected, actual );
     }
+
+    public void testGetRelativePath()
+        throws Exception
+    {
+        String actual = utils.getRelativePath( new File( "/dir1/subdir/file.tex" ), new File( "/dir1" ) );
+        assertEquals( "subdir/file.tex", actual );
+    }
 }